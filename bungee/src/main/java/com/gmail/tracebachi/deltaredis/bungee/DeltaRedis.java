@@ -26,7 +26,10 @@ import com.gmail.tracebachi.deltaredis.shared.ChatMessageHelper;
 import com.gmail.tracebachi.deltaredis.shared.DeltaRedisApi;
 import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
 import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.frame.FrameCodec;
+import com.gmail.tracebachi.deltaredis.shared.message.MessageRegistry;
 import com.gmail.tracebachi.deltaredis.shared.redis.*;
+import com.gmail.tracebachi.deltaredis.shared.stream.StreamManager;
 import com.gmail.tracebachi.deltaredis.shared.structure.Channel;
 import com.gmail.tracebachi.deltaredis.shared.structure.Composer;
 import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
@@ -41,7 +44,6 @@ import net.md_5.bungee.config.YamlConfiguration;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -52,10 +54,12 @@ import java.util.concurrent.TimeUnit;
 public class DeltaRedis extends Plugin implements DeltaRedisPlugin {
 
     private final Composer<PluginSource> sources = new Composer<>();
+    private final MessageRegistry messageRegistry = new MessageRegistry(this);
 
     private BungeeSchedulerAdapter scheduler;
     private RedisConnectionManager manager;
     private DeltaRedisConfig config;
+    private FrameCodec frameCodec;
 
     @Override
     public void onEnable() {
@@ -70,14 +74,29 @@ public class DeltaRedis extends Plugin implements DeltaRedisPlugin {
 
         this.scheduler = new BungeeSchedulerAdapter(this);
         this.config = readConfig(loadConfig());
+        this.frameCodec = new FrameCodec(this.config);
 
         RedisClientFactory factory = new RedisClientFactory(this.config.credentials);
-        this.manager = new RedisConnectionManager(factory);
+        BlockingCallDetector blockingCallDetector = new BlockingCallDetector(this);
+        this.manager = new RedisConnectionManager(factory, blockingCallDetector);
 
-        DeltaRedisCommandSender commandSender = new DeltaRedisCommandSender(manager.getConnection(), this);
+        OutboundBatcher batcher = new OutboundBatcher(this.manager.getPublishConnection(), this);
+        DeltaRedisCommandSender commandSender = new DeltaRedisCommandSender(
+                this.manager.getConnection(), batcher, this);
+        StreamManager streamManager = new StreamManager(commandSender, this);
 
-        this.sources.add(new DeltaRedisPubSubListener(this));
+        HeaderDictionary dictionary = new HeaderDictionary(this.manager.getConnection(), this);
+        this.frameCodec.setDictionary(dictionary);
+
+        this.sources.add(blockingCallDetector);
+        InboundDispatcher dispatcher = new InboundDispatcher(this);
+
+        this.sources.add(dictionary);
+        this.sources.add(dispatcher);
+        this.sources.add(new DeltaRedisPubSubListener(this, streamManager, dispatcher));
+        this.sources.add(batcher);
         this.sources.add(commandSender);
+        this.sources.add(streamManager);
         this.sources.add(this.manager);
 
         this.sources.add(new DebugCategoryCommand(this));
@@ -86,7 +105,7 @@ public class DeltaRedis extends Plugin implements DeltaRedisPlugin {
 
         this.sources.register();
 
-        DeltaRedisApi.setup(commandSender, this);
+        DeltaRedisApi.setup(commandSender, streamManager, dispatcher, this.messageRegistry, this);
 
         getProxy().getScheduler().schedule(this, () ->
         {
@@ -118,11 +137,7 @@ public class DeltaRedis extends Plugin implements DeltaRedisPlugin {
 
         String sendingServer = allMessageParts.get(0);
         String channel = allMessageParts.get(1);
-        List<String> eventMessageParts = new ArrayList<>(allMessageParts.size() - 2);
-
-        for (int i = 2; i < allMessageParts.size(); i++) {
-            eventMessageParts.add(allMessageParts.get(i));
-        }
+        List<String> eventMessageParts = allMessageParts.subList(2, allMessageParts.size());
 
         onRedisMessageEvent(sendingServer, channel, eventMessageParts);
     }
@@ -133,10 +148,13 @@ public class DeltaRedis extends Plugin implements DeltaRedisPlugin {
         Preconditions.checkNotNull(channel, "channel");
         Preconditions.checkNotNull(messageParts, "messageParts");
 
+        this.messageRegistry.deliver(sendingServer, channel, messageParts);
+
         DeltaRedisMessageEvent event = new DeltaRedisMessageEvent(
                 sendingServer,
                 channel,
-                messageParts);
+                messageParts,
+                sendingServer.equals(this.config.serverName));
 
         getProxy().getPluginManager().callEvent(event);
     }
@@ -193,6 +211,41 @@ public class DeltaRedis extends Plugin implements DeltaRedisPlugin {
         return Channel.PROXY;
     }
 
+    @Override
+    public DeltaRedisConfig getDeltaRedisConfig() {
+        return this.config;
+    }
+
+    @Override
+    public FrameCodec getFrameCodec() {
+        return this.frameCodec;
+    }
+
+    /**
+     * BungeeCord has no main thread, every event runs on a pool thread
+     */
+    @Override
+    public boolean isServerThread() {
+        return false;
+    }
+
+    @Override
+    public String getPluginName(String className) {
+        for (Plugin plugin : getProxy().getPluginManager().getPlugins()) {
+            ClassLoader classLoader = plugin.getClass().getClassLoader();
+
+            try {
+                if (Class.forName(className, false, classLoader).getClassLoader() == classLoader) {
+                    return plugin.getDescription().getName();
+                }
+            } catch (ClassNotFoundException | LinkageError ignored) {
+                // Not visible to or not defined by this plugin
+            }
+        }
+
+        return null;
+    }
+
     private Configuration loadConfig() {
         try {
             File file = ConfigUtil.saveResource(
@@ -244,6 +297,10 @@ public class DeltaRedis extends Plugin implements DeltaRedisPlugin {
 
         RedisCredentials credentials = RedisCredentialsFactory.createRedisCredentials(configuration);
 
-        return new DeltaRedisConfig(0, proxyName, proxyName, debugEnabled, credentials);
+        DeltaRedisConfig result = new DeltaRedisConfig(0, proxyName, proxyName, debugEnabled, credentials);
+        result.scheduledPollerEnabled = true;
+        result.read(new BungeeConfigAccessor(configuration));
+
+        return result;
     }
 }
@@ -30,6 +30,7 @@ import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.api.plugin.PluginManager;
 import net.md_5.bungee.event.EventHandler;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -103,11 +104,13 @@ public class RunCmdCommand extends Command implements Listener, PluginSource {
             return;
         }
 
+        List<String> correctedDests = new ArrayList<>(argServers.size());
+
         for (String dest : argServers) {
             String correctedDest = getMatchInSet(servers, dest);
 
             if (correctedDest != null) {
-                deltaApi.sendServerCommand(correctedDest, commandStr, senderName);
+                correctedDests.add(correctedDest);
 
                 sendMessage(sender, format(
                         "DeltaRedis.CommandSent",
@@ -118,6 +121,10 @@ public class RunCmdCommand extends Command implements Listener, PluginSource {
                         dest));
             }
         }
+
+        if (!correctedDests.isEmpty()) {
+            deltaApi.sendServerCommand(correctedDests, commandStr, senderName);
+        }
     }
 
     @EventHandler
@@ -30,14 +30,21 @@ public class DeltaRedisMessageEvent extends Event {
     private final String sendingServer;
     private final String channel;
     private final List<String> messageParts;
+    private final boolean local;
 
     public DeltaRedisMessageEvent(@NonNull String sendingServer, @NonNull String channel, @NonNull List<String> messageParts) {
+        this(sendingServer, channel, messageParts, false);
+    }
+
+    public DeltaRedisMessageEvent(@NonNull String sendingServer, @NonNull String channel,
+                                  @NonNull List<String> messageParts, boolean local) {
         Preconditions.checkArgument(!sendingServer.isEmpty(), "Empty sendingServer");
         Preconditions.checkArgument(!channel.isEmpty(), "Empty channel");
 
         this.sendingServer = sendingServer;
         this.channel = channel;
         this.messageParts = Collections.unmodifiableList(messageParts);
+        this.local = local;
     }
 
     /**
@@ -60,4 +67,13 @@ public class DeltaRedisMessageEvent extends Event {
     public List<String> getMessageParts() {
         return messageParts;
     }
+
+    /**
+     * @return True if the proxy sent the message itself. The proxy receives
+     * its own messages to destinations it subscribes to, such as itself and
+     * its groups, directly instead of through Redis
+     */
+    public boolean isLocal() {
+        return local;
+    }
 }
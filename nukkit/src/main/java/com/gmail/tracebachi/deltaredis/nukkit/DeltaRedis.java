@@ -1,5 +1,6 @@
 package com.gmail.tracebachi.deltaredis.nukkit;
 
+import cn.nukkit.plugin.Plugin;
 import cn.nukkit.plugin.PluginBase;
 import cn.nukkit.utils.Config;
 import cn.nukkit.utils.ConfigSection;
@@ -10,7 +11,10 @@ import com.gmail.tracebachi.deltaredis.shared.ChatMessageHelper;
 import com.gmail.tracebachi.deltaredis.shared.DeltaRedisApi;
 import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
 import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.frame.FrameCodec;
+import com.gmail.tracebachi.deltaredis.shared.message.MessageRegistry;
 import com.gmail.tracebachi.deltaredis.shared.redis.*;
+import com.gmail.tracebachi.deltaredis.shared.stream.StreamManager;
 import com.gmail.tracebachi.deltaredis.shared.structure.Composer;
 import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
 import com.gmail.tracebachi.deltaredis.shared.structure.Channel;
@@ -18,16 +22,17 @@ import com.google.common.base.Preconditions;
 import lombok.NonNull;
 import me.loper.scheduler.SchedulerAdapter;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class DeltaRedis extends PluginBase implements DeltaRedisPlugin {
 
     private final Composer<PluginSource> sources = new Composer<>();
+    private final MessageRegistry messageRegistry = new MessageRegistry(this);
 
     private NukkitSchedulerAdapter scheduler;
     private DeltaRedisConfig config;
+    private FrameCodec frameCodec;
 
     private RedisConnectionManager manager;
 
@@ -45,19 +50,34 @@ public class DeltaRedis extends PluginBase implements DeltaRedisPlugin {
 
         this.scheduler = new NukkitSchedulerAdapter(this);
         this.config = readConfig(getConfig());
+        this.frameCodec = new FrameCodec(this.config);
 
         RedisClientFactory factory = new RedisClientFactory(this.config.credentials);
-        this.manager = new RedisConnectionManager(factory);
+        BlockingCallDetector blockingCallDetector = new BlockingCallDetector(this);
+        this.manager = new RedisConnectionManager(factory, blockingCallDetector);
 
-        DeltaRedisCommandSender commandSender = new DeltaRedisCommandSender(manager.getConnection(), this);
+        OutboundBatcher batcher = new OutboundBatcher(this.manager.getPublishConnection(), this);
+        DeltaRedisCommandSender commandSender = new DeltaRedisCommandSender(
+                this.manager.getConnection(), batcher, this);
+        StreamManager streamManager = new StreamManager(commandSender, this);
 
-        this.sources.add(new DeltaRedisPubSubListener(this));
+        HeaderDictionary dictionary = new HeaderDictionary(this.manager.getConnection(), this);
+        this.frameCodec.setDictionary(dictionary);
+
+        this.sources.add(blockingCallDetector);
+        InboundDispatcher dispatcher = new InboundDispatcher(this);
+
+        this.sources.add(dictionary);
+        this.sources.add(dispatcher);
+        this.sources.add(new DeltaRedisPubSubListener(this, streamManager, dispatcher));
+        this.sources.add(batcher);
         this.sources.add(commandSender);
+        this.sources.add(streamManager);
         this.sources.add(this.manager);
 
         this.sources.register();
 
-        DeltaRedisApi.setup(commandSender, this);
+        DeltaRedisApi.setup(commandSender, streamManager, dispatcher, this.messageRegistry, this);
 
         scheduler.asyncRepeating(() -> {
             commandSender.getServers();
@@ -93,7 +113,10 @@ public class DeltaRedis extends PluginBase implements DeltaRedisPlugin {
 
         RedisCredentials credentials = RedisCredentialsFactory.createRedisCredentials(configuration);
 
-        return new DeltaRedisConfig(updatePeriod, proxyName, serverName, debugEnabled, credentials);
+        DeltaRedisConfig result = new DeltaRedisConfig(updatePeriod, proxyName, serverName, debugEnabled, credentials);
+        result.read(new NukkitConfigAccessor(configuration));
+
+        return result;
     }
 
     @Override
@@ -113,26 +136,20 @@ public class DeltaRedis extends PluginBase implements DeltaRedisPlugin {
 
         String sendingServer = publishedMessageParts.get(0);
         String channel = publishedMessageParts.get(1);
-        List<String> eventMessageParts = new ArrayList<>(publishedMessageParts.size() - 2);
-
-        for (int i = 2; i < publishedMessageParts.size(); i++) {
-            eventMessageParts.add(publishedMessageParts.get(i));
-        }
+        List<String> eventMessageParts = publishedMessageParts.subList(2, publishedMessageParts.size());
 
         onRedisMessageEvent(sendingServer, channel, eventMessageParts);
     }
 
     @Override
     public void onRedisMessageEvent(String server, String channel, List<String> messageParts) {
-
-        if (getServerName().equals(server)) {
-            return;
-        }
+        this.messageRegistry.deliver(server, channel, messageParts);
 
         DeltaRedisMessageEvent event = new DeltaRedisMessageEvent(
                 server,
                 channel,
-                messageParts);
+                messageParts,
+                server.equals(this.config.serverName));
 
         this.getServer().getPluginManager().callEvent(event);
     }
@@ -186,4 +203,36 @@ public class DeltaRedis extends PluginBase implements DeltaRedisPlugin {
     public String getCommonChannel() {
         return Channel.NUKKIT;
     }
+
+    @Override
+    public DeltaRedisConfig getDeltaRedisConfig() {
+        return this.config;
+    }
+
+    @Override
+    public FrameCodec getFrameCodec() {
+        return this.frameCodec;
+    }
+
+    @Override
+    public boolean isServerThread() {
+        return getServer().isPrimaryThread();
+    }
+
+    @Override
+    public String getPluginName(String className) {
+        for (Plugin plugin : getServer().getPluginManager().getPlugins().values()) {
+            ClassLoader classLoader = plugin.getClass().getClassLoader();
+
+            try {
+                if (Class.forName(className, false, classLoader).getClassLoader() == classLoader) {
+                    return plugin.getName();
+                }
+            } catch (ClassNotFoundException | LinkageError ignored) {
+                // Not visible to or not defined by this plugin
+            }
+        }
+
+        return null;
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.nukkit;
+
+import cn.nukkit.utils.Config;
+import com.gmail.tracebachi.deltaredis.shared.ConfigAccessor;
+
+import java.util.Collection;
+import java.util.List;
+
+public class NukkitConfigAccessor implements ConfigAccessor {
+
+    private final Config config;
+
+    public NukkitConfigAccessor(Config config) {
+        this.config = config;
+    }
+
+    @Override
+    public String getString(String path, String def) {
+        return this.config.getString(path, def);
+    }
+
+    @Override
+    public int getInt(String path, int def) {
+        return this.config.getInt(path, def);
+    }
+
+    @Override
+    public long getLong(String path, long def) {
+        return this.config.getLong(path, def);
+    }
+
+    @Override
+    public double getDouble(String path, double def) {
+        return this.config.getDouble(path, def);
+    }
+
+    @Override
+    public boolean getBoolean(String path, boolean def) {
+        return this.config.getBoolean(path, def);
+    }
+
+    @Override
+    public List<String> getStringList(String path) {
+        return this.config.getStringList(path);
+    }
+
+    @Override
+    public Collection<String> getKeys(String path) {
+        // Missing sections are returned as empty ones
+        return this.config.getSection(path).getKeys(false);
+    }
+}
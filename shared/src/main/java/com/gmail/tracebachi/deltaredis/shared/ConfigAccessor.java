@@ -0,0 +1,47 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Read access to the configuration of a platform, by dot separated paths
+ */
+public interface ConfigAccessor {
+
+    String getString(String path, String def);
+
+    int getInt(String path, int def);
+
+    long getLong(String path, long def);
+
+    double getDouble(String path, double def);
+
+    boolean getBoolean(String path, boolean def);
+
+    /**
+     * @return Strings at the path, or an empty list if there are none
+     */
+    List<String> getStringList(String path);
+
+    /**
+     * @return Keys directly below the path, or an empty collection if there
+     * is no section at the path
+     */
+    Collection<String> getKeys(String path);
+}
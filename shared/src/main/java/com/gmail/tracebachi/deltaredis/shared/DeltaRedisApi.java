@@ -18,16 +18,31 @@ package com.gmail.tracebachi.deltaredis.shared;
 
 import com.gmail.tracebachi.deltaredis.shared.cache.CachedPlayer;
 import com.gmail.tracebachi.deltaredis.shared.cache.CachedPlayerCallback;
+import com.gmail.tracebachi.deltaredis.shared.message.MessageCodec;
+import com.gmail.tracebachi.deltaredis.shared.message.MessageHandler;
+import com.gmail.tracebachi.deltaredis.shared.message.MessageRegistry;
+import com.gmail.tracebachi.deltaredis.shared.metrics.CompressionMetrics;
+import com.gmail.tracebachi.deltaredis.shared.metrics.DeliveryMetrics;
+import com.gmail.tracebachi.deltaredis.shared.metrics.ExpiryMetrics;
+import com.gmail.tracebachi.deltaredis.shared.metrics.FlushMetrics;
+import com.gmail.tracebachi.deltaredis.shared.metrics.InboundMetrics;
+import com.gmail.tracebachi.deltaredis.shared.metrics.OutboundQueueMetrics;
+import com.gmail.tracebachi.deltaredis.shared.metrics.SequenceMetrics;
+import com.gmail.tracebachi.deltaredis.shared.redis.DeadLetterHandler;
+import com.gmail.tracebachi.deltaredis.shared.redis.DeliveryPolicy;
 import com.gmail.tracebachi.deltaredis.shared.redis.DeltaRedisCommandSender;
+import com.gmail.tracebachi.deltaredis.shared.redis.InboundDispatcher;
+import com.gmail.tracebachi.deltaredis.shared.redis.TokenBucket;
+import com.gmail.tracebachi.deltaredis.shared.stream.StreamHandler;
+import com.gmail.tracebachi.deltaredis.shared.stream.StreamManager;
 import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
 import com.gmail.tracebachi.deltaredis.shared.structure.Channel;
 import com.google.common.base.Preconditions;
 import lombok.NonNull;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Set;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static com.gmail.tracebachi.deltaredis.shared.DeltaRedisChannels.*;
 
@@ -38,6 +53,9 @@ public class DeltaRedisApi {
     private static DeltaRedisApi instance;
 
     private DeltaRedisCommandSender deltaSender;
+    private StreamManager streamManager;
+    private InboundDispatcher inboundDispatcher;
+    private MessageRegistry messageRegistry;
     private DeltaRedisPlugin plugin;
 
     /**
@@ -87,6 +105,120 @@ public class DeltaRedisApi {
         return deltaSender.getCachedPlayers();
     }
 
+    /**
+     * @return Groups the current server is a member of
+     * <p>This value is set in the configuration file for each server</p>
+     */
+    public List<String> getGroups() {
+        return plugin.getDeltaRedisConfig().groups;
+    }
+
+    /**
+     * @return Counters for the pipelined flushes of published messages
+     */
+    public FlushMetrics getFlushMetrics() {
+        return deltaSender.getBatcher().getMetrics();
+    }
+
+    /**
+     * @return Counters for the publishes dropped, rejected or blocked by a
+     * full outbound queue
+     */
+    public OutboundQueueMetrics getOutboundQueueMetrics() {
+        return deltaSender.getBatcher().getQueueMetrics();
+    }
+
+    /**
+     * @return Number of publishes queued or waiting for Redis to answer
+     */
+    public int getOutboundQueueDepth() {
+        return deltaSender.getBatcher().getOutstandingCount();
+    }
+
+    /**
+     * @return True if the outbound queue is full or has not drained yet
+     * since it last was
+     */
+    public boolean isOutboundQueueOverloaded() {
+        return deltaSender.getBatcher().isOverloaded();
+    }
+
+    /**
+     * @return Token buckets of the channels with a rate limit, by channel
+     */
+    public Map<String, TokenBucket> getChannelRateLimits() {
+        return deltaSender.getRateLimiter().getChannelBuckets();
+    }
+
+    /**
+     * @return Token buckets of the plugins with a rate limit, by plugin name
+     */
+    public Map<String, TokenBucket> getPluginRateLimits() {
+        return deltaSender.getRateLimiter().getPluginBuckets();
+    }
+
+    /**
+     * @return Counters for the received messages handed to the inbound
+     * threads or dropped by them
+     */
+    public InboundMetrics getInboundMetrics() {
+        return inboundDispatcher.getMetrics();
+    }
+
+    /**
+     * @return Number of received messages waiting for an inbound thread
+     */
+    public int getInboundQueueDepth() {
+        return inboundDispatcher.getQueuedCount();
+    }
+
+    /**
+     * @return Counters for the received messages that Redis lost, duplicated
+     * or reordered, while sequence numbers are enabled
+     */
+    public SequenceMetrics getSequenceMetrics() {
+        return inboundDispatcher.getSequenceTracker().getMetrics();
+    }
+
+    /**
+     * @return Counters for messages no subscriber received, per destination
+     */
+    public DeliveryMetrics getDeliveryMetrics() {
+        return deltaSender.getDeliveryRetrier().getMetrics();
+    }
+
+    /**
+     * Sets the handler called with messages that stayed undelivered after
+     * the retries of their channel {@link DeliveryPolicy}
+     *
+     * @param handler Handler to call asynchronously or null to remove it
+     */
+    public void setDeadLetterHandler(DeadLetterHandler handler) {
+        deltaSender.getDeliveryRetrier().setDeadLetterHandler(handler);
+    }
+
+    /**
+     * @return Counters for compressed frames sent and received
+     */
+    public CompressionMetrics getCompressionMetrics() {
+        return plugin.getFrameCodec().getCompressionMetrics();
+    }
+
+    /**
+     * @return Counters for received messages dropped because their TTL had passed
+     */
+    public ExpiryMetrics getExpiryMetrics() {
+        return plugin.getFrameCodec().getExpiryMetrics();
+    }
+
+    /**
+     * @return Number of blocking calls made on the server thread since the
+     * server started, counted while strict thread checks are enabled
+     */
+    public long getBlockingServerThreadCalls() {
+        return plugin.getRedisConnectionManager().getBlockingCallDetector().getDetectedCalls();
+    }
+
     /**
      * @param partial Non-null string that is the beginning of a name
      * @return A list of player names that begins with the partial
@@ -136,20 +268,22 @@ public class DeltaRedisApi {
 
     /**
      * Asynchronously looks for the player in Redis
-     * <p>The callback is called synchronously with the {@link CachedPlayer} or null</p>
+     * <p>The callback is called with the {@link CachedPlayer} or null, on the
+     * server thread or on an async scheduler thread. It is not called if the
+     * lookup fails.</p>
      *
      * @param playerName   Name of the player to find
      * @param callback     Callback to run when fetch is complete
      * @param syncCallback Set to true to run callback sync else it will run async
      */
     public void findPlayer(@NonNull String playerName, @NonNull CachedPlayerCallback callback, boolean syncCallback) {
-        plugin.getScheduler().executeAsync(() -> {
-            CachedPlayer cachedPlayer = deltaSender.getPlayer(playerName);
-
-            if (syncCallback) {
+        deltaSender.getPlayer(playerName).whenComplete((cachedPlayer, ex) -> {
+            if (ex != null) {
+                plugin.severe("Failed to find player " + playerName + ": " + ex.getMessage());
+            } else if (syncCallback) {
                 plugin.getScheduler().executeSync(() -> callback.call(cachedPlayer));
             } else {
-                callback.call(cachedPlayer);
+                plugin.getScheduler().executeAsync(() -> callback.call(cachedPlayer));
             }
         });
     }
@@ -167,33 +301,146 @@ public class DeltaRedisApi {
 
     /**
      * Publishes a message to Redis
+     * <p>The message is queued and written with the next pipelined flush.
+     * If the current server subscribes to the destination, it receives the
+     * message directly instead of through Redis. Its message event is then
+     * marked as local, so listeners can skip the messages of their own
+     * server.</p>
      *
      * @param destination  Server to send message to
      * @param channel      Channel of the message
      * @param messageParts The actual message
      */
     public void publish(@NonNull String destination, @NonNull String channel, @NonNull List<String> messageParts) {
+        deltaSender.publish(destination, channel, messageParts);
+    }
 
-        if (plugin.getServerName().equals(destination)) {
-            plugin.getScheduler().executeSync(() -> plugin.onRedisMessageEvent(destination, channel, messageParts));
-            return;
-        }
+    /**
+     * Publishes a message to every server that is a member of the group
+     * <p>The current server receives the message directly if it is a
+     * member of the group.</p>
+     *
+     * @param group        Name of the group to send message to
+     * @param channel      Channel of the message
+     * @param messageParts The actual message
+     * @return Future completed with the number of servers that received the message
+     */
+    public CompletableFuture<Long> publishToGroup(@NonNull String group, @NonNull String channel,
+                                                  @NonNull List<String> messageParts) {
+        return deltaSender.publishToGroup(group, channel, messageParts);
+    }
 
-        plugin.getScheduler().executeSync(() -> deltaSender.publish(destination, channel, messageParts));
+    /**
+     * Publishes the same message to several servers at once
+     * <p>The message is encoded once and every publish is written with the
+     * same pipelined flush. Destinations the current server subscribes to
+     * are delivered to it directly, and the current server itself is
+     * reported with one receiver.</p>
+     *
+     * @param destinations Servers to send message to
+     * @param channel      Channel of the message
+     * @param messageParts The actual message
+     * @return Future completed with the number of receivers per destination
+     */
+    public CompletableFuture<Map<String, Long>> publish(@NonNull Collection<String> destinations,
+                                                        @NonNull String channel,
+                                                        @NonNull List<String> messageParts) {
+        return deltaSender.publish(destinations, channel, messageParts);
+    }
+
+    /**
+     * Publishes a message at a later time
+     * <p>The message is stored in Redis until it is due, so it is still
+     * delivered if the current server restarts in the meantime. It is
+     * published by a server with the scheduled message poller enabled.</p>
+     *
+     * @param timestamp    Epoch milliseconds from which the message is due
+     * @param destination  Server to send message to
+     * @param channel      Channel of the message
+     * @param messageParts The actual message
+     * @return Future completed once the message is stored
+     */
+    public CompletableFuture<Void> publishAt(long timestamp, @NonNull String destination, @NonNull String channel,
+                                             @NonNull List<String> messageParts) {
+        return deltaSender.publishAt(timestamp, destination, channel, messageParts);
     }
 
     /**
      * Publishes a message to Redis for all subscribed spigot servers.
+     * <p>Spigot servers subscribe to {@link Channel#SPIGOT}, so a Spigot
+     * server that publishes the message receives it as well.</p>
      *
      * @param channel      Channel of the message
      * @param messageParts The actual message
      */
     public void publish(@NonNull String channel, @NonNull List<String> messageParts) {
-        plugin.getScheduler().executeAsync(() -> deltaSender.publish(Channel.SPIGOT, channel, messageParts));
+        deltaSender.publish(Channel.SPIGOT, channel, messageParts);
+    }
+
+    /**
+     * Sets the codec that converts the messages of a channel to and from
+     * message parts, for {@link #publishMessage(String, String, Object)} and
+     * {@link #subscribe(String, Class, MessageHandler)}
+     *
+     * @param channel Channel of the messages
+     * @param type    Type of the messages
+     * @param codec   Codec shared by every message of the channel
+     */
+    public <T> void registerCodec(@NonNull String channel, @NonNull Class<T> type, @NonNull MessageCodec<T> codec) {
+        messageRegistry.registerCodec(channel, type, codec);
+    }
+
+    /**
+     * Publishes a message encoded by the codec of its channel
+     *
+     * @param destination Server to send message to
+     * @param channel     Channel of the message
+     * @param message     The actual message
+     * @return Future completed with the number of servers that received the message
+     */
+    public <T> CompletableFuture<Long> publishMessage(@NonNull String destination, @NonNull String channel,
+                                                      @NonNull T message) {
+        return deltaSender.publish(destination, channel, messageRegistry.encode(channel, message));
+    }
+
+    /**
+     * Publishes a message encoded by the codec of its channel for all
+     * subscribed spigot servers
+     *
+     * @param channel Channel of the message
+     * @param message The actual message
+     * @return Future completed with the number of servers that received the message
+     */
+    public <T> CompletableFuture<Long> publishMessage(@NonNull String channel, @NonNull T message) {
+        return publishMessage(Channel.SPIGOT, channel, message);
+    }
+
+    /**
+     * Adds a handler for the messages of a channel, decoded by its codec
+     * <p>Each message is decoded once for all handlers of its channel. The
+     * message event of the platform is still called as well.</p>
+     *
+     * @param channel Channel of the messages
+     * @param type    Type the handler expects
+     * @param handler Handler to add
+     */
+    public <T> void subscribe(@NonNull String channel, @NonNull Class<T> type, @NonNull MessageHandler<T> handler) {
+        messageRegistry.subscribe(channel, type, handler);
+    }
+
+    /**
+     * Removes a handler added with {@link #subscribe(String, Class, MessageHandler)}
+     *
+     * @param channel Channel of the messages
+     * @param handler Handler to remove
+     */
+    public void unsubscribe(@NonNull String channel, @NonNull MessageHandler<?> handler) {
+        messageRegistry.unsubscribe(channel, handler);
     }
 
     /**
      * Sends a command that will run as OP by the receiving server
+     * <p>A Spigot server does not run the commands it sent itself.</p>
      *
      * @param destServer Destination server name, {@link Channel#SPIGOT},
      *                   or {@link Channel#PROXY}
@@ -206,7 +453,34 @@ public class DeltaRedisApi {
             return;
         }
 
-        plugin.getScheduler().executeAsync(() -> deltaSender.publish(destServer, RUN_CMD, sender, command));
+        deltaSender.publish(destServer, RUN_CMD, sender, command);
+    }
+
+    /**
+     * Sends a command that will run as OP by each of the receiving servers
+     * <p>All servers receive the command with the same pipelined flush.</p>
+     *
+     * @param destServers Destination server names
+     * @param command     Command to send
+     * @param sender      Name to record in the logs as having run the command
+     * @return Future completed with the number of receivers per destination
+     */
+    public CompletableFuture<Map<String, Long>> sendServerCommand(@NonNull Collection<String> destServers,
+                                                                  @NonNull String command,
+                                                                  @NonNull String sender) {
+        String serverName = plugin.getServerName();
+        Set<String> remote = new LinkedHashSet<>(destServers);
+
+        if (!remote.remove(serverName)) {
+            return deltaSender.publish(remote, RUN_CMD, Arrays.asList(sender, command));
+        }
+
+        plugin.getScheduler().executeSync(() -> plugin.sendConsoleCommand(command));
+
+        return deltaSender.publish(remote, RUN_CMD, Arrays.asList(sender, command)).thenApply(receivers -> {
+            receivers.put(serverName, 1L);
+            return receivers;
+        });
     }
 
     /**
@@ -222,15 +496,13 @@ public class DeltaRedisApi {
         Preconditions.checkNotNull(playerName, "playerName");
         Preconditions.checkNotNull(message, "message");
 
-        plugin.getScheduler().executeAsync(() -> {
-            CachedPlayer cachedPlayer = deltaSender.getPlayer(playerName);
-
-            if (cachedPlayer == null) {
-                return;
+        deltaSender.getPlayer(playerName).whenCompleteAsync((cachedPlayer, ex) -> {
+            if (ex != null) {
+                plugin.severe("Failed to find player " + playerName + " to send a message: " + ex.getMessage());
+            } else if (cachedPlayer != null) {
+                deltaSender.publish(cachedPlayer.getServer(), SEND_MESSAGE, playerName, message);
             }
-
-            deltaSender.publish(cachedPlayer.getServer(), SEND_MESSAGE, playerName, message);
-        });
+        }, plugin.getScheduler().async());
     }
 
     /**
@@ -248,11 +520,12 @@ public class DeltaRedisApi {
         Preconditions.checkNotNull(message, "message");
         Preconditions.checkArgument(!server.equals(Channel.PROXY), "Message must be sent from PROXY");
 
-        plugin.getScheduler().executeAsync(() -> deltaSender.publish(server, SEND_MESSAGE, playerName, message));
+        deltaSender.publish(server, SEND_MESSAGE, playerName, message);
     }
 
     /**
      * Sends an announcement to all players on a server
+     * <p>A Spigot server does not show the announcements it sent itself.</p>
      *
      * @param destServer   Destination server name or {@link Channel#SPIGOT}
      * @param announcement Announcement to send
@@ -264,6 +537,7 @@ public class DeltaRedisApi {
     /**
      * Sends an announcement to all players on a server with a specific
      * permission
+     * <p>A Spigot server does not show the announcements it sent itself.</p>
      *
      * @param destServer   Destination server name or {@link Channel#SPIGOT}
      * @param announcement Announcement to send
@@ -274,27 +548,62 @@ public class DeltaRedisApi {
         Preconditions.checkNotNull(announcement, "announcement");
         Preconditions.checkNotNull(permission, "permission");
 
-        plugin.getScheduler().executeAsync(() -> deltaSender.publish(
-                destServer, SEND_ANNOUNCEMENT, permission, announcement));
+        deltaSender.publish(destServer, SEND_ANNOUNCEMENT, permission, announcement);
+    }
+
+    /**
+     * Opens a stream to send data too large for a single message
+     * <p>The data is split into chunks that are reassembled by the
+     * {@link StreamHandler} of the channel on the receiving server. Writing
+     * blocks while Redis catches up and until the reader has made room for
+     * more chunks, so the stream must be written to asynchronously. Closing
+     * the stream sends the last chunk.</p>
+     * <p>Both servers need the same 'max-buffered-chunks'. When the
+     * destination is several servers, the fastest reader paces the stream and
+     * slower readers may still fall behind and fail.</p>
+     *
+     * @param destination Server to send the stream to
+     * @param channel     Channel of the stream
+     * @return Stream to write the data to
+     */
+    public OutputStream openStream(@NonNull String destination, @NonNull String channel) {
+        return streamManager.openStream(destination, channel);
+    }
+
+    /**
+     * Sets the handler for the streams received on a channel
+     *
+     * @param channel Channel of the streams
+     * @param handler Handler called asynchronously for each stream or null to remove it
+     */
+    public void setStreamHandler(@NonNull String channel, StreamHandler handler) {
+        streamManager.setHandler(channel, handler);
     }
 
     /**
      * Private constructor
      */
-    private DeltaRedisApi(DeltaRedisCommandSender deltaSender, DeltaRedisPlugin plugin) {
+    private DeltaRedisApi(DeltaRedisCommandSender deltaSender, StreamManager streamManager,
+                          InboundDispatcher inboundDispatcher, MessageRegistry messageRegistry,
+                          DeltaRedisPlugin plugin) {
         this.deltaSender = deltaSender;
+        this.streamManager = streamManager;
+        this.inboundDispatcher = inboundDispatcher;
+        this.messageRegistry = messageRegistry;
         this.plugin = plugin;
     }
 
     /**
      * Sets up the api instance
      */
-    public static void setup(DeltaRedisCommandSender deltaSender, DeltaRedisPlugin plugin) {
+    public static void setup(DeltaRedisCommandSender deltaSender, StreamManager streamManager,
+                             InboundDispatcher inboundDispatcher, MessageRegistry messageRegistry,
+                             DeltaRedisPlugin plugin) {
         if (instance != null) {
             shutdown();
         }
 
-        instance = new DeltaRedisApi(deltaSender, plugin);
+        instance = new DeltaRedisApi(deltaSender, streamManager, inboundDispatcher, messageRegistry, plugin);
     }
 
     /**
@@ -303,6 +612,9 @@ public class DeltaRedisApi {
     public static void shutdown() {
         if (instance != null) {
             instance.deltaSender = null;
+            instance.streamManager = null;
+            instance.inboundDispatcher = null;
+            instance.messageRegistry = null;
             instance.plugin = null;
             instance = null;
         }
@@ -39,4 +39,27 @@ public interface DeltaRedisChannels {
      * Change for the /setdebug command to forward changes to Bungee
      */
     String DEBUG_CATEGORY_CHANGE = "DR-DebugCategoryChange";
+
+    /**
+     * Channel for messages no subscriber received, sent to the dead-letter
+     * destination of a {@link com.gmail.tracebachi.deltaredis.shared.redis.DeliveryPolicy}
+     * <p>The message parts are the original destination, the original channel
+     * and the original message parts.</p>
+     */
+    String DEAD_LETTER = "DR-DeadLetter";
+
+    /**
+     * Channel for the chunks of streams opened with
+     * {@link DeltaRedisApi#openStream(String, String)}
+     */
+    String STREAM = "DR-Stream";
+
+    /**
+     * Channel for the copies of scheduled messages that another server
+     * published in the name of the server that scheduled them
+     * <p>That server skips the published message as an echo of its own, so
+     * it receives it on this channel. The message parts are the original
+     * destination, the original channel and the original message parts.</p>
+     */
+    String SCHEDULED_RELAY = "DR-ScheduledRelay";
 }
@@ -1,13 +1,334 @@
 package com.gmail.tracebachi.deltaredis.shared;
 
+import com.gmail.tracebachi.deltaredis.shared.frame.WireFormat;
+import com.gmail.tracebachi.deltaredis.shared.redis.DeliveryPolicy;
+import com.gmail.tracebachi.deltaredis.shared.redis.OverflowPolicy;
+import com.gmail.tracebachi.deltaredis.shared.redis.RateLimit;
+import com.gmail.tracebachi.deltaredis.shared.redis.RateLimitPolicy;
 import com.gmail.tracebachi.deltaredis.shared.redis.RedisCredentials;
-import lombok.AllArgsConstructor;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-@AllArgsConstructor
 public class DeltaRedisConfig {
     public final int updatePeriod;
     public final String proxyName;
     public final String serverName;
     public boolean debugEnabled;
     public final RedisCredentials credentials;
+
+    /**
+     * Milliseconds between pipelined flushes of queued publishes
+     */
+    public long publishFlushInterval = 50;
+
+    /**
+     * Number of queued publishes that triggers a flush before the interval ends
+     */
+    public int publishMaxBatchSize = 256;
+
+    /**
+     * Size in bytes from which frames are stored under a key of their own
+     * and published as a claim-check, or 0 to disable
+     */
+    public int claimCheckThreshold = 0;
+
+    /**
+     * Seconds a claim-checked payload is kept in Redis
+     */
+    public long claimCheckTtl = 60;
+
+    /**
+     * Number of publishes that can be queued or waiting for Redis before
+     * the overflow policy applies
+     */
+    public int publishQueueCapacity = 10000;
+
+    /**
+     * Overflow policy for channels without one of their own
+     */
+    public OverflowPolicy overflowPolicy = OverflowPolicy.FAIL;
+
+    /**
+     * Overflow policies by message channel
+     */
+    public Map<String, OverflowPolicy> channelOverflowPolicies = Collections.emptyMap();
+
+    /**
+     * Milliseconds a publish with the {@link OverflowPolicy#BLOCK} policy waits for room
+     */
+    public long publishBlockTimeout = 1000;
+
+    /**
+     * Delivery policies by message channel, for channels whose messages are
+     * retried when no subscriber receives them
+     */
+    public Map<String, DeliveryPolicy> deliveryPolicies = Collections.emptyMap();
+
+    /**
+     * Milliseconds after which a published message is dropped by the servers
+     * receiving it, for channels without a TTL of their own, or 0 to disable
+     */
+    public int messageTtl = 0;
+
+    /**
+     * Message TTLs in milliseconds by message channel
+     */
+    public Map<String, Integer> channelTtls = Collections.emptyMap();
+
+    /**
+     * Format of the frames this server publishes
+     */
+    public WireFormat wireFormat = WireFormat.DELTA_SEPARATED;
+
+    /**
+     * Whether binary frames send the sending server and channel as ids of
+     * the header dictionary once they have one
+     */
+    public boolean internHeaders = false;
+
+    /**
+     * Whether published frames carry a sequence number per Redis channel, so
+     * that receivers can count missed, duplicated and reordered frames
+     */
+    public boolean sequenceNumbers = false;
+
+    /**
+     * Size in bytes from which binary frame bodies are compressed, or 0 to disable
+     */
+    public int compressionThreshold = 0;
+
+    /**
+     * Groups the server belongs to, each one subscribed as a group channel
+     */
+    public List<String> groups = Collections.emptyList();
+
+    /**
+     * Whether this server claims and publishes the scheduled messages that are due
+     */
+    public boolean scheduledPollerEnabled = false;
+
+    /**
+     * Milliseconds between two polls for due scheduled messages
+     */
+    public long scheduledPollInterval = 1000;
+
+    /**
+     * Number of due scheduled messages claimed per poll
+     */
+    public int scheduledBatchSize = 100;
+
+    /**
+     * Bytes of data per stream chunk
+     */
+    public int streamChunkSize = 32 * 1024;
+
+    /**
+     * Chunks of an outbound stream that can wait for Redis before writes block
+     */
+    public int streamMaxInFlight = 4;
+
+    /**
+     * Chunks of an inbound stream buffered for a reader that falls behind
+     */
+    public int streamMaxBufferedChunks = 16;
+
+    /**
+     * Inbound streams that can be received at the same time
+     */
+    public int streamMaxInbound = 16;
+
+    /**
+     * Milliseconds without progress after which a stream transfer fails
+     */
+    public long streamTimeout = 10000;
+
+    /**
+     * Threads that decode received frames and call the listeners
+     */
+    public int inboundThreads = 2;
+
+    /**
+     * Received frames each inbound thread queues before dropping new ones
+     */
+    public int inboundQueueCapacity = 10000;
+
+    /**
+     * Channels whose messages only matter for their newest value per first
+     * message part, so older pending ones are dropped
+     */
+    public Set<String> conflatedChannels = Collections.emptySet();
+
+    /**
+     * Milliseconds between two deliveries of the held conflated messages
+     */
+    public long conflationInterval = 50;
+
+    /**
+     * Rate limits by message channel
+     */
+    public Map<String, RateLimit> channelRateLimits = Collections.emptyMap();
+
+    /**
+     * Rate limits by name of the plugin making the publishes
+     */
+    public Map<String, RateLimit> pluginRateLimits = Collections.emptyMap();
+
+    /**
+     * Whether blocking Redis calls made on the server thread are reported
+     */
+    public boolean strictThreadChecks = false;
+
+    /**
+     * Milliseconds per tick spent running the tasks queued for the main
+     * thread, on servers that queue them
+     */
+    public long syncTickBudget = 5;
+
+    public DeltaRedisConfig(int updatePeriod, String proxyName, String serverName,
+                            boolean debugEnabled, RedisCredentials credentials) {
+        this.updatePeriod = updatePeriod;
+        this.proxyName = proxyName;
+        this.serverName = serverName;
+        this.debugEnabled = debugEnabled;
+        this.credentials = credentials;
+    }
+
+    /**
+     * Reads and validates the keys shared by all platforms. Keys that are
+     * missing keep the current value of their field.
+     */
+    public void read(ConfigAccessor config) {
+        Preconditions.checkNotNull(config, "config");
+
+        Map<String, OverflowPolicy> policies = new HashMap<>();
+
+        for (String key : config.getKeys("publish.channel-overflow-policies")) {
+            String policy = config.getString("publish.channel-overflow-policies." + key, null);
+            policies.put(key, OverflowPolicy.valueOf(policy.toUpperCase()));
+        }
+
+        Map<String, Integer> ttls = new HashMap<>();
+
+        for (String key : config.getKeys("publish.channel-ttls")) {
+            ttls.put(key, config.getInt("publish.channel-ttls." + key, 0));
+        }
+
+        Map<String, DeliveryPolicy> delivery = new HashMap<>();
+
+        for (String key : config.getKeys("publish.delivery-policies")) {
+            String path = "publish.delivery-policies." + key + ".";
+            delivery.put(key, new DeliveryPolicy(
+                    config.getLong(path + "retry-timeout", 30000),
+                    config.getLong(path + "retry-backoff", 250),
+                    config.getLong(path + "max-backoff", 5000),
+                    config.getString(path + "dead-letter-destination", null)));
+        }
+
+        publishFlushInterval = config.getLong("publish.flush-interval", publishFlushInterval);
+        publishMaxBatchSize = config.getInt("publish.max-batch-size", publishMaxBatchSize);
+        wireFormat = WireFormat.valueOf(
+                config.getString("publish.wire-format", wireFormat.name()).toUpperCase());
+        compressionThreshold = config.getInt("publish.compression-threshold", compressionThreshold);
+        internHeaders = config.getBoolean("publish.intern-headers", internHeaders);
+        sequenceNumbers = config.getBoolean("publish.sequence-numbers", sequenceNumbers);
+        claimCheckThreshold = config.getInt("publish.claim-check-threshold", claimCheckThreshold);
+        claimCheckTtl = config.getLong("publish.claim-check-ttl", claimCheckTtl);
+        publishQueueCapacity = config.getInt("publish.queue-capacity", publishQueueCapacity);
+        overflowPolicy = OverflowPolicy.valueOf(
+                config.getString("publish.overflow-policy", overflowPolicy.name()).toUpperCase());
+        publishBlockTimeout = config.getLong("publish.block-timeout", publishBlockTimeout);
+        channelOverflowPolicies = Collections.unmodifiableMap(policies);
+        deliveryPolicies = Collections.unmodifiableMap(delivery);
+        messageTtl = config.getInt("publish.message-ttl", messageTtl);
+        channelTtls = Collections.unmodifiableMap(ttls);
+        scheduledPollerEnabled = config.getBoolean("scheduled.poller", scheduledPollerEnabled);
+        scheduledPollInterval = config.getLong("scheduled.poll-interval", scheduledPollInterval);
+        scheduledBatchSize = config.getInt("scheduled.batch-size", scheduledBatchSize);
+        streamChunkSize = config.getInt("stream.chunk-size", streamChunkSize);
+        streamMaxInFlight = config.getInt("stream.max-in-flight", streamMaxInFlight);
+        streamMaxBufferedChunks = config.getInt("stream.max-buffered-chunks", streamMaxBufferedChunks);
+        streamMaxInbound = config.getInt("stream.max-inbound", streamMaxInbound);
+        streamTimeout = config.getLong("stream.timeout", streamTimeout);
+        conflatedChannels = Collections.unmodifiableSet(
+                new HashSet<>(config.getStringList("conflation.channels")));
+        conflationInterval = config.getLong("conflation.interval", conflationInterval);
+        inboundThreads = config.getInt("inbound.threads", inboundThreads);
+        inboundQueueCapacity = config.getInt("inbound.queue-capacity", inboundQueueCapacity);
+        channelRateLimits = readRateLimits(config, "rate-limits.channels");
+        pluginRateLimits = readRateLimits(config, "rate-limits.plugins");
+        strictThreadChecks = config.getBoolean("strict-thread-checks", strictThreadChecks);
+        groups = Collections.unmodifiableList(new ArrayList<>(config.getStringList("groups")));
+
+        Preconditions.checkArgument(publishFlushInterval > 0, "Publish flush interval must be positive.");
+        Preconditions.checkArgument(publishMaxBatchSize > 0, "Publish batch size must be positive.");
+        Preconditions.checkArgument(compressionThreshold >= 0, "Compression threshold can not be negative.");
+        Preconditions.checkArgument(claimCheckThreshold >= 0, "Claim-check threshold can not be negative.");
+        Preconditions.checkArgument(claimCheckTtl > 0, "Claim-check TTL must be positive.");
+        Preconditions.checkArgument(publishQueueCapacity > 0, "Publish queue capacity must be positive.");
+        Preconditions.checkArgument(publishBlockTimeout >= 0, "Publish block timeout can not be negative.");
+        Preconditions.checkArgument(scheduledPollInterval > 0, "Scheduled poll interval must be positive.");
+        Preconditions.checkArgument(scheduledBatchSize > 0, "Scheduled batch size must be positive.");
+        Preconditions.checkArgument(streamChunkSize > 0, "Stream chunk size must be positive.");
+        Preconditions.checkArgument(streamMaxInFlight > 0, "Stream max in flight must be positive.");
+        Preconditions.checkArgument(streamMaxBufferedChunks > 0, "Stream max buffered chunks must be positive.");
+        Preconditions.checkArgument(streamMaxInbound > 0, "Stream max inbound must be positive.");
+        Preconditions.checkArgument(streamTimeout > 0, "Stream timeout must be positive.");
+        Preconditions.checkArgument(conflationInterval > 0, "Conflation interval must be positive.");
+        Preconditions.checkArgument(inboundThreads > 0, "Inbound threads must be positive.");
+        Preconditions.checkArgument(inboundQueueCapacity > 0, "Inbound queue capacity must be positive.");
+        Preconditions.checkArgument(messageTtl >= 0, "Message TTL can not be negative.");
+
+        for (int ttl : channelTtls.values()) {
+            Preconditions.checkArgument(ttl >= 0, "Message TTL can not be negative.");
+            Preconditions.checkArgument(ttl == 0 || wireFormat == WireFormat.BINARY,
+                    "Message TTLs require the BINARY wire format.");
+        }
+
+        Preconditions.checkArgument(messageTtl == 0 || wireFormat == WireFormat.BINARY,
+                "Message TTLs require the BINARY wire format.");
+        Preconditions.checkArgument(!sequenceNumbers || wireFormat == WireFormat.BINARY,
+                "Sequence numbers require the BINARY wire format.");
+
+        for (RateLimit limit : channelRateLimits.values()) {
+            checkRateLimit(limit);
+        }
+
+        for (RateLimit limit : pluginRateLimits.values()) {
+            checkRateLimit(limit);
+        }
+
+        for (DeliveryPolicy policy : deliveryPolicies.values()) {
+            Preconditions.checkArgument(policy.initialBackoff > 0, "Delivery retry backoff must be positive.");
+            Preconditions.checkArgument(policy.maxBackoff >= policy.initialBackoff,
+                    "Delivery max backoff can not be less than the retry backoff.");
+        }
+    }
+
+    private static Map<String, RateLimit> readRateLimits(ConfigAccessor config, String path) {
+        Map<String, RateLimit> result = new HashMap<>();
+
+        for (String key : config.getKeys(path)) {
+            String limitPath = path + "." + key + ".";
+            result.put(key, new RateLimit(
+                    config.getDouble(limitPath + "rate", 0),
+                    config.getInt(limitPath + "burst", 1),
+                    RateLimitPolicy.valueOf(config.getString(limitPath + "policy", "REJECT").toUpperCase()),
+                    config.getLong(limitPath + "max-delay", 1000)));
+        }
+
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static void checkRateLimit(RateLimit limit) {
+        Preconditions.checkArgument(limit.permitsPerSecond > 0, "Rate limit rate must be positive.");
+        Preconditions.checkArgument(limit.burst > 0, "Rate limit burst must be positive.");
+        Preconditions.checkArgument(limit.maxDelay >= 0, "Rate limit max delay can not be negative.");
+    }
 }
@@ -21,6 +21,7 @@ import lombok.NonNull;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Created by Trace Bachi (tracebachi@gmail.com, BigBossZee) on 12/10/16.
@@ -63,31 +64,29 @@ public class EscapeAndDelimiterUtil {
      * @return Escaped and delimited string
      */
     public String escapeAndDelimit(@NonNull List<String> input) {
+        int size = input.size();
+        int length = Math.max(size - 1, 0);
 
-        StringBuilder builder = new StringBuilder(256);
-
-        for (int i = 0; i < input.size(); i++) {
+        for (int i = 0; i < size; i++) {
             String inputStr = input.get(i);
-            Preconditions.checkNotNull(inputStr, "inputStr #" + i);
-
-            for (int charIndex = 0; charIndex < inputStr.length(); charIndex++) {
-                char argumentChar = inputStr.charAt(charIndex);
-
-                if (argumentChar == delimiter) {
-                    builder.append(escapeChar);
-                    builder.append(delimiter);
-                } else if (argumentChar == escapeChar) {
-                    builder.append(escapeChar);
-                    builder.append(escapeChar);
-                } else {
-                    builder.append(argumentChar);
-                }
+
+            if (inputStr == null) {
+                throw new NullPointerException("inputStr #" + i);
             }
 
+            length += inputStr.length();
+        }
+
+        // Leave some room for escapes, which are rare
+        StringBuilder builder = new StringBuilder(length + 16);
+
+        for (int i = 0; i < size; i++) {
             // Avoid putting an extra delimiter after escaping the last string
-            if (i != input.size() - 1) {
+            if (i != 0) {
                 builder.append(delimiter);
             }
+
+            appendEscaped(builder, input.get(i));
         }
 
         return builder.toString();
@@ -100,121 +99,108 @@ public class EscapeAndDelimiterUtil {
      * @return Unescaped and undelimited strings in a list
      */
     public List<String> unescapeAndUndelimit(@NonNull String input) {
-
         List<String> result = new ArrayList<>(4);
-        StringBuilder builder = new StringBuilder();
-        int inputLen = input.length();
+        forEachPart(input, result::add);
+        return result;
+    }
 
-        // If the input is empty
-        if (inputLen < 1) {
-            result.add("");
-            return result;
-        }
-        // If the input only has 1 character
-        else if (inputLen == 1) {
-            char firstChar = input.charAt(0);
-            if (firstChar == delimiter) {
-                result.add("");
-                result.add("");
-                return result;
-            } else if (firstChar != escapeChar) {
-                result.add(String.valueOf(firstChar));
-                return result;
-            } else {
-                throw new IllegalArgumentException("Unexpected escape char at index: 0");
-            }
-        }
+    /**
+     * Unescapes and undelimits the input string, passing each string to
+     * the action as soon as it is read instead of collecting them in a list
+     * <p>If the input is badly escaped, the strings before the bad escape
+     * have already been passed to the action when the exception is thrown.</p>
+     *
+     * @param input  Properly escaped and delimited string
+     * @param action Action to run for every unescaped string, in order
+     * @return Number of strings passed to the action
+     * @throws IllegalArgumentException If an escape character is not
+     *                                  followed by the delimiter or itself
+     */
+    public int forEachPart(@NonNull String input, @NonNull Consumer<String> action) {
+        int inputLen = input.length();
+        int start = 0;
+        int count = 0;
+        int nextDelimiter = input.indexOf(delimiter);
+        int nextEscape = input.indexOf(escapeChar);
+
+        // Only used by strings that contain escapes
+        StringBuilder builder = null;
+
+        while (true) {
+            // Handle <escape><?> before the next delimiter
+            if (nextEscape >= 0 && (nextDelimiter < 0 || nextEscape < nextDelimiter)) {
+                if (nextEscape == inputLen - 1) {
+                    throw new IllegalArgumentException("Unexpected escape char at index: " + nextEscape);
+                }
 
-        for (int i = 0; i < inputLen; i++) {
-            // Handle ending with <?>
-            if (i == inputLen - 1) {
-                char a = input.charAt(i);
+                char escaped = input.charAt(nextEscape + 1);
 
-                // Handle ending with <delimiter>
-                if (a == delimiter) {
-                    result.add(getStringAndClear(builder));
-                    result.add("");
+                if (escaped != delimiter && escaped != escapeChar) {
+                    throw new IllegalArgumentException("Unexpected escape char at index: " + nextEscape);
                 }
-                // Handle ending with <escape>
-                else if (a == escapeChar) {
-                    throw new IllegalArgumentException("Unexpected escape char" +
-                            " at index: " + (i));
+
+                if (builder == null) {
+                    builder = new StringBuilder(inputLen - start);
                 }
-                // Handle ending with <char>
-                else {
-                    builder.append(a);
-                    result.add(getStringAndClear(builder));
+
+                builder.append(input, start, nextEscape).append(escaped);
+                start = nextEscape + 2;
+
+                // The escaped character may have been the next delimiter
+                if (nextDelimiter >= 0 && nextDelimiter < start) {
+                    nextDelimiter = input.indexOf(delimiter, start);
                 }
+
+                nextEscape = input.indexOf(escapeChar, start);
+                continue;
             }
-            // Handle ending with <?><?>
-            else if (i == inputLen - 2) {
-                char a = input.charAt(i);
-                char b = input.charAt(i + 1);
-
-                // Handle ending with <delimiter><?>
-                if (a == delimiter) {
-                    result.add(getStringAndClear(builder));
-                }
-                // Handle ending with <escape><?>
-                else if (a == escapeChar) {
-                    // Handle ending with <escape><delimiter>
-                    if (b == delimiter) {
-                        builder.append(delimiter);
-                        result.add(getStringAndClear(builder));
-                        i++;
-                    }
-                    // Handle ending with <escape><escape>
-                    else if (b == escapeChar) {
-                        builder.append(escapeChar);
-                        result.add(getStringAndClear(builder));
-                        i++;
-                    }
-                    // Handle ending with <escape><char>
-                    else {
-                        throw new IllegalArgumentException("Unexpected escape char" +
-                                " at index: " + (i));
-                    }
-                }
-                // Handle ending with <char><?>
-                else {
-                    builder.append(a);
-                }
+
+            // Handle <delimiter> or the end of the input
+            int end = nextDelimiter < 0 ? inputLen : nextDelimiter;
+
+            // Escapes always add a character, so an empty builder means a plain run
+            if (builder == null || builder.length() == 0) {
+                action.accept(input.substring(start, end));
+            } else {
+                builder.append(input, start, end);
+                action.accept(builder.toString());
+                builder.setLength(0);
             }
-            // Handle <?><?>...
-            else {
-                char a = input.charAt(i);
-                char b = input.charAt(i + 1);
-
-                // Handle <delimiter><?>...
-                if (a == delimiter) {
-                    result.add(getStringAndClear(builder));
-                }
-                // Handle <escape><?>
-                else if (a == escapeChar) {
-                    // Handle <escape><delimiter>... and <escape><escape>...
-                    if (b == delimiter || b == escapeChar) {
-                        builder.append(b);
-                        i++;
-                    }
-                    // Handle <escape><char>...
-                    else {
-                        throw new IllegalArgumentException("Unexpected escape char" +
-                                " at index: " + (i));
-                    }
-                }
-                // Handle <char><?>
-                else {
-                    builder.append(a);
-                }
+
+            count++;
+
+            if (nextDelimiter < 0) {
+                return count;
             }
-        }
 
-        return result;
+            start = nextDelimiter + 1;
+            nextDelimiter = input.indexOf(delimiter, start);
+        }
     }
 
-    private String getStringAndClear(StringBuilder builder) {
-        String result = builder.toString();
-        builder.setLength(0);
-        return result;
+    private void appendEscaped(StringBuilder builder, String value) {
+        int start = 0;
+        int nextDelimiter = value.indexOf(delimiter);
+        int nextEscape = value.indexOf(escapeChar);
+
+        // Copy the runs between special characters in bulk
+        while (nextDelimiter >= 0 || nextEscape >= 0) {
+            int next;
+
+            if (nextEscape < 0 || (nextDelimiter >= 0 && nextDelimiter < nextEscape)) {
+                next = nextDelimiter;
+                nextDelimiter = value.indexOf(delimiter, next + 1);
+            } else {
+                next = nextEscape;
+                nextEscape = value.indexOf(escapeChar, next + 1);
+            }
+
+            builder.append(value, start, next)
+                    .append(escapeChar)
+                    .append(value.charAt(next));
+            start = next + 1;
+        }
+
+        builder.append(value, start, value.length());
     }
 }
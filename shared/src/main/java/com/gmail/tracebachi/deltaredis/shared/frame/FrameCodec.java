@@ -0,0 +1,840 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.frame;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import com.gmail.tracebachi.deltaredis.shared.EscapeAndDelimiterUtil;
+import com.gmail.tracebachi.deltaredis.shared.metrics.CompressionMetrics;
+import com.gmail.tracebachi.deltaredis.shared.metrics.ExpiryMetrics;
+import com.google.common.base.Preconditions;
+import lombok.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes message parts into frames and decodes frames of either
+ * {@link WireFormat} back into parts
+ * <p>
+ * A binary frame is laid out as:
+ * <pre>
+ * MAGIC (1 byte) | VERSION (1 byte) | FLAGS (1 byte) | [expiry] | [names] | [sequence] | body
+ * expiry = sent at (8 bytes, epoch milliseconds) | TTL (varint, milliseconds)
+ * names = sending server id (varint) | channel id (varint)
+ * sequence = publisher session (8 bytes) | sequence number (varlong)
+ * body = part count (varint) | part length (varint) | part (UTF-8) | ...
+ * </pre>
+ * MAGIC is a byte that never starts a valid UTF-8 sequence, so it can not
+ * be confused with the first byte of a {@link WireFormat#DELTA_SEPARATED} frame.
+ * When {@link #FLAG_DEFLATE} is set, the body is replaced by its uncompressed
+ * length (varint) followed by the deflated body. When {@link #FLAG_CLAIM_CHECK}
+ * is set, the body only holds the sending server, the channel and the Redis
+ * key under which the complete frame was stored. The expiry is only present
+ * when {@link #FLAG_EXPIRES} is set, and comes before the body so that an
+ * expired frame is dropped without reading it. The names are only present
+ * when {@link #FLAG_INTERNED} is set, in which case they are left out of the
+ * body and resolved through the {@link FrameDictionary}. The sequence is
+ * only present when {@link #FLAG_SEQUENCED} is set, and is added by
+ * {@link #stamp(byte[], long, long)} right before the frame is published.
+ * </p>
+ */
+public class FrameCodec {
+    public static final byte MAGIC = (byte) 0xFD;
+    public static final byte VERSION = 1;
+
+    /**
+     * Flag set when the frame body is compressed with Deflate
+     */
+    public static final int FLAG_DEFLATE = 0x01;
+
+    /**
+     * Flag set when the frame refers to a payload stored under a Redis key
+     */
+    public static final int FLAG_CLAIM_CHECK = 0x02;
+
+    /**
+     * Flag set when the frame carries its send time and a TTL
+     */
+    public static final int FLAG_EXPIRES = 0x04;
+
+    /**
+     * Flag set when the sending server and channel are sent as dictionary ids
+     */
+    public static final int FLAG_INTERNED = 0x08;
+
+    /**
+     * Flag set when the frame carries the sequence number of its publisher
+     */
+    public static final int FLAG_SEQUENCED = 0x10;
+
+    /**
+     * Size of the magic, version and flags bytes
+     */
+    static final int HEADER_SIZE = 3;
+
+    /**
+     * Largest body that will be inflated from a compressed frame
+     */
+    static final int MAX_INFLATED_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Bytes of a compressed body inflated to read the names of a frame
+     */
+    private static final int PEEK_SIZE = 256;
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+    private final ExpiryMetrics expiryMetrics = new ExpiryMetrics();
+    private final DeltaRedisConfig config;
+    private volatile FrameDictionary dictionary;
+
+    public FrameCodec(@NonNull DeltaRedisConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @param dictionary Dictionary used to send and resolve the sending
+     *                   server and channel of frames as ids
+     */
+    public void setDictionary(FrameDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return Dictionary of the sending server and channel names, or null if none is set
+     */
+    public FrameDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Encodes the parts into a frame of the configured format
+     *
+     * @param parts Parts to encode
+     * @return Encoded frame
+     */
+    public byte[] encode(@NonNull List<String> parts) {
+        return encode(parts, 0);
+    }
+
+    /**
+     * Encodes the parts into a frame that receivers drop once the TTL has passed
+     * <p>Only {@link WireFormat#BINARY} frames have room for the expiry, so
+     * a TTL is rejected while the wire format is
+     * {@link WireFormat#DELTA_SEPARATED}.</p>
+     * <p>When header interning is enabled and the first two parts, the
+     * sending server and channel, have dictionary ids, the ids are sent
+     * instead of the names.</p>
+     *
+     * @param parts     Parts to encode
+     * @param ttlMillis Milliseconds from now after which the frame is stale, or 0 for none
+     * @return Encoded frame
+     */
+    public byte[] encode(@NonNull List<String> parts, int ttlMillis) {
+        Preconditions.checkArgument(ttlMillis >= 0, "Negative TTL");
+
+        if (config.wireFormat == WireFormat.DELTA_SEPARATED) {
+            Preconditions.checkArgument(ttlMillis == 0, "TTL requires the BINARY wire format");
+            return EscapeAndDelimiterUtil.DELTA_SEPARATED
+                    .escapeAndDelimit(parts)
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+
+        Header header = new Header(0, ttlMillis);
+        FrameDictionary currentDictionary = dictionary;
+
+        if (config.internHeaders && currentDictionary != null && parts.size() >= 2) {
+            header.intern(currentDictionary.idOf(parts.get(0)), currentDictionary.idOf(parts.get(1)));
+        }
+
+        int first = header.isInterned() ? 2 : 0;
+        int partCount = parts.size();
+        int[] lengths = new int[partCount];
+        int bodySize = FrameWriter.varIntSize(partCount - first);
+
+        for (int i = 0; i < partCount; i++) {
+            String part = parts.get(i);
+            Preconditions.checkNotNull(part, "part");
+
+            if (i >= first) {
+                lengths[i] = FrameWriter.utf8Length(part);
+                bodySize += FrameWriter.varIntSize(lengths[i]) + lengths[i];
+            }
+        }
+
+        int threshold = config.compressionThreshold;
+
+        if (threshold > 0 && bodySize >= threshold) {
+            byte[] body = writeBody(new FrameWriter(bodySize), parts, lengths, first).toByteArray();
+            byte[] compressed = compress(body, header);
+
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+
+        FrameWriter writer = new FrameWriter(header.size() + bodySize);
+        header.write(writer, 0);
+
+        return writeBody(writer, parts, lengths, first).toByteArray();
+    }
+
+    /**
+     * Encodes a message into a frame that starts with its sending server and
+     * channel, without copying the message parts into a new list
+     *
+     * @param sendingServer Server that sent the message
+     * @param channel       Channel of the message
+     * @param messageParts  Parts of the message
+     * @param ttlMillis     Milliseconds from now after which the frame is stale, or 0 for none
+     * @return Encoded frame
+     */
+    public byte[] encode(@NonNull String sendingServer, @NonNull String channel,
+                         @NonNull List<String> messageParts, int ttlMillis) {
+        return encode(new MessageParts(sendingServer, channel, messageParts), ttlMillis);
+    }
+
+    /**
+     * Encodes a claim-check frame that refers to a stored payload
+     * <p>Claim-check frames are always {@link WireFormat#BINARY}.</p>
+     *
+     * @param sendingServer Server that sent the payload
+     * @param channel       Channel of the payload
+     * @param key           Redis key under which the complete frame is stored
+     * @param ttlMillis     Milliseconds from now after which the frame is stale, or 0 for none
+     * @return Encoded frame
+     */
+    public byte[] encodeClaimCheck(@NonNull String sendingServer, @NonNull String channel, @NonNull String key,
+                                   int ttlMillis) {
+        Preconditions.checkArgument(ttlMillis >= 0, "Negative TTL");
+
+        List<String> parts = Arrays.asList(sendingServer, channel, key);
+        int[] lengths = new int[parts.size()];
+        int bodySize = FrameWriter.varIntSize(parts.size());
+
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = FrameWriter.utf8Length(parts.get(i));
+            bodySize += FrameWriter.varIntSize(lengths[i]) + lengths[i];
+        }
+
+        Header header = new Header(FLAG_CLAIM_CHECK, ttlMillis);
+        FrameWriter writer = new FrameWriter(header.size() + bodySize);
+        header.write(writer, 0);
+
+        return writeBody(writer, parts, lengths, 0).toByteArray();
+    }
+
+    /**
+     * Decodes a frame of any {@link WireFormat} into its parts
+     * <p>A claim-check frame decodes into the sending server, the channel and
+     * the key of the stored payload.</p>
+     *
+     * @param frame Encoded frame
+     * @return Decoded parts
+     * @throws IllegalArgumentException If the frame is malformed
+     */
+    public List<String> decode(@NonNull byte[] frame) {
+        if (!isBinary(frame)) {
+            return EscapeAndDelimiterUtil.DELTA_SEPARATED
+                    .unescapeAndUndelimit(new String(frame, StandardCharsets.UTF_8));
+        }
+
+        FrameReader reader = new FrameReader(frame);
+        reader.readByte();
+
+        int version = reader.readByte();
+
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported frame version: " + version);
+        }
+
+        int flags = reader.readByte();
+
+        if ((flags & FLAG_EXPIRES) != 0) {
+            reader.readLong();
+            reader.readVarInt();
+        }
+
+        String sendingServer = null;
+        String channel = null;
+
+        if ((flags & FLAG_INTERNED) != 0) {
+            sendingServer = resolve(reader.readVarInt());
+            channel = resolve(reader.readVarInt());
+        }
+
+        if ((flags & FLAG_SEQUENCED) != 0) {
+            reader.readLong();
+            reader.readVarLong();
+        }
+
+        if ((flags & FLAG_DEFLATE) != 0) {
+            reader = new FrameReader(decompress(frame, reader));
+        }
+
+        int partCount = reader.readVarInt();
+        List<String> result = new ArrayList<>(Math.min(partCount, frame.length) + 2);
+
+        if (sendingServer != null) {
+            result.add(sendingServer);
+            result.add(channel);
+        }
+
+        for (int i = 0; i < partCount; i++) {
+            result.add(reader.readString());
+        }
+
+        if (!reader.isFullyRead()) {
+            throw new IllegalArgumentException("Unexpected trailing bytes in frame");
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a frame of any {@link WireFormat} into parts that are only
+     * decoded once they are read
+     * <p>The frame is checked when it is decoded, so reading the parts does
+     * not fail. The sending server and channel of an interned frame are
+     * resolved right away.</p>
+     *
+     * @param frame Encoded frame, which must not be modified afterwards
+     * @return Parts of the frame
+     * @throws IllegalArgumentException If the frame is malformed
+     * @see FrameParts
+     */
+    public List<String> decodeLazily(@NonNull byte[] frame) {
+        if (!isBinary(frame)) {
+            return FrameParts.ofDeltaSeparated(frame, Integer.MAX_VALUE);
+        }
+
+        FrameReader reader = new FrameReader(frame);
+        reader.readByte();
+
+        int version = reader.readByte();
+
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported frame version: " + version);
+        }
+
+        int flags = reader.readByte();
+
+        if ((flags & FLAG_EXPIRES) != 0) {
+            reader.readLong();
+            reader.readVarInt();
+        }
+
+        String sendingServer = null;
+        String channel = null;
+
+        if ((flags & FLAG_INTERNED) != 0) {
+            sendingServer = resolve(reader.readVarInt());
+            channel = resolve(reader.readVarInt());
+        }
+
+        if ((flags & FLAG_SEQUENCED) != 0) {
+            reader.readLong();
+            reader.readVarLong();
+        }
+
+        byte[] data = frame;
+
+        if ((flags & FLAG_DEFLATE) != 0) {
+            data = decompress(frame, reader);
+            reader = new FrameReader(data);
+        }
+
+        int partCount = reader.readVarInt();
+        int first = sendingServer != null ? 2 : 0;
+
+        if (partCount < 0 || partCount > reader.getRemaining()) {
+            throw new IllegalArgumentException("Invalid part count: " + partCount);
+        }
+
+        int[] bounds = new int[(partCount + first) * 2];
+        String[] decoded = new String[partCount + first];
+
+        if (sendingServer != null) {
+            decoded[0] = sendingServer;
+            decoded[1] = channel;
+        }
+
+        for (int i = first; i < decoded.length; i++) {
+            int length = reader.readVarInt();
+            bounds[i * 2] = reader.getPosition();
+            reader.skip(length);
+            bounds[i * 2 + 1] = reader.getPosition();
+        }
+
+        if (!reader.isFullyRead()) {
+            throw new IllegalArgumentException("Unexpected trailing bytes in frame");
+        }
+
+        return new FrameParts(data, bounds, null, decoded);
+    }
+
+    /**
+     * Reads the sending server and channel of a frame without decoding the
+     * rest of it
+     * <p>Of a compressed frame, only the start of the body is inflated.</p>
+     *
+     * @param frame Encoded frame
+     * @return Sending server and channel, or null if they can not be read
+     * without decoding the frame, for example because the dictionary does
+     * not know them yet
+     */
+    public List<String> peekNames(@NonNull byte[] frame) {
+        try {
+            if (!isBinary(frame)) {
+                FrameParts parts = FrameParts.ofDeltaSeparated(frame, 2);
+                return parts.size() == 2 ? parts : null;
+            }
+
+            FrameReader reader = new FrameReader(frame);
+            reader.readByte();
+
+            if (reader.readByte() != VERSION) {
+                return null;
+            }
+
+            int flags = reader.readByte();
+
+            if ((flags & FLAG_EXPIRES) != 0) {
+                reader.readLong();
+                reader.readVarInt();
+            }
+
+            if ((flags & FLAG_INTERNED) != 0) {
+                FrameDictionary currentDictionary = dictionary;
+
+                if (currentDictionary == null) {
+                    return null;
+                }
+
+                String sendingServer = currentDictionary.nameOf(reader.readVarInt());
+                String channel = currentDictionary.nameOf(reader.readVarInt());
+                return sendingServer != null && channel != null ? Arrays.asList(sendingServer, channel) : null;
+            }
+
+            if ((flags & FLAG_SEQUENCED) != 0) {
+                reader.readLong();
+                reader.readVarLong();
+            }
+
+            if ((flags & FLAG_DEFLATE) != 0) {
+                reader = new FrameReader(inflatePrefix(frame, reader));
+            }
+
+            if (reader.readVarInt() < 2) {
+                return null;
+            }
+
+            return Arrays.asList(reader.readString(), reader.readString());
+        } catch (IllegalArgumentException e) {
+            // The complete decode reports the malformed frame
+            return null;
+        }
+    }
+
+    /**
+     * Copies a frame with the sequence number of its publisher added
+     * <p>{@link WireFormat#DELTA_SEPARATED} frames have no room for it and
+     * are returned as they are.</p>
+     *
+     * @param frame   Encoded frame without a sequence number
+     * @param session Random id of the publisher, which changes when it restarts
+     * @param number  Sequence number of the frame among those the publisher
+     *                sent to the same Redis channel
+     * @return Frame with the sequence number
+     */
+    public byte[] stamp(@NonNull byte[] frame, long session, long number) {
+        Preconditions.checkArgument(number >= 0, "Negative sequence number");
+
+        if (!isBinary(frame)) {
+            return frame;
+        }
+
+        Preconditions.checkArgument((frame[2] & FLAG_SEQUENCED) == 0, "Frame already has a sequence number");
+
+        int offset = skipToSequence(frame).getPosition();
+        byte[] result = new byte[frame.length + 8 + FrameWriter.varLongSize(number)];
+        FrameWriter writer = new FrameWriter(result);
+
+        System.arraycopy(frame, 0, result, 0, offset);
+        result[2] |= FLAG_SEQUENCED;
+
+        // Only the fields after the copied header are written
+        writer.skip(offset);
+        writer.writeLong(session);
+        writer.writeVarLong(number);
+        System.arraycopy(frame, offset, result, writer.getPosition(), frame.length - offset);
+        return result;
+    }
+
+    /**
+     * Reads the sequence number of a frame without decoding its body
+     *
+     * @param frame Encoded frame
+     * @return Session and sequence number of the publisher, or null if the
+     * frame has none
+     * @throws IllegalArgumentException If the frame is malformed
+     */
+    public SequenceStamp readStamp(@NonNull byte[] frame) {
+        if (!isBinary(frame) || frame.length < HEADER_SIZE || (frame[2] & FLAG_SEQUENCED) == 0) {
+            return null;
+        }
+
+        FrameReader reader = skipToSequence(frame);
+        return new SequenceStamp(reader.readLong(), reader.readVarLong());
+    }
+
+    /**
+     * Checks the expiry of a frame without decoding its body, and counts it
+     * if it has expired
+     * <p>Frames without {@link #FLAG_EXPIRES} never expire. The check compares
+     * the clock of the sending server with this one, so servers should keep
+     * their clocks in sync.</p>
+     *
+     * @param frame Encoded frame
+     * @param now   Current epoch milliseconds
+     * @return True if the TTL of the frame has passed or false
+     */
+    public boolean isExpired(@NonNull byte[] frame, long now) {
+        if (!isBinary(frame) || frame.length < HEADER_SIZE || (frame[2] & FLAG_EXPIRES) == 0) {
+            return false;
+        }
+
+        FrameReader reader = new FrameReader(frame, HEADER_SIZE, frame.length - HEADER_SIZE);
+        long sentAt = reader.readLong();
+        int ttlMillis = reader.readVarInt();
+        long age = now - sentAt;
+
+        if (age <= ttlMillis) {
+            return false;
+        }
+
+        expiryMetrics.recordExpired(age - ttlMillis);
+        return true;
+    }
+
+    /**
+     * Checks that the dictionary knows the names a frame refers to, without
+     * decoding its body
+     * <p>If it does not, {@link FrameDictionary#load()} has to be called
+     * before the frame can be decoded.</p>
+     *
+     * @param frame Encoded frame
+     * @return True if the frame can be decoded without loading the dictionary
+     */
+    public boolean canResolveNames(@NonNull byte[] frame) {
+        FrameDictionary currentDictionary = dictionary;
+
+        if (currentDictionary == null || !isBinary(frame) || frame.length < HEADER_SIZE
+                || (frame[2] & FLAG_INTERNED) == 0) {
+            return true;
+        }
+
+        FrameReader reader = new FrameReader(frame, HEADER_SIZE, frame.length - HEADER_SIZE);
+
+        if ((frame[2] & FLAG_EXPIRES) != 0) {
+            reader.readLong();
+            reader.readVarInt();
+        }
+
+        return currentDictionary.nameOf(reader.readVarInt()) != null
+                && currentDictionary.nameOf(reader.readVarInt()) != null;
+    }
+
+    /**
+     * Formats a frame for debug logging
+     *
+     * @param frame Encoded frame
+     * @return Readable form of the frame
+     */
+    public String toDebugString(@NonNull byte[] frame) {
+        if (!isBinary(frame)) {
+            return new String(frame, StandardCharsets.UTF_8);
+        }
+
+        try {
+            return decode(frame).toString();
+        } catch (IllegalArgumentException e) {
+            return "<malformed binary frame of " + frame.length + " bytes>";
+        }
+    }
+
+    /**
+     * @return Counters for compressed frames
+     */
+    public CompressionMetrics getCompressionMetrics() {
+        return compressionMetrics;
+    }
+
+    /**
+     * @return Counters for frames dropped as expired
+     */
+    public ExpiryMetrics getExpiryMetrics() {
+        return expiryMetrics;
+    }
+
+    /**
+     * @param frame Encoded frame
+     * @return True if the frame uses {@link WireFormat#BINARY} or false
+     */
+    public static boolean isBinary(@NonNull byte[] frame) {
+        return frame.length > 0 && frame[0] == MAGIC;
+    }
+
+    /**
+     * @param frame Encoded frame
+     * @return True if the frame refers to a stored payload or false
+     */
+    public static boolean isClaimCheck(@NonNull byte[] frame) {
+        return isBinary(frame) && frame.length >= HEADER_SIZE && (frame[2] & FLAG_CLAIM_CHECK) != 0;
+    }
+
+    /**
+     * @return Reader positioned after the expiry and names of a binary frame
+     */
+    private static FrameReader skipToSequence(byte[] frame) {
+        FrameReader reader = new FrameReader(frame, HEADER_SIZE, frame.length - HEADER_SIZE);
+
+        if ((frame[2] & FLAG_EXPIRES) != 0) {
+            reader.readLong();
+            reader.readVarInt();
+        }
+
+        if ((frame[2] & FLAG_INTERNED) != 0) {
+            reader.readVarInt();
+            reader.readVarInt();
+        }
+
+        return reader;
+    }
+
+    private String resolve(int id) {
+        FrameDictionary currentDictionary = dictionary;
+        String name = currentDictionary == null ? null : currentDictionary.nameOf(id);
+
+        if (name == null) {
+            throw new IllegalArgumentException("Unknown header dictionary id: " + id);
+        }
+
+        return name;
+    }
+
+    private static FrameWriter writeBody(FrameWriter writer, List<String> parts, int[] lengths, int first) {
+        writer.writeVarInt(parts.size() - first);
+
+        for (int i = first; i < lengths.length; i++) {
+            writer.writeString(parts.get(i), lengths[i]);
+        }
+
+        return writer;
+    }
+
+    /**
+     * @return The complete compressed frame or null if the body did not shrink
+     */
+    private byte[] compress(byte[] body, Header header) {
+        long start = System.nanoTime();
+
+        // A compressed frame is only worth sending if it fits in the space
+        // the uncompressed frame would have used
+        byte[] frame = new byte[header.size() + body.length];
+        FrameWriter writer = new FrameWriter(frame);
+        header.write(writer, FLAG_DEFLATE);
+        writer.writeVarInt(body.length);
+
+        int offset = writer.getPosition();
+        Deflater deflater = DEFLATERS.get();
+
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+
+            int compressedSize = deflater.deflate(frame, offset, frame.length - offset);
+
+            if (!deflater.finished()) {
+                compressionMetrics.recordSkipped(System.nanoTime() - start);
+                return null;
+            }
+
+            compressionMetrics.recordCompressed(body.length, compressedSize, System.nanoTime() - start);
+
+            byte[] result = new byte[offset + compressedSize];
+            System.arraycopy(frame, 0, result, 0, result.length);
+            return result;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private byte[] decompress(byte[] frame, FrameReader reader) {
+        long start = System.nanoTime();
+        int uncompressedSize = reader.readVarInt();
+
+        if (uncompressedSize < 0 || uncompressedSize > MAX_INFLATED_SIZE) {
+            throw new IllegalArgumentException("Invalid uncompressed frame size: " + uncompressedSize);
+        }
+
+        byte[] body = new byte[uncompressedSize];
+        Inflater inflater = INFLATERS.get();
+
+        try {
+            inflater.setInput(frame, reader.getPosition(), reader.getRemaining());
+
+            int inflated = inflater.inflate(body);
+
+            if (inflated != uncompressedSize || !inflater.finished()) {
+                throw new IllegalArgumentException("Compressed frame does not match its declared size");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed compressed frame", e);
+        } finally {
+            inflater.reset();
+        }
+
+        compressionMetrics.recordDecompressed(System.nanoTime() - start);
+        return body;
+    }
+
+    /**
+     * Inflates only the start of a compressed body, which is enough to read
+     * the names of a frame
+     */
+    private static byte[] inflatePrefix(byte[] frame, FrameReader reader) {
+        int uncompressedSize = reader.readVarInt();
+
+        if (uncompressedSize < 0 || uncompressedSize > MAX_INFLATED_SIZE) {
+            throw new IllegalArgumentException("Invalid uncompressed frame size: " + uncompressedSize);
+        }
+
+        byte[] prefix = new byte[Math.min(uncompressedSize, PEEK_SIZE)];
+        Inflater inflater = INFLATERS.get();
+
+        try {
+            inflater.setInput(frame, reader.getPosition(), reader.getRemaining());
+            return Arrays.copyOf(prefix, inflater.inflate(prefix));
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed compressed frame", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * View of the sending server and channel followed by the message parts
+     */
+    private static class MessageParts extends AbstractList<String> {
+        private final String sendingServer;
+        private final String channel;
+        private final List<String> messageParts;
+
+        private MessageParts(String sendingServer, String channel, List<String> messageParts) {
+            this.sendingServer = sendingServer;
+            this.channel = channel;
+            this.messageParts = messageParts;
+        }
+
+        @Override
+        public String get(int index) {
+            switch (index) {
+                case 0:
+                    return sendingServer;
+                case 1:
+                    return channel;
+                default:
+                    return messageParts.get(index - 2);
+            }
+        }
+
+        @Override
+        public int size() {
+            return messageParts.size() + 2;
+        }
+    }
+
+    /**
+     * Fields written between the magic byte and the body of a frame
+     */
+    private static class Header {
+        private final long sentAt;
+        private final int ttlMillis;
+        private int flags;
+        private int senderId = -1;
+        private int channelId = -1;
+
+        private Header(int flags, int ttlMillis) {
+            this.flags = ttlMillis > 0 ? flags | FLAG_EXPIRES : flags;
+            this.sentAt = ttlMillis > 0 ? System.currentTimeMillis() : 0;
+            this.ttlMillis = ttlMillis;
+        }
+
+        private void intern(int senderId, int channelId) {
+            // Both names have to be known, as the body holds either both or neither
+            if (senderId >= 0 && channelId >= 0) {
+                this.senderId = senderId;
+                this.channelId = channelId;
+                this.flags |= FLAG_INTERNED;
+            }
+        }
+
+        private boolean isInterned() {
+            return (flags & FLAG_INTERNED) != 0;
+        }
+
+        private int size() {
+            int size = HEADER_SIZE;
+
+            if ((flags & FLAG_EXPIRES) != 0) {
+                size += 8 + FrameWriter.varIntSize(ttlMillis);
+            }
+
+            if (isInterned()) {
+                size += FrameWriter.varIntSize(senderId) + FrameWriter.varIntSize(channelId);
+            }
+
+            return size;
+        }
+
+        private void write(FrameWriter writer, int extraFlags) {
+            writer.writeByte(MAGIC);
+            writer.writeByte(VERSION);
+            writer.writeByte(flags | extraFlags);
+
+            if ((flags & FLAG_EXPIRES) != 0) {
+                writer.writeLong(sentAt);
+                writer.writeVarInt(ttlMillis);
+            }
+
+            if (isInterned()) {
+                writer.writeVarInt(senderId);
+                writer.writeVarInt(channelId);
+            }
+        }
+    }
+}
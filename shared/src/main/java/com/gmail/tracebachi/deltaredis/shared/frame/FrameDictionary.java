@@ -0,0 +1,44 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.frame;
+
+/**
+ * Maps the sending server and channel names of frames to small ids that
+ * every server resolves the same way
+ */
+public interface FrameDictionary {
+    /**
+     * Returns the id of a name, and starts assigning one if the name has
+     * none yet so that later frames can use it
+     *
+     * @param name Server or channel name
+     * @return Id of the name or -1 if it has none yet
+     */
+    int idOf(String name);
+
+    /**
+     * @param id Id of a name
+     * @return Name with the id or null if it is not known yet
+     */
+    String nameOf(int id);
+
+    /**
+     * Loads the ids assigned by other servers
+     * <p>This blocks, so it must not be called on the Redis event loop.</p>
+     */
+    void load();
+}
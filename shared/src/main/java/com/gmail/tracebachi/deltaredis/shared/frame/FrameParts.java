@@ -0,0 +1,158 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.frame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Parts of a received frame, each decoded the first time it is read
+ * <p>Only the bounds of the parts are found when the frame is received, so
+ * a message that is filtered out by its sending server or channel never has
+ * its other parts decoded. The parts share the array of the frame instead
+ * of copying it.</p>
+ */
+public class FrameParts extends AbstractList<String> implements RandomAccess {
+    private static final byte ESCAPE = '\\';
+
+    // UTF-8 encoding of the delimiter of EscapeAndDelimiterUtil.DELTA_SEPARATED
+    private static final byte DELIMITER_FIRST = (byte) 0xCE;
+    private static final byte DELIMITER_SECOND = (byte) 0x94;
+
+    private final byte[] data;
+    private final int[] bounds;
+    private final boolean[] escaped;
+    private final String[] decoded;
+
+    /**
+     * @param data    Array holding the encoded parts
+     * @param bounds  Start and end index of every part, one after the other
+     * @param escaped Whether each part holds escapes, or null if none does
+     * @param decoded Parts that are already decoded, or null entries
+     */
+    FrameParts(byte[] data, int[] bounds, boolean[] escaped, String[] decoded) {
+        this.data = data;
+        this.bounds = bounds;
+        this.escaped = escaped;
+        this.decoded = decoded;
+    }
+
+    /**
+     * Finds the parts of a {@link WireFormat#DELTA_SEPARATED} frame
+     * <p>The delimiter is found in the bytes directly, as neither its UTF-8
+     * encoding nor the escape char can be part of another character.</p>
+     *
+     * @param frame    Encoded frame
+     * @param maxParts Number of parts after which the rest of the frame is
+     *                 not looked at
+     * @return Parts of the frame
+     * @throws IllegalArgumentException If an escape char is not followed by
+     *                                  the delimiter or itself
+     */
+    static FrameParts ofDeltaSeparated(byte[] frame, int maxParts) {
+        int[] bounds = new int[8];
+        boolean[] escaped = new boolean[4];
+        int count = 0;
+        int start = 0;
+        boolean partEscaped = false;
+
+        for (int i = 0; i <= frame.length; i++) {
+            boolean end = i == frame.length;
+
+            if (!end && frame[i] == ESCAPE) {
+                if (i + 1 < frame.length && frame[i + 1] == ESCAPE) {
+                    i++;
+                } else if (i + 1 < frame.length && isDelimiter(frame, i + 1)) {
+                    i += 2;
+                } else {
+                    throw new IllegalArgumentException("Unexpected escape char at index: " + i);
+                }
+
+                partEscaped = true;
+                continue;
+            }
+
+            if (end || isDelimiter(frame, i)) {
+                if (count == escaped.length) {
+                    bounds = Arrays.copyOf(bounds, count * 4);
+                    escaped = Arrays.copyOf(escaped, count * 2);
+                }
+
+                bounds[count * 2] = start;
+                bounds[count * 2 + 1] = i;
+                escaped[count] = partEscaped;
+                count++;
+
+                if (count == maxParts) {
+                    break;
+                }
+
+                start = i + 2;
+                partEscaped = false;
+                i++;
+            }
+        }
+
+        return new FrameParts(frame, Arrays.copyOf(bounds, count * 2),
+                Arrays.copyOf(escaped, count), new String[count]);
+    }
+
+    @Override
+    public String get(int index) {
+        String result = decoded[index];
+
+        if (result == null) {
+            result = decode(index);
+
+            // Racing readers decode equal strings, so either one may be kept
+            decoded[index] = result;
+        }
+
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return decoded.length;
+    }
+
+    private String decode(int index) {
+        int start = bounds[index * 2];
+        String raw = new String(data, start, bounds[index * 2 + 1] - start, StandardCharsets.UTF_8);
+
+        if (escaped == null || !escaped[index]) {
+            return raw;
+        }
+
+        StringBuilder builder = new StringBuilder(raw.length());
+
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+
+            // Escapes were checked when the frame was received
+            builder.append(c == ESCAPE ? raw.charAt(++i) : c);
+        }
+
+        return builder.toString();
+    }
+
+    private static boolean isDelimiter(byte[] frame, int index) {
+        return frame[index] == DELIMITER_FIRST && index + 1 < frame.length && frame[index + 1] == DELIMITER_SECOND;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.frame;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads varints and length-prefixed UTF-8 strings from a frame
+ */
+public class FrameReader {
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    public FrameReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public FrameReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public int readByte() {
+        ensureAvailable(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    public long readLong() {
+        ensureAvailable(8);
+
+        long result = 0;
+
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (buffer[position++] & 0xFF);
+        }
+
+        return result;
+    }
+
+    public int readVarInt() {
+        int result = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readByte();
+            result |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint at index: " + (position - 1));
+    }
+
+    public long readVarLong() {
+        long result = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varlong at index: " + (position - 1));
+    }
+
+    public String readString() {
+        int length = readVarInt();
+        ensureAvailable(length);
+
+        String result = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return result;
+    }
+
+    /**
+     * Skips bytes without reading them
+     *
+     * @param count Number of bytes to skip
+     */
+    public void skip(int count) {
+        ensureAvailable(count);
+        position += count;
+    }
+
+    /**
+     * @return Index of the next byte to be read
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return Number of bytes left to read
+     */
+    public int getRemaining() {
+        return limit - position;
+    }
+
+    /**
+     * @return True if every byte of the frame has been read
+     */
+    public boolean isFullyRead() {
+        return position == limit;
+    }
+
+    private void ensureAvailable(int count) {
+        if (count < 0 || limit - position < count) {
+            throw new IllegalArgumentException("Unexpected end of frame at index: " + position);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.frame;
+
+/**
+ * Writes varints and length-prefixed UTF-8 strings into a fixed size array
+ * <p>Callers size the array up front with {@link #varIntSize(int)} and
+ * {@link #utf8Length(String)} so a frame is allocated exactly once.</p>
+ */
+public class FrameWriter {
+    private final byte[] buffer;
+    private int position;
+
+    public FrameWriter(int size) {
+        this(new byte[size]);
+    }
+
+    public FrameWriter(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    public void writeByte(int value) {
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    public void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Writes the string as UTF-8 prefixed with its encoded length
+     *
+     * @param value   String to write
+     * @param utf8Len Length previously computed by {@link #utf8Length(String)}
+     */
+    public void writeString(String value, int utf8Len) {
+        writeVarInt(utf8Len);
+
+        int length = value.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    // Same replacement String#getBytes uses for unpaired surrogates
+                    buffer[position++] = (byte) '?';
+                }
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Moves past bytes that were already filled in
+     *
+     * @param count Number of bytes to skip
+     */
+    public void skip(int count) {
+        position += count;
+    }
+
+    /**
+     * @return Index of the next byte to be written
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return The written frame
+     */
+    public byte[] toByteArray() {
+        if (position != buffer.length) {
+            throw new IllegalStateException("Frame size mismatch, expected " + buffer.length +
+                    " bytes but wrote " + position);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * @param value Non-negative value
+     * @return Number of bytes {@link #writeVarInt(int)} uses for the value
+     */
+    public static int varIntSize(int value) {
+        int size = 1;
+
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    /**
+     * @param value Non-negative value
+     * @return Number of bytes {@link #writeVarLong(long)} uses for the value
+     */
+    public static int varLongSize(long value) {
+        int size = 1;
+
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    /**
+     * @param value String to measure
+     * @return Number of bytes in the UTF-8 encoding of the string
+     */
+    public static int utf8Length(String value) {
+        int length = value.length();
+        int result = length;
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // Two chars become four bytes
+                    result += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    result += 2;
+                }
+            } else if (c >= 0x80) {
+                result += 1;
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.frame;
+
+/**
+ * Sequence number a frame was published with, see {@link FrameCodec#FLAG_SEQUENCED}
+ */
+public class SequenceStamp {
+    private final long session;
+    private final long number;
+
+    public SequenceStamp(long session, long number) {
+        this.session = session;
+        this.number = number;
+    }
+
+    /**
+     * @return Random id of the publisher, which changes when it restarts
+     */
+    public long getSession() {
+        return session;
+    }
+
+    /**
+     * @return Sequence number among the frames the publisher sent to the same Redis channel
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toHexString(session) + '#' + number;
+    }
+}
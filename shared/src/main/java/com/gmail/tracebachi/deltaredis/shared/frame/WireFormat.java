@@ -0,0 +1,35 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.frame;
+
+/**
+ * Frame formats that DeltaRedis can put on the wire
+ * <p>Receivers detect the format of every frame on their own, so servers
+ * using different formats can talk to each other during a rollout.</p>
+ */
+public enum WireFormat {
+    /**
+     * Parts escaped and joined with {@link com.gmail.tracebachi.deltaredis.shared.EscapeAndDelimiterUtil#DELTA_SEPARATED}
+     * <p>Understood by every DeltaRedis version.</p>
+     */
+    DELTA_SEPARATED,
+
+    /**
+     * Versioned header followed by length-prefixed UTF-8 parts with no escaping
+     */
+    BINARY
+}
@@ -0,0 +1,41 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.message;
+
+import java.util.List;
+
+/**
+ * Converts the messages of a channel between an object and its message parts
+ * <p>One instance serves every message of its channels, possibly on several
+ * threads at once, so it must not hold state of a single message.</p>
+ *
+ * @param <T> Type of the messages
+ */
+public interface MessageCodec<T> {
+    /**
+     * @param message Message to send
+     * @return Message parts to publish
+     */
+    List<String> encode(T message);
+
+    /**
+     * @param messageParts Received message parts
+     * @return Decoded message
+     * @throws IllegalArgumentException If the parts are not a valid message
+     */
+    T decode(List<String> messageParts);
+}
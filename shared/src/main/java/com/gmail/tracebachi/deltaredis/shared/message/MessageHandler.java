@@ -0,0 +1,34 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.message;
+
+/**
+ * Receives the decoded messages of a channel, see {@link MessageRegistry}
+ *
+ * @param <T> Type of the messages
+ */
+public interface MessageHandler<T> {
+    /**
+     * Called on the same thread as the message event of the platform
+     *
+     * @param sendingServer Server the message is coming from
+     * @param channel       Channel the message was sent to
+     * @param message       Decoded message, shared with the other handlers
+     *                      of the channel
+     */
+    void onMessage(String sendingServer, String channel, T message);
+}
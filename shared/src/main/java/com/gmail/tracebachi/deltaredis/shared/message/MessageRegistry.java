@@ -0,0 +1,183 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.message;
+
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import com.google.common.base.Preconditions;
+import lombok.NonNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Maps channels to the {@link MessageCodec} of their messages and hands the
+ * received messages to the {@link MessageHandler}s subscribed to them
+ * <p>A received message is decoded once however many handlers it has, and
+ * not at all if it has none. The codec of a channel is looked up once per
+ * message and shared by every message of the channel.</p>
+ */
+public class MessageRegistry {
+    private final Map<String, Binding<?>> bindings = new ConcurrentHashMap<>();
+    private final DeltaRedisPlugin plugin;
+
+    public MessageRegistry(DeltaRedisPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Sets the codec of a channel
+     * <p>A codec for the same type replaces the previous one and keeps its
+     * handlers.</p>
+     *
+     * @param channel Channel of the messages
+     * @param type    Type of the messages
+     * @param codec   Codec of the messages
+     * @throws IllegalStateException If the channel has a codec for another type
+     */
+    public <T> void registerCodec(@NonNull String channel, @NonNull Class<T> type, @NonNull MessageCodec<T> codec) {
+        bindings.compute(channel, (key, existing) -> {
+            if (existing == null) {
+                return new Binding<>(type, codec);
+            }
+
+            Preconditions.checkState(existing.type == type,
+                    "Channel " + channel + " already has a codec for " + existing.type.getName());
+            return new Binding<>(type, codec, existing.handlers);
+        });
+    }
+
+    /**
+     * Removes the codec of a channel along with its handlers
+     *
+     * @param channel Channel of the messages
+     */
+    public void unregisterCodec(@NonNull String channel) {
+        bindings.remove(channel);
+    }
+
+    /**
+     * @param channel Channel of the message
+     * @param message Message to send
+     * @return Message parts of the message
+     * @throws IllegalStateException If the channel has no codec for the message
+     */
+    public List<String> encode(@NonNull String channel, @NonNull Object message) {
+        Binding<?> binding = bindings.get(channel);
+
+        Preconditions.checkState(binding != null, "No codec registered for channel " + channel);
+        Preconditions.checkState(binding.type.isInstance(message),
+                "Channel " + channel + " expects " + binding.type.getName() + ", not " +
+                        message.getClass().getName());
+        return binding.encode(message);
+    }
+
+    /**
+     * Adds a handler for the messages of a channel
+     *
+     * @param channel Channel of the messages
+     * @param type    Type the handler expects, which the codec of the
+     *                channel has to produce
+     * @param handler Handler to add
+     * @throws IllegalStateException If the channel has no codec for the type
+     */
+    public <T> void subscribe(@NonNull String channel, @NonNull Class<T> type, @NonNull MessageHandler<T> handler) {
+        Binding<?> binding = bindings.get(channel);
+
+        Preconditions.checkState(binding != null, "No codec registered for channel " + channel);
+        Preconditions.checkState(type.isAssignableFrom(binding.type),
+                "Channel " + channel + " carries " + binding.type.getName() + ", not " + type.getName());
+        binding.handlers.add(handler);
+    }
+
+    /**
+     * Removes a handler from a channel
+     *
+     * @param channel Channel of the messages
+     * @param handler Handler to remove
+     */
+    public void unsubscribe(@NonNull String channel, @NonNull MessageHandler<?> handler) {
+        Binding<?> binding = bindings.get(channel);
+
+        if (binding != null) {
+            binding.handlers.remove(handler);
+        }
+    }
+
+    /**
+     * Decodes a received message once and calls the handlers of its channel
+     *
+     * @param sendingServer Server the message is coming from
+     * @param channel       Channel the message was sent to
+     * @param messageParts  Received message parts
+     * @return True if the channel has handlers or false
+     */
+    public boolean deliver(String sendingServer, String channel, List<String> messageParts) {
+        Binding<?> binding = bindings.get(channel);
+
+        if (binding == null || binding.handlers.isEmpty()) {
+            return false;
+        }
+
+        binding.deliver(sendingServer, channel, messageParts);
+        return true;
+    }
+
+    private final class Binding<T> {
+        private final Class<T> type;
+        private final MessageCodec<T> codec;
+        private final List<MessageHandler<?>> handlers;
+
+        private Binding(Class<T> type, MessageCodec<T> codec) {
+            this(type, codec, new CopyOnWriteArrayList<>());
+        }
+
+        private Binding(Class<T> type, MessageCodec<T> codec, List<MessageHandler<?>> handlers) {
+            this.type = type;
+            this.codec = codec;
+            this.handlers = handlers;
+        }
+
+        private List<String> encode(Object message) {
+            return codec.encode(type.cast(message));
+        }
+
+        @SuppressWarnings("unchecked")
+        private void deliver(String sendingServer, String channel, List<String> messageParts) {
+            T message;
+
+            try {
+                message = codec.decode(messageParts);
+            } catch (RuntimeException e) {
+                plugin.severe("Failed to decode message on channel " + channel + " from " + sendingServer);
+                e.printStackTrace();
+                return;
+            }
+
+            // Handlers were checked to accept the type when they subscribed
+            for (MessageHandler<?> handler : handlers) {
+                try {
+                    ((MessageHandler<T>) handler).onMessage(sendingServer, channel, message);
+                } catch (RuntimeException e) {
+                    plugin.severe("Message handler on channel " + channel + " failed");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for frame compression on send and decompression on receive
+ */
+public class CompressionMetrics {
+    private final LongAdder compressedFrames = new LongAdder();
+    private final LongAdder skippedFrames = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressedFrames = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * Records a frame body that was compressed before sending
+     *
+     * @param uncompressedSize Size of the body before compression
+     * @param compressedSize   Size of the body after compression
+     * @param nanos            Time spent compressing
+     */
+    public void recordCompressed(int uncompressedSize, int compressedSize, long nanos) {
+        compressedFrames.increment();
+        uncompressedBytes.add(uncompressedSize);
+        compressedBytes.add(compressedSize);
+        compressNanos.add(nanos);
+    }
+
+    /**
+     * Records a frame body that was over the threshold but did not shrink
+     *
+     * @param nanos Time spent trying to compress
+     */
+    public void recordSkipped(long nanos) {
+        skippedFrames.increment();
+        compressNanos.add(nanos);
+    }
+
+    /**
+     * Records a received frame body that was decompressed
+     *
+     * @param nanos Time spent decompressing
+     */
+    public void recordDecompressed(long nanos) {
+        decompressedFrames.increment();
+        decompressNanos.add(nanos);
+    }
+
+    /**
+     * @return Number of frames sent compressed
+     */
+    public long getCompressedFrames() {
+        return compressedFrames.sum();
+    }
+
+    /**
+     * @return Number of frames over the threshold sent uncompressed because they did not shrink
+     */
+    public long getSkippedFrames() {
+        return skippedFrames.sum();
+    }
+
+    /**
+     * @return Bytes of frame bodies before compression
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    /**
+     * @return Bytes of frame bodies after compression
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * @return Compressed size divided by uncompressed size, or 1 if nothing was compressed
+     */
+    public double getCompressionRatio() {
+        long uncompressed = uncompressedBytes.sum();
+        return uncompressed == 0 ? 1 : (double) compressedBytes.sum() / uncompressed;
+    }
+
+    /**
+     * @return Nanoseconds spent compressing frames, including skipped ones
+     */
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    /**
+     * @return Number of received frames that were decompressed
+     */
+    public long getDecompressedFrames() {
+        return decompressedFrames.sum();
+    }
+
+    /**
+     * @return Nanoseconds spent decompressing received frames
+     */
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for publishes that reached no subscriber
+ */
+public class DeliveryMetrics {
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> undeliveredByDestination = new ConcurrentHashMap<>();
+
+    /**
+     * Records a publish made again after reaching no subscriber
+     */
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    /**
+     * Records a message that reached no subscriber after all its attempts
+     *
+     * @param destination Destination the message was published to
+     */
+    public void recordUndelivered(String destination) {
+        undeliveredByDestination.computeIfAbsent(destination, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records an undelivered message handed to the dead-letter destination or handler
+     */
+    public void recordDeadLettered() {
+        deadLettered.increment();
+    }
+
+    /**
+     * Records a publish the outbound queue dropped or replaced, which is
+     * not retried as it never reached Redis
+     */
+    public void recordDropped() {
+        dropped.increment();
+    }
+
+    /**
+     * @return Number of retries made
+     */
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    /**
+     * @return Number of messages sent to the dead-letter destination or handler
+     */
+    public long getDeadLetteredCount() {
+        return deadLettered.sum();
+    }
+
+    /**
+     * @return Number of publishes dropped or replaced by the outbound queue
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Number of undelivered messages across all destinations
+     */
+    public long getUndeliveredCount() {
+        long total = 0;
+
+        for (LongAdder count : undeliveredByDestination.values()) {
+            total += count.sum();
+        }
+
+        return total;
+    }
+
+    /**
+     * @return Snapshot of the undelivered messages per destination
+     */
+    public Map<String, Long> getUndeliveredByDestination() {
+        Map<String, Long> result = new HashMap<>(undeliveredByDestination.size());
+        undeliveredByDestination.forEach((destination, count) -> result.put(destination, count.sum()));
+        return Collections.unmodifiableMap(result);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for received frames that were dropped because their TTL had passed
+ */
+public class ExpiryMetrics {
+    private final LongAdder expiredFrames = new LongAdder();
+    private final LongAdder expiredMillis = new LongAdder();
+    private final LongAccumulator maxExpiredMillis = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a received frame that was dropped as expired
+     *
+     * @param millis Milliseconds by which the frame was past its TTL
+     */
+    public void recordExpired(long millis) {
+        expiredFrames.increment();
+        expiredMillis.add(millis);
+        maxExpiredMillis.accumulate(millis);
+    }
+
+    /**
+     * @return Number of received frames dropped as expired
+     */
+    public long getExpiredFrames() {
+        return expiredFrames.sum();
+    }
+
+    /**
+     * @return Average milliseconds by which dropped frames were past their TTL
+     */
+    public double getAverageExpiredMillis() {
+        long frames = expiredFrames.sum();
+        return frames == 0 ? 0 : (double) expiredMillis.sum() / frames;
+    }
+
+    /**
+     * @return Largest number of milliseconds by which a dropped frame was past its TTL
+     */
+    public long getMaxExpiredMillis() {
+        return maxExpiredMillis.get();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the pipelined flushes performed by the outbound batcher
+ */
+public class FlushMetrics {
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final AtomicLong largestBatchSize = new AtomicLong();
+    private volatile int lastBatchSize;
+    private volatile long lastQueueLatencyNanos;
+    private volatile long lastFlushNanos;
+
+    /**
+     * Records a completed flush
+     *
+     * @param batchSize         Number of publishes written in the flush
+     * @param queueLatencyNanos Time the oldest publish in the batch waited in the queue
+     * @param flushNanos        Time spent writing and flushing the batch
+     */
+    public void record(int batchSize, long queueLatencyNanos, long flushNanos) {
+        flushes.increment();
+        messages.add(batchSize);
+        largestBatchSize.accumulateAndGet(batchSize, Math::max);
+
+        this.lastBatchSize = batchSize;
+        this.lastQueueLatencyNanos = queueLatencyNanos;
+        this.lastFlushNanos = flushNanos;
+    }
+
+    /**
+     * @return Number of flushes that wrote at least one publish
+     */
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    /**
+     * @return Number of publishes written across all flushes
+     */
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    /**
+     * @return Average number of publishes per flush
+     */
+    public double getAverageBatchSize() {
+        long flushCount = flushes.sum();
+        return flushCount == 0 ? 0 : (double) messages.sum() / flushCount;
+    }
+
+    /**
+     * @return Largest number of publishes written in one flush
+     */
+    public long getLargestBatchSize() {
+        return largestBatchSize.get();
+    }
+
+    /**
+     * @return Number of publishes written in the last flush
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * @return Nanoseconds the oldest publish of the last flush waited in the queue
+     */
+    public long getLastQueueLatencyNanos() {
+        return lastQueueLatencyNanos;
+    }
+
+    /**
+     * @return Nanoseconds spent writing and flushing the last batch
+     */
+    public long getLastFlushNanos() {
+        return lastFlushNanos;
+    }
+}
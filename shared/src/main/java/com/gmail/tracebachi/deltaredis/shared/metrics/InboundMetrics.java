@@ -0,0 +1,95 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the received frames handed from the Redis event loop to the
+ * inbound dispatch threads, and for the echoes they dropped
+ */
+public class InboundMetrics {
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queuedNanos = new LongAdder();
+    private final LongAdder skippedEchoes = new LongAdder();
+    private final LongAdder skippedEchoBytes = new LongAdder();
+
+    /**
+     * Records a frame taken up by a dispatch thread
+     *
+     * @param queuedNanos Time the frame waited in the queue
+     */
+    public void recordDispatched(long queuedNanos) {
+        dispatched.increment();
+        this.queuedNanos.add(queuedNanos);
+    }
+
+    /**
+     * Records a frame dropped because the queue of its dispatch thread was full
+     */
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * Records an echo of a message this server sent, dropped before its body
+     * was decoded
+     *
+     * @param frameSize Size of the frame in bytes
+     */
+    public void recordSkippedEcho(int frameSize) {
+        skippedEchoes.increment();
+        skippedEchoBytes.add(frameSize);
+    }
+
+    /**
+     * @return Number of frames taken up by a dispatch thread
+     */
+    public long getDispatchedCount() {
+        return dispatched.sum();
+    }
+
+    /**
+     * @return Number of frames dropped because a dispatch queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return Number of echoes of this server's messages dropped before decoding
+     */
+    public long getSkippedEchoCount() {
+        return skippedEchoes.sum();
+    }
+
+    /**
+     * @return Total bytes of the echoes dropped before decoding
+     */
+    public long getSkippedEchoBytes() {
+        return skippedEchoBytes.sum();
+    }
+
+    /**
+     * @return Average milliseconds a frame waited for a dispatch thread
+     */
+    public double getAverageQueuedMillis() {
+        long count = dispatched.sum();
+        return count == 0 ? 0 : queuedNanos.sum() / 1e6 / count;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the publishes the outbound batcher could not queue right away
+ * or replaced before writing them
+ */
+public class OutboundQueueMetrics {
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAdder conflated = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> droppedByChannel = new ConcurrentHashMap<>();
+
+    /**
+     * Records publishes dropped by {@code DROP_OLDEST} or {@code DROP_NEWEST}
+     *
+     * @param channel      Channel of the dropped message
+     * @param publishCount Number of publishes dropped
+     */
+    public void recordDropped(String channel, int publishCount) {
+        dropped.add(publishCount);
+        droppedByChannel.computeIfAbsent(channel, k -> new LongAdder()).add(publishCount);
+    }
+
+    /**
+     * Records publishes failed by {@code FAIL} or a timed out {@code BLOCK}
+     *
+     * @param publishCount Number of publishes failed
+     */
+    public void recordRejected(int publishCount) {
+        rejected.add(publishCount);
+    }
+
+    /**
+     * Records a caller that had to wait for room in the queue
+     *
+     * @param nanos Time the caller waited
+     */
+    public void recordBlocked(long nanos) {
+        blocked.increment();
+        blockedNanos.add(nanos);
+    }
+
+    /**
+     * Records a pending publish replaced by a newer value of a conflated channel
+     */
+    public void recordConflated() {
+        conflated.increment();
+    }
+
+    /**
+     * @return Number of publishes dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Number of publishes failed because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return Number of callers that waited for room in the queue
+     */
+    public long getBlockedCount() {
+        return blocked.sum();
+    }
+
+    /**
+     * @return Total nanoseconds callers waited for room in the queue
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+
+    /**
+     * @return Number of pending publishes replaced by a newer value before being written
+     */
+    public long getConflatedCount() {
+        return conflated.sum();
+    }
+
+    /**
+     * @return Snapshot of the dropped publishes per channel
+     */
+    public Map<String, Long> getDroppedByChannel() {
+        Map<String, Long> result = new HashMap<>(droppedByChannel.size());
+        droppedByChannel.forEach((channel, count) -> result.put(channel, count.sum()));
+        return Collections.unmodifiableMap(result);
+    }
+}
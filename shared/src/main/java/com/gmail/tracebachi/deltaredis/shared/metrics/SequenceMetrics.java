@@ -0,0 +1,115 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the sequence numbers of received frames, which show the
+ * frames Redis lost or delivered more than once or out of order
+ */
+public class SequenceMetrics {
+    private final LongAdder sequenced = new LongAdder();
+    private final LongAdder gaps = new LongAdder();
+    private final LongAdder missing = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder reordered = new LongAdder();
+    private final LongAdder sessions = new LongAdder();
+
+    /**
+     * Records a received frame with a sequence number
+     */
+    public void recordSequenced() {
+        sequenced.increment();
+    }
+
+    /**
+     * Records a frame whose number skipped past frames not received yet
+     *
+     * @param skipped Number of frames skipped
+     */
+    public void recordGap(long skipped) {
+        gaps.increment();
+        missing.add(skipped);
+    }
+
+    /**
+     * Records a frame whose number was already received
+     */
+    public void recordDuplicate() {
+        duplicates.increment();
+    }
+
+    /**
+     * Records a frame received after frames with higher numbers, which is
+     * then no longer missing
+     */
+    public void recordReordered() {
+        reordered.increment();
+        missing.decrement();
+    }
+
+    /**
+     * Records the first frame of a publisher session on a Redis channel
+     */
+    public void recordSession() {
+        sessions.increment();
+    }
+
+    /**
+     * @return Number of received frames with a sequence number
+     */
+    public long getSequencedCount() {
+        return sequenced.sum();
+    }
+
+    /**
+     * @return Number of times a number skipped past frames not received yet
+     */
+    public long getGapCount() {
+        return gaps.sum();
+    }
+
+    /**
+     * @return Number of skipped frames that were never received
+     */
+    public long getMissingCount() {
+        return missing.sum();
+    }
+
+    /**
+     * @return Number of frames received more than once
+     */
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return Number of frames received after frames with higher numbers
+     */
+    public long getReorderedCount() {
+        return reordered.sum();
+    }
+
+    /**
+     * @return Number of publisher sessions followed on a Redis channel, which
+     * grows as servers restart
+     */
+    public long getSessionCount() {
+        return sessions.sum();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import com.lambdaworks.redis.api.StatefulRedisConnection;
+import com.lambdaworks.redis.api.sync.RedisCommands;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reports calls that block on Redis while running on the server thread
+ * <p>In strict mode, the connections of the {@link RedisConnectionManager}
+ * check the thread of every synchronous command, which covers other plugins
+ * using them too, and DeltaRedis checks its own blocking waits. Each calling
+ * location is reported once, with the stack that led to it.</p>
+ * <p>Checks only run while the plugin is enabled, so the synchronous clean
+ * up of a disabling plugin is not reported.</p>
+ */
+public class BlockingCallDetector implements PluginSource {
+    private static final String DELTA_REDIS_PACKAGE = "com.gmail.tracebachi.deltaredis.";
+
+    private final Set<String> reportedCallers = ConcurrentHashMap.newKeySet();
+    private final LongAdder detectedCalls = new LongAdder();
+    private volatile boolean active;
+    private DeltaRedisPlugin plugin;
+
+    public BlockingCallDetector(DeltaRedisPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void register() {
+        active = plugin.getDeltaRedisConfig().strictThreadChecks;
+    }
+
+    @Override
+    public void unregister() {
+        active = false;
+    }
+
+    @Override
+    public void shutdown() {
+        active = false;
+        plugin = null;
+    }
+
+    /**
+     * Reports the call if it is made on the server thread in strict mode
+     *
+     * @param operation Blocking operation about to be run
+     */
+    public void check(String operation) {
+        DeltaRedisPlugin plugin = this.plugin;
+
+        if (!active || plugin == null || !plugin.isServerThread()) {
+            return;
+        }
+
+        detectedCalls.increment();
+
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        String caller = findCaller(stack);
+
+        if (reportedCallers.add(caller)) {
+            StringBuilder builder = new StringBuilder("[Strict] Blocking ")
+                    .append(operation)
+                    .append(" on the server thread, called from ")
+                    .append(caller);
+
+            for (StackTraceElement element : stack) {
+                builder.append(System.lineSeparator()).append("\tat ").append(element);
+            }
+
+            plugin.severe(builder.toString());
+        }
+    }
+
+    /**
+     * @return Number of blocking calls made on the server thread in strict mode
+     */
+    public long getDetectedCalls() {
+        return detectedCalls.sum();
+    }
+
+    /**
+     * Wraps a connection so that its synchronous commands are checked
+     * <p>The connection is returned as is if strict mode is disabled.</p>
+     *
+     * @param connection Connection to wrap
+     * @return Checked connection
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> StatefulRedisConnection<K, V> wrap(StatefulRedisConnection<K, V> connection) {
+        if (!plugin.getDeltaRedisConfig().strictThreadChecks) {
+            return connection;
+        }
+
+        RedisCommands<K, V> sync = connection.sync();
+        RedisCommands<K, V> checkedSync = (RedisCommands<K, V>) Proxy.newProxyInstance(
+                RedisCommands.class.getClassLoader(),
+                new Class<?>[]{RedisCommands.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() != Object.class) {
+                        check("Redis " + method.getName().toUpperCase());
+                    }
+
+                    return invoke(sync, method, args);
+                });
+
+        return (StatefulRedisConnection<K, V>) Proxy.newProxyInstance(
+                StatefulRedisConnection.class.getClassLoader(),
+                new Class<?>[]{StatefulRedisConnection.class},
+                (proxy, method, args) -> {
+                    if ("sync".equals(method.getName()) && method.getParameterCount() == 0) {
+                        return checkedSync;
+                    }
+
+                    return invoke(connection, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return First frame outside of DeltaRedis and the proxies, which is
+     * where the plugin that made the call is
+     */
+    private static String findCaller(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            String className = element.getClassName();
+
+            if (!className.startsWith(DELTA_REDIS_PACKAGE) && !className.startsWith("com.sun.proxy.")
+                    && !className.startsWith("java.") && !className.startsWith("sun.")
+                    && !className.startsWith("jdk.")) {
+                return element.toString();
+            }
+        }
+
+        return stack.length > 0 ? stack[stack.length - 1].toString() : "unknown";
+    }
+}
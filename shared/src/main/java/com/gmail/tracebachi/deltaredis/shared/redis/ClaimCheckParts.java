@@ -0,0 +1,100 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.frame.FrameCodec;
+import com.lambdaworks.redis.api.StatefulRedisConnection;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Message parts of a claim-checked payload, fetched from Redis the first
+ * time they are read
+ * <p>Reading the parts blocks on Redis, so the list must not be read on the
+ * Redis event loop. Servers that never read the parts of a message never
+ * fetch its payload.</p>
+ */
+public class ClaimCheckParts extends AbstractList<String> {
+    private final String key;
+
+    private StatefulRedisConnection<String, byte[]> connection;
+    private FrameCodec frameCodec;
+    private volatile List<String> parts;
+
+    public ClaimCheckParts(String key, StatefulRedisConnection<String, byte[]> connection, FrameCodec frameCodec) {
+        this.key = key;
+        this.connection = connection;
+        this.frameCodec = frameCodec;
+    }
+
+    /**
+     * @return Redis key under which the payload is stored
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return True if the payload was already fetched or false
+     */
+    public boolean isLoaded() {
+        return parts != null;
+    }
+
+    @Override
+    public String get(int index) {
+        return load().get(index);
+    }
+
+    @Override
+    public int size() {
+        return load().size();
+    }
+
+    private List<String> load() {
+        List<String> result = parts;
+
+        if (result != null) {
+            return result;
+        }
+
+        synchronized (this) {
+            if (parts == null) {
+                byte[] payload = connection.sync().get(key);
+
+                if (payload == null) {
+                    throw new IllegalStateException("Claim-checked payload expired or missing: " + key);
+                }
+
+                if (!frameCodec.canResolveNames(payload)) {
+                    frameCodec.getDictionary().load();
+                }
+
+                // The stored frame starts with the sending server and channel
+                List<String> decoded = frameCodec.decode(payload);
+                parts = Collections.unmodifiableList(decoded.subList(2, decoded.size()));
+
+                connection = null;
+                frameCodec = null;
+            }
+
+            return parts;
+        }
+    }
+}
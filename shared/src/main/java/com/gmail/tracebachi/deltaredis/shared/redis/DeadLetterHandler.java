@@ -0,0 +1,33 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import java.util.List;
+
+/**
+ * Called asynchronously with messages that no subscriber received before
+ * the retries of their {@link DeliveryPolicy} ran out
+ */
+public interface DeadLetterHandler {
+    /**
+     * @param destination  Destination the message was published to
+     * @param channel      Channel of the message
+     * @param messageParts The undelivered message
+     * @param attempts     Number of publishes made, including the first one
+     */
+    void onDeadLetter(String destination, String channel, List<String> messageParts, int attempts);
+}
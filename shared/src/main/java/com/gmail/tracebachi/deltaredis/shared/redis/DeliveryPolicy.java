@@ -0,0 +1,53 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+/**
+ * How a channel handles a publish that reached no subscriber
+ * <p>The publish is retried with a doubling backoff until
+ * {@link #retryTimeout} has passed. A message still undelivered is then sent
+ * to the dead-letter destination, if any, and to the dead-letter handler.</p>
+ */
+public class DeliveryPolicy {
+    /**
+     * Milliseconds after the first attempt during which retries are made
+     */
+    public final long retryTimeout;
+
+    /**
+     * Milliseconds before the first retry
+     */
+    public final long initialBackoff;
+
+    /**
+     * Upper bound in milliseconds for the time between two retries
+     */
+    public final long maxBackoff;
+
+    /**
+     * Destination that receives undelivered messages on
+     * {@link com.gmail.tracebachi.deltaredis.shared.DeltaRedisChannels#DEAD_LETTER}, or null
+     */
+    public final String deadLetterDestination;
+
+    public DeliveryPolicy(long retryTimeout, long initialBackoff, long maxBackoff, String deadLetterDestination) {
+        this.retryTimeout = retryTimeout;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.deadLetterDestination = deadLetterDestination;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisChannels;
+import com.gmail.tracebachi.deltaredis.shared.metrics.DeliveryMetrics;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the {@link DeliveryPolicy} of a channel to publishes that
+ * reached no subscriber
+ * <p>Publishes the {@link OutboundBatcher} dropped are counted, but never
+ * retried, as that would only add to the load the queue is shedding.</p>
+ */
+public class DeliveryRetrier {
+    private final DeliveryMetrics metrics = new DeliveryMetrics();
+
+    private volatile DeadLetterHandler deadLetterHandler;
+    private DeltaRedisCommandSender sender;
+    private OutboundBatcher batcher;
+    private DeltaRedisPlugin plugin;
+
+    public DeliveryRetrier(DeltaRedisCommandSender sender, OutboundBatcher batcher, DeltaRedisPlugin plugin) {
+        this.sender = sender;
+        this.batcher = batcher;
+        this.plugin = plugin;
+    }
+
+    /**
+     * Follows a queued publish and retries it while no subscriber receives it
+     *
+     * @param dest         Destination the message was published to
+     * @param channel      Channel of the message
+     * @param messageParts Message parts, handed to the dead-letter destination and handler
+     * @param redisChannel Complete Redis channel the frame is published to
+     * @param frame        Encoded frame, published again as is on retries
+     * @param first        Future of the first publish
+     * @return Future completed with the number of receivers of the last attempt,
+     * or 0 if it was dropped
+     */
+    public CompletableFuture<Long> track(String dest, String channel, List<String> messageParts,
+                                         String redisChannel, byte[] frame, CompletableFuture<Long> first) {
+        DeliveryPolicy policy = plugin.getDeltaRedisConfig().deliveryPolicies.get(channel);
+
+        if (policy == null) {
+            return first.thenApply(receivers -> {
+                if (receivers == OutboundBatcher.DROPPED) {
+                    metrics.recordDropped();
+                    return 0L;
+                }
+
+                if (receivers == 0) {
+                    metrics.recordUndelivered(dest);
+                }
+
+                return receivers;
+            });
+        }
+
+        Delivery delivery = new Delivery(dest, channel, new ArrayList<>(messageParts), redisChannel, frame, policy);
+        first.whenComplete((receivers, ex) -> onAttempt(delivery, receivers, ex));
+        return delivery.result;
+    }
+
+    /**
+     * @param deadLetterHandler Handler for undelivered messages or null to remove it
+     */
+    public void setDeadLetterHandler(DeadLetterHandler deadLetterHandler) {
+        this.deadLetterHandler = deadLetterHandler;
+    }
+
+    /**
+     * @return Counters for undelivered messages and retries
+     */
+    public DeliveryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Drops the references to the other components
+     */
+    public void shutdown() {
+        deadLetterHandler = null;
+        sender = null;
+        batcher = null;
+        plugin = null;
+    }
+
+    private void onAttempt(Delivery delivery, Long receivers, Throwable ex) {
+        if (ex != null) {
+            delivery.result.completeExceptionally(ex);
+            return;
+        }
+
+        if (receivers > 0) {
+            delivery.result.complete(receivers);
+            return;
+        }
+
+        if (receivers == OutboundBatcher.DROPPED) {
+            metrics.recordDropped();
+            delivery.result.complete(0L);
+            return;
+        }
+
+        DeltaRedisPlugin plugin = this.plugin;
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - delivery.startedAt);
+
+        if (plugin != null && elapsedMillis + delivery.backoff <= delivery.policy.retryTimeout) {
+            long delay = delivery.backoff;
+            delivery.backoff = Math.min(delay * 2, delivery.policy.maxBackoff);
+            delivery.attempts++;
+            metrics.recordRetry();
+
+            plugin.getScheduler().asyncLater(() -> retry(delivery), delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        metrics.recordUndelivered(delivery.dest);
+        deadLetter(delivery);
+        delivery.result.complete(0L);
+    }
+
+    private void retry(Delivery delivery) {
+        OutboundBatcher batcher = this.batcher;
+
+        if (batcher == null) {
+            delivery.result.complete(0L);
+            return;
+        }
+
+        plugin.debug("Retrying undelivered message on " + delivery.channel + " to " + delivery.dest);
+
+        batcher.enqueue(delivery.channel, delivery.redisChannel, delivery.frame)
+                .whenComplete((receivers, ex) -> onAttempt(delivery, receivers, ex));
+    }
+
+    private void deadLetter(Delivery delivery) {
+        DeadLetterHandler handler = this.deadLetterHandler;
+        DeltaRedisCommandSender sender = this.sender;
+        String deadLetterDestination = delivery.policy.deadLetterDestination;
+
+        if (handler == null && (deadLetterDestination == null || sender == null)) {
+            return;
+        }
+
+        metrics.recordDeadLettered();
+
+        if (deadLetterDestination != null && sender != null) {
+            List<String> deadLetterParts = new ArrayList<>(delivery.messageParts.size() + 2);
+            deadLetterParts.add(delivery.dest);
+            deadLetterParts.add(delivery.channel);
+            deadLetterParts.addAll(delivery.messageParts);
+
+            sender.publish(deadLetterDestination, DeltaRedisChannels.DEAD_LETTER, deadLetterParts);
+        }
+
+        if (handler != null) {
+            try {
+                handler.onDeadLetter(delivery.dest, delivery.channel, delivery.messageParts, delivery.attempts);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static final class Delivery {
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+        private final long startedAt = System.nanoTime();
+        private final String dest;
+        private final String channel;
+        private final List<String> messageParts;
+        private final String redisChannel;
+        private final byte[] frame;
+        private final DeliveryPolicy policy;
+        private long backoff;
+        private int attempts = 1;
+
+        private Delivery(String dest, String channel, List<String> messageParts,
+                         String redisChannel, byte[] frame, DeliveryPolicy policy) {
+            this.dest = dest;
+            this.channel = channel;
+            this.messageParts = messageParts;
+            this.redisChannel = redisChannel;
+            this.frame = frame;
+            this.policy = policy;
+            this.backoff = policy.initialBackoff;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.lambdaworks.io.netty.buffer.ByteBuf;
+import com.lambdaworks.io.netty.buffer.ByteBufUtil;
+import com.lambdaworks.redis.codec.RedisCodec;
+import com.lambdaworks.redis.codec.ToByteBufEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codec for connections that carry DeltaRedis frames
+ * <p>Keys and channels are UTF-8 strings while values are passed through as
+ * raw bytes, which lets receivers detect the frame format before decoding.</p>
+ * <p>Frames are built as arrays by {@link com.gmail.tracebachi.deltaredis.shared.frame.FrameCodec}
+ * before they are published, as the same frame is shared by every
+ * destination, by retries and by claim-checks. Each write copies the frame
+ * into the pooled buffer of the command once, without wrapping it first.
+ * Keys are encoded into that buffer as UTF-8 directly.</p>
+ * <p>Lettuce only hands a {@link ByteBuffer} view of its buffer to codecs,
+ * so received frames are copied out of it into an array once. Received
+ * keys, which are mostly the few channels a server subscribes to, are
+ * decoded once and then looked up by their bytes.</p>
+ */
+public class DeltaRedisCodec implements RedisCodec<String, byte[]>, ToByteBufEncoder<String, byte[]> {
+    public static final DeltaRedisCodec INSTANCE = new DeltaRedisCodec();
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final int MAX_CACHED_KEYS = 256;
+
+    private final Map<ByteBuffer, String> decodedKeys = new ConcurrentHashMap<>();
+
+    @Override
+    public String decodeKey(ByteBuffer bytes) {
+        // Buffers are equal by their remaining bytes, so the lookup copies nothing
+        String cached = decodedKeys.get(bytes);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.duplicate().get(copy);
+
+        String key = new String(copy, StandardCharsets.UTF_8);
+
+        if (decodedKeys.size() < MAX_CACHED_KEYS) {
+            decodedKeys.put(ByteBuffer.wrap(copy), key);
+        }
+
+        return key;
+    }
+
+    @Override
+    public byte[] decodeValue(ByteBuffer bytes) {
+        byte[] result = new byte[bytes.remaining()];
+        bytes.get(result);
+        return result;
+    }
+
+    @Override
+    public ByteBuffer encodeKey(String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public ByteBuffer encodeValue(byte[] value) {
+        return ByteBuffer.wrap(value == null ? EMPTY : value);
+    }
+
+    @Override
+    public void encodeKey(String key, ByteBuf target) {
+        ByteBufUtil.writeUtf8(target, key);
+    }
+
+    @Override
+    public void encodeValue(byte[] value, ByteBuf target) {
+        if (value != null) {
+            target.writeBytes(value);
+        }
+    }
+
+    @Override
+    public int estimateSize(Object keyOrValue) {
+        if (keyOrValue instanceof byte[]) {
+            return ((byte[]) keyOrValue).length;
+        }
+
+        if (keyOrValue instanceof String) {
+            // Largest UTF-8 size, so the buffer never grows while writing
+            return ((String) keyOrValue).length() * 3;
+        }
+
+        return 0;
+    }
+}
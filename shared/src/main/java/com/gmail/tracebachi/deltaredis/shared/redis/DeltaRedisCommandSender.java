@@ -16,10 +16,11 @@
  */
 package com.gmail.tracebachi.deltaredis.shared.redis;
 
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisChannels;
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
 import com.gmail.tracebachi.deltaredis.shared.cache.CachedPlayer;
 import com.gmail.tracebachi.deltaredis.shared.PluginSource;
 import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
-import com.gmail.tracebachi.deltaredis.shared.EscapeAndDelimiterUtil;
 import com.gmail.tracebachi.deltaredis.shared.structure.Channel;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
@@ -27,6 +28,7 @@ import com.lambdaworks.redis.api.StatefulRedisConnection;
 import lombok.NonNull;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Created by Trace Bachi (tracebachi@gmail.com) on 10/18/15.
@@ -38,14 +40,23 @@ public class DeltaRedisCommandSender implements PluginSource {
     private final String playerSetKey;
 
     private StatefulRedisConnection<String, String> connection;
-    private Set<CachedPlayer> cachedPlayers = new HashSet<>();
+    private OutboundBatcher batcher;
+    private DeliveryRetrier deliveryRetrier;
+    private ScheduledPublisher scheduledPublisher;
+    private PublishRateLimiter rateLimiter;
+    private volatile Set<CachedPlayer> cachedPlayers = Collections.emptySet();
+    private volatile Set<String> cachedServers = Collections.emptySet();
+    private volatile boolean isBungeeCordOnline;
     private DeltaRedisPlugin plugin;
-    private boolean isBungeeCordOnline;
-    private Set<String> cachedServers;
 
-    public DeltaRedisCommandSender(StatefulRedisConnection<String, String> connection, DeltaRedisPlugin plugin) {
+    public DeltaRedisCommandSender(StatefulRedisConnection<String, String> connection, OutboundBatcher batcher,
+                                   DeltaRedisPlugin plugin) {
         this.plugin = plugin;
         this.connection = connection;
+        this.batcher = batcher;
+        this.deliveryRetrier = new DeliveryRetrier(this, batcher, plugin);
+        this.scheduledPublisher = new ScheduledPublisher(connection, this, plugin);
+        this.rateLimiter = new PublishRateLimiter(plugin);
         this.bungeeName = plugin.getProxyName();
         this.serverName = plugin.getServerName();
         this.serverSetKey = bungeeName + ":servers";
@@ -54,14 +65,22 @@ public class DeltaRedisCommandSender implements PluginSource {
 
     /**
      * Sets up by adding the server to Redis.
+     * <p>The server is added asynchronously, so that enabling the plugin
+     * does not block the server thread on Redis.</p>
      */
-    public synchronized void register() {
+    public void register() {
         plugin.debug("DeltaRedisCommandSender.register()");
-        connection.sync().sadd(serverSetKey, serverName);
+        connection.async().sadd(serverSetKey, serverName).whenComplete((added, ex) -> {
+            if (ex != null) {
+                plugin.severe("Failed to add " + serverName + " to the servers in Redis: " + ex.getMessage());
+            }
+        });
+        scheduledPublisher.register();
     }
 
     @Override
     public void unregister() {
+        scheduledPublisher.unregister();
         connection.sync().srem(serverSetKey, serverName);
     }
 
@@ -69,26 +88,37 @@ public class DeltaRedisCommandSender implements PluginSource {
      * Shuts down by removing the server from Redis.
      */
     @Override
-    public synchronized void shutdown() {
+    public void shutdown() {
         plugin.debug("DeltaRedisCommandSender.shutdown()");
 
         connection.sync().srem(serverSetKey, serverName);
+        scheduledPublisher.shutdown();
+        rateLimiter.shutdown();
+        deliveryRetrier.shutdown();
         connection = null;
+        batcher = null;
+        deliveryRetrier = null;
+        scheduledPublisher = null;
+        rateLimiter = null;
         plugin = null;
     }
 
     /**
-     * @return An unmodifiable set of servers that are part of the same
-     * BungeeCord (from Redis)
+     * Fetches the servers that are part of the same BungeeCord from Redis
+     * and updates the cached servers once the reply arrives
+     *
+     * @return Future completed with an unmodifiable set of servers
      */
-    public synchronized Set<String> getServers() {
+    public CompletableFuture<Set<String>> getServers() {
         plugin.debug("DeltaRedisCommandSender.getServers()");
 
-        Set<String> result = connection.sync().smembers(serverSetKey);
+        return connection.async().smembers(serverSetKey).thenApply(result -> {
+            Set<String> servers = new HashSet<>(result);
 
-        isBungeeCordOnline = result.remove(Channel.PROXY);
-        cachedServers = Collections.unmodifiableSet(result);
-        return cachedServers;
+            isBungeeCordOnline = servers.remove(Channel.PROXY);
+            cachedServers = Collections.unmodifiableSet(servers);
+            return cachedServers;
+        }).toCompletableFuture();
     }
 
     /**
@@ -108,31 +138,43 @@ public class DeltaRedisCommandSender implements PluginSource {
     }
 
     /**
-     * @return An unmodifiable set of player names that are part of the
-     * same BungeeCord (from Redis)
+     * Fetches the players that are part of the same BungeeCord from Redis
+     * and updates the cached players once the reply arrives
+     *
+     * @return Future completed with an unmodifiable set of players
      */
-    public synchronized Set<CachedPlayer> getPlayers() {
+    public CompletableFuture<Set<CachedPlayer>> getPlayers() {
         plugin.debug("DeltaRedisCommandSender.getPlayers()");
 
-        List<String> members = connection.sync().hvals(playerSetKey);
-        Set<CachedPlayer> result = new HashSet<>();
+        return connection.async().hvals(playerSetKey).thenApply(members -> {
+            Set<CachedPlayer> result = new HashSet<>();
 
-        members.forEach(m -> result.add(createCachedPlayer(decompressHashMap(m))));
+            for (String member : members) {
+                CachedPlayer cachedPlayer = createCachedPlayer(decompressHashMap(member));
 
-        cachedPlayers = Collections.unmodifiableSet(result);
+                if (cachedPlayer != null) {
+                    result.add(cachedPlayer);
+                }
+            }
 
-        return cachedPlayers;
+            cachedPlayers = Collections.unmodifiableSet(result);
+            return cachedPlayers;
+        }).toCompletableFuture();
     }
 
     /**
-     * @return True if the player set was removed from Redis or false
+     * Removes the player set from Redis
      * <p>This method does not remove individual player hashes.</p>
+     *
+     * @return Future completed with true if the player set was removed or false
      */
-    public synchronized boolean removePlayers() {
+    public CompletableFuture<Boolean> removePlayers() {
         plugin.debug("DeltaRedisCommandSender.removePlayers()");
 
         cachedPlayers = Collections.emptySet();
-        return (connection.sync().del(playerSetKey)) > 0;
+        return connection.async().del(playerSetKey)
+                .thenApply(removed -> removed > 0)
+                .toCompletableFuture();
     }
 
     /**
@@ -150,10 +192,10 @@ public class DeltaRedisCommandSender implements PluginSource {
      * @param dest         Server name that message should go to
      * @param channel      Custom channel name for the message
      * @param messageParts String message parts to send
-     * @return The number of servers that received the message
+     * @return Future completed with the number of servers that received the message
      */
     // TODO: remove this method, use only (List<String> messageParts)
-    public synchronized long publish(String dest, String channel, String... messageParts) {
+    public CompletableFuture<Long> publish(String dest, String channel, String... messageParts) {
         return publish(dest, channel, Arrays.asList(messageParts));
     }
 
@@ -162,57 +204,315 @@ public class DeltaRedisCommandSender implements PluginSource {
      *
      * @param channel      Custom channel name for the message
      * @param messageParts String message parts to send
-     * @return The number of servers that received the message
+     * @return Future completed with the number of servers that received the message
      */
-    public synchronized long publish(@NonNull String channel, @NonNull List<String> messageParts) {
+    public CompletableFuture<Long> publish(@NonNull String channel, @NonNull List<String> messageParts) {
         return publish(Channel.SPIGOT, channel, messageParts);
     }
 
     /**
      * Publishes a string message using Redis PubSub
      * <p>See {@link Channel} for special destination values.</p>
+     * <p>The message is queued and sent with the next pipelined flush of
+     * the {@link OutboundBatcher}. If no server receives it, the
+     * {@link DeliveryPolicy} of the channel decides whether it is retried.</p>
+     * <p>A message of a conflated channel replaces the pending message with
+     * the same destination, channel and first message part.</p>
+     * <p>The message first has to pass the rate limits of its channel and
+     * of the calling plugin, see {@link PublishRateLimiter}.</p>
+     * <p>If the current server subscribes to the destination, the message
+     * parts are delivered to it directly and the echo from Redis is skipped.
+     * A message to the current server alone is not published at all.</p>
      *
      * @param dest         Server name that message should go to
      * @param channel      Custom channel name for the message
      * @param messageParts String message parts to send
-     * @return The number of servers that received the message
+     * @return Future completed with the number of servers that received the
+     * message, after any retries
      */
-    public synchronized long publish(@NonNull String dest, @NonNull String channel, @NonNull List<String> messageParts) {
+    public CompletableFuture<Long> publish(@NonNull String dest, @NonNull String channel, @NonNull List<String> messageParts) {
         plugin.debug("DeltaRedisCommandSender.publish()");
 
-        List<String> updatedList = new ArrayList<>(messageParts.size() + 2);
-        updatedList.add(serverName);
-        updatedList.add(channel);
+        return rateLimiter.submit(channel, conflationKey(dest, channel, messageParts),
+                () -> publishAs(serverName, dest, channel, messageParts));
+    }
 
-        // Add the rest of the message parts
-        // Why: {dest, channel, {escaped parts}} vs. {dest, channel, part1, part2, ...}
-        updatedList.addAll(messageParts);
+    /**
+     * Publishes a string message as if it was sent by another server
+     * <p>That server also gets a copy on {@link DeltaRedisChannels#SCHEDULED_RELAY},
+     * as it skips the published message as an echo of its own.</p>
+     *
+     * @param sendingServer Server to publish the message as
+     * @param dest          Server name that message should go to
+     * @param channel       Custom channel name for the message
+     * @param messageParts  String message parts to send
+     * @return Future completed with the number of servers that received the
+     * message, after any retries
+     */
+    CompletableFuture<Long> publishAs(String sendingServer, String dest, String channel, List<String> messageParts) {
+        // The echo of a message is only skipped if this server sent it
+        if (serverName.equals(sendingServer) && isLocalDestination(dest, channel)) {
+            deliverLocally(channel, messageParts);
+
+            if (serverName.equals(dest)) {
+                return CompletableFuture.completedFuture(1L);
+            }
+        }
+
+        // The sending server skips the message as an echo, although it was
+        // never delivered to it, so it gets a copy on a channel of its own
+        if (!serverName.equals(sendingServer)) {
+            CompletableFuture<Long> relayed = relay(sendingServer, dest, channel, messageParts);
 
-        String escaped = EscapeAndDelimiterUtil.DELTA_SEPARATED.escapeAndDelimit(updatedList);
+            if (sendingServer.equals(dest)) {
+                return relayed;
+            }
+        }
 
-        plugin.debug("Sending message: " + escaped);
-        return connection.sync().publish(bungeeName + ':' + dest, escaped);
+        byte[] frame = encodeFrame(sendingServer, channel, messageParts);
+        String redisChannel = bungeeName + ':' + dest;
+
+        return claimCheck(sendingServer, channel, frame).thenCompose(published -> {
+            CompletableFuture<Long> future;
+
+            if (plugin.getDeltaRedisConfig().conflatedChannels.contains(channel)) {
+                future = batcher.enqueueConflated(channel, conflationKey(dest, channel, messageParts),
+                        redisChannel, published);
+            } else {
+                future = batcher.enqueue(channel, redisChannel, published);
+            }
+
+            return deliveryRetrier.track(dest, channel, messageParts, redisChannel, published, future);
+        });
     }
 
     /**
-     * Returns a player from Redis
+     * Sends a server the copy of a message published in its name
      *
-     * @param playerName Name of the player to find
-     * @return CachedPlayer if found and null if not
+     * @return Future completed with the number of servers that received the copy
+     * @see DeltaRedisChannels#SCHEDULED_RELAY
      */
-    public synchronized CachedPlayer getPlayer(@NonNull String playerName) {
-        String playerNameLower = playerName.toLowerCase();
-        plugin.debug("DeltaRedisCommandSender.getPlayer(" + playerNameLower + ")");
+    private CompletableFuture<Long> relay(String sendingServer, String dest, String channel,
+                                          List<String> messageParts) {
+        List<String> relayParts = new ArrayList<>(messageParts.size() + 2);
+        relayParts.add(dest);
+        relayParts.add(channel);
+        relayParts.addAll(messageParts);
+
+        return publishAs(serverName, sendingServer, DeltaRedisChannels.SCHEDULED_RELAY, relayParts);
+    }
+
+    /**
+     * Stores a string message in Redis to be published once the timestamp
+     * has passed
+     * <p>See {@link ScheduledPublisher} for how the message is delivered.</p>
+     *
+     * @param timestamp    Epoch milliseconds from which the message is due
+     * @param dest         Server name that message should go to
+     * @param channel      Custom channel name for the message
+     * @param messageParts String message parts to send
+     * @return Future completed once the message is stored
+     */
+    public CompletableFuture<Void> publishAt(long timestamp, @NonNull String dest, @NonNull String channel,
+                                             @NonNull List<String> messageParts) {
+        plugin.debug("DeltaRedisCommandSender.publishAt()");
 
-        String serializedResult = connection.sync().hget(this.playerSetKey, playerNameLower);
+        return scheduledPublisher.schedule(timestamp, dest, channel, serverName, messageParts);
+    }
 
-        if (serializedResult == null) {
-            return null;
+    /**
+     * Publishes a string message to every server of a group
+     *
+     * @param group        Name of the group that message should go to
+     * @param channel      Custom channel name for the message
+     * @param messageParts String message parts to send
+     * @return Future completed with the number of servers that received the message
+     */
+    public CompletableFuture<Long> publishToGroup(@NonNull String group, @NonNull String channel,
+                                                  @NonNull List<String> messageParts) {
+        return publish(Channel.GROUP_PREFIX + group, channel, messageParts);
+    }
+
+    /**
+     * Publishes the same string message to several destinations
+     * <p>The message is encoded once and all publishes are written in the
+     * same pipelined flush of the {@link OutboundBatcher}. Destinations no
+     * server received the message on are counted as undelivered, but not
+     * retried.</p>
+     * <p>Destinations the current server subscribes to are delivered to it
+     * directly, once. The current server itself is reported with one
+     * receiver without being published to.</p>
+     *
+     * @param destinations Server names or {@link Channel} values that message should go to
+     * @param channel      Custom channel name for the message
+     * @param messageParts String message parts to send
+     * @return Future completed with the number of servers that received the
+     * message, per destination
+     */
+    public CompletableFuture<Map<String, Long>> publish(@NonNull Collection<String> destinations,
+                                                        @NonNull String channel,
+                                                        @NonNull List<String> messageParts) {
+        plugin.debug("DeltaRedisCommandSender.publish(destinations)");
+
+        return rateLimiter.submit(channel, conflationKey(destinations.toString(), channel, messageParts),
+                () -> publishToAll(destinations, channel, messageParts));
+    }
+
+    private CompletableFuture<Map<String, Long>> publishToAll(Collection<String> destinations, String channel,
+                                                              List<String> messageParts) {
+        List<String> destList = new ArrayList<>(new LinkedHashSet<>(destinations));
+        boolean self = destList.remove(serverName);
+        List<String> redisChannels = new ArrayList<>(destList.size());
+        boolean local = self && isLocalDestination(serverName, channel);
+
+        for (String dest : destList) {
+            redisChannels.add(bungeeName + ':' + dest);
+            local |= isLocalDestination(dest, channel);
+        }
+
+        if (local) {
+            deliverLocally(channel, messageParts);
         }
 
-        Map<String, String> result = decompressHashMap(serializedResult);
+        byte[] frame = encodeFrame(serverName, channel, messageParts);
+
+        return claimCheck(serverName, channel, frame).thenCompose(
+                published -> batcher.enqueueAll(channel, redisChannels, published)).thenApply(receivers -> {
+            Map<String, Long> result = new LinkedHashMap<>(destList.size() + 1);
+
+            if (self) {
+                result.put(serverName, 1L);
+            }
+
+            for (int i = 0; i < receivers.length; i++) {
+                result.put(destList.get(i), Math.max(receivers[i], 0));
+
+                if (receivers[i] == 0) {
+                    deliveryRetrier.getMetrics().recordUndelivered(destList.get(i));
+                }
+            }
+
+            return result;
+        });
+    }
+
+    /**
+     * @return Batcher that queues and flushes the published messages
+     */
+    public OutboundBatcher getBatcher() {
+        return batcher;
+    }
+
+    /**
+     * @return Publisher that stores and polls the scheduled messages
+     */
+    public ScheduledPublisher getScheduledPublisher() {
+        return scheduledPublisher;
+    }
+
+    /**
+     * @return Limiter that applies the rate limits of the channels and plugins
+     */
+    public PublishRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return Retrier that applies the delivery policies of the channels
+     */
+    public DeliveryRetrier getDeliveryRetrier() {
+        return deliveryRetrier;
+    }
+
+    /**
+     * Stores a frame at or above the claim-check threshold under a key of
+     * its own, so that only a reference to it is published
+     *
+     * @return Future completed with the frame to publish, which is a
+     * claim-check frame if the frame was stored
+     */
+    private CompletableFuture<byte[]> claimCheck(String sendingServer, String channel, byte[] frame) {
+        DeltaRedisConfig config = plugin.getDeltaRedisConfig();
+
+        if (config.claimCheckThreshold <= 0 || frame.length < config.claimCheckThreshold) {
+            return CompletableFuture.completedFuture(frame);
+        }
+
+        String key = bungeeName + ":claim:" + UUID.randomUUID();
+        byte[] reference = plugin.getFrameCodec().encodeClaimCheck(sendingServer, channel, key, ttlFor(channel));
+
+        plugin.debug("Storing " + frame.length + " byte payload under " + key);
+
+        // Leave the Redis event loop before queueing, as a full queue may block
+        return plugin.getRedisConnectionManager().getDataConnection().async()
+                .setex(key, config.claimCheckTtl, frame)
+                .thenApplyAsync(ok -> reference, plugin.getScheduler().async())
+                .toCompletableFuture();
+    }
+
+    private byte[] encodeFrame(String sendingServer, String channel, List<String> messageParts) {
+        // Only build the message for the log if it will be logged
+        if (plugin.getDeltaRedisConfig().debugEnabled) {
+            plugin.debug("Sending message: " + sendingServer + ", " + channel + ", " + messageParts);
+        }
+
+        // The frame holds {sender, channel, part1, part2, ...} rather than
+        // {sender, channel, {escaped parts}}
+        return plugin.getFrameCodec().encode(sendingServer, channel, messageParts, ttlFor(channel));
+    }
+
+    /**
+     * @return True if the current server subscribes to the destination and
+     * the channel can be delivered without going through Redis
+     */
+    private boolean isLocalDestination(String dest, String channel) {
+        // Stream chunks are reassembled by the listener, so they always go through Redis
+        if (DeltaRedisChannels.STREAM.equals(channel)) {
+            return false;
+        }
+
+        if (serverName.equals(dest) || plugin.getCommonChannel().equals(dest)) {
+            return true;
+        }
+
+        return dest.startsWith(Channel.GROUP_PREFIX) && plugin.getDeltaRedisConfig().groups.contains(
+                dest.substring(Channel.GROUP_PREFIX.length()));
+    }
+
+    private void deliverLocally(String channel, List<String> messageParts) {
+        plugin.debug("Delivering message locally on " + channel);
+
+        // Messages from Redis are delivered off the server thread as well,
+        // which the platforms rely on for their async message events
+        plugin.getScheduler().executeAsync(() -> plugin.onRedisMessageEvent(serverName, channel, messageParts));
+    }
+
+    private static String conflationKey(String dest, String channel, List<String> messageParts) {
+        return dest + ':' + channel + ':' + (messageParts.isEmpty() ? "" : messageParts.get(0));
+    }
+
+    private int ttlFor(String channel) {
+        DeltaRedisConfig config = plugin.getDeltaRedisConfig();
+        return config.channelTtls.getOrDefault(channel, config.messageTtl);
+    }
+
+    /**
+     * Looks up a player in Redis
+     *
+     * @param playerName Name of the player to find
+     * @return Future completed with the CachedPlayer if found and null if not
+     */
+    public CompletableFuture<CachedPlayer> getPlayer(@NonNull String playerName) {
+        String playerNameLower = playerName.toLowerCase();
+        plugin.debug("DeltaRedisCommandSender.getPlayer(" + playerNameLower + ")");
+
+        return connection.async().hget(this.playerSetKey, playerNameLower).thenApply(serializedResult -> {
+            if (serializedResult == null) {
+                return null;
+            }
 
-        return createCachedPlayer(result);
+            return createCachedPlayer(decompressHashMap(serializedResult));
+        }).toCompletableFuture();
     }
 
     private CachedPlayer createCachedPlayer(Map<String, String> result) {
@@ -231,28 +531,30 @@ public class DeltaRedisCommandSender implements PluginSource {
      * Removes a player from Redis
      *
      * @param playerName Name of the player to remove
+     * @return Future completed with the number of removed player hashes
      */
-    public synchronized void removePlayer(@NonNull String playerName) {
+    public CompletableFuture<Long> removePlayer(@NonNull String playerName) {
 
         playerName = playerName.toLowerCase();
         plugin.debug("DeltaRedisCommandSender.removePlayer(" + playerName + ")");
 
-        connection.sync().hdel(playerSetKey, playerName);
+        return connection.async().hdel(playerSetKey, playerName).toCompletableFuture();
     }
 
     /**
      * Updates a player in Redis
      *
      * @param playerName Name of the player to update
+     * @return Future completed with true if the player was newly added or false if updated
      */
-    public synchronized void updatePlayer(@NonNull String playerName, @NonNull Map<String, String> newValues) {
+    public CompletableFuture<Boolean> updatePlayer(@NonNull String playerName, @NonNull Map<String, String> newValues) {
 
         playerName = playerName.toLowerCase();
         plugin.debug("DeltaRedisCommandSender.updatePlayer(" + playerName + ")");
 
         String serializedMap = compressHashMap(newValues);
 
-        connection.sync().hset(this.playerSetKey, playerName, serializedMap);
+        return connection.async().hset(this.playerSetKey, playerName, serializedMap).toCompletableFuture();
     }
 
     private String compressHashMap(@NonNull Map<String, String> newValues) {
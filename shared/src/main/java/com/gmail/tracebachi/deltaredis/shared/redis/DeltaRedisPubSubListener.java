@@ -16,9 +16,13 @@
  */
 package com.gmail.tracebachi.deltaredis.shared.redis;
 
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisChannels;
 import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.frame.FrameCodec;
+import com.gmail.tracebachi.deltaredis.shared.frame.SequenceStamp;
+import com.gmail.tracebachi.deltaredis.shared.stream.StreamManager;
+import com.gmail.tracebachi.deltaredis.shared.structure.Channel;
 import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
-import com.gmail.tracebachi.deltaredis.shared.EscapeAndDelimiterUtil;
 import com.lambdaworks.redis.pubsub.RedisPubSubListener;
 import com.lambdaworks.redis.pubsub.StatefulRedisPubSubConnection;
 
@@ -29,48 +33,219 @@ import java.util.function.Function;
 /**
  * Created by Trace Bachi (tracebachi@gmail.com) on 10/18/15.
  */
-public class DeltaRedisPubSubListener implements RedisPubSubListener<String, String>, PluginSource {
+public class DeltaRedisPubSubListener implements RedisPubSubListener<String, byte[]>, PluginSource {
 
     private final ArrayList<String> subscribeTo;
     private DeltaRedisPlugin plugin;
+    private StreamManager streamManager;
+    private InboundConflater conflater;
+    private InboundDispatcher dispatcher;
 
-    public DeltaRedisPubSubListener(DeltaRedisPlugin plugin) {
+    public DeltaRedisPubSubListener(DeltaRedisPlugin plugin, StreamManager streamManager,
+                                    InboundDispatcher dispatcher) {
         this.plugin = plugin;
+        this.streamManager = streamManager;
+        this.conflater = new InboundConflater(plugin);
+        this.dispatcher = dispatcher;
 
         Function<String, String> craftKey = s -> this.plugin.getProxyName() + ':' + s;
 
         this.subscribeTo = new ArrayList<>();
         this.subscribeTo.add(craftKey.apply(plugin.getCommonChannel()));
         this.subscribeTo.add(craftKey.apply(this.plugin.getServerName()));
+
+        for (String group : plugin.getDeltaRedisConfig().groups) {
+            this.subscribeTo.add(craftKey.apply(Channel.GROUP_PREFIX + group));
+        }
     }
 
     @Override
     public void shutdown() {
+        this.conflater.shutdown();
         this.plugin = null;
+        this.streamManager = null;
+        this.conflater = null;
+        this.dispatcher = null;
     }
 
     /**
      * Called when a message is received by the RedisPubSub listener
+     * <p>This runs on the Redis event loop, so the frame is only queued for
+     * the {@link InboundDispatcher}, once its sequence number is checked.</p>
+     * <p>Frames are queued by Redis channel and, if they carry a sequence
+     * number, by the session of their sender. The key does not depend on
+     * the names in the frame, as a sender switches to interned names once
+     * they are assigned, while this server may not know them yet.</p>
      *
-     * @param channel         Ignored as the listener is only registered to explicit channels
-     * @param completeMessage Complete received message
+     * @param channel         Redis channel the frame was received on
+     * @param completeMessage Complete received frame in any {@link com.gmail.tracebachi.deltaredis.shared.frame.WireFormat}
+     */
+    public void message(String channel, byte[] completeMessage) {
+        SequenceStamp stamp = trackSequence(channel, completeMessage);
+        List<String> names = plugin.getFrameCodec().peekNames(completeMessage);
+        String key = stamp != null ? channel + '/' + stamp.getSession() : channel;
+
+        if (!dispatcher.dispatch(key, () -> handle(completeMessage, names))) {
+            plugin.debug("Dropped message of " + completeMessage.length + " bytes, inbound queue is full");
+        }
+    }
+
+    /**
+     * @param completeMessage Complete received frame
+     * @param names           Sending server and channel of the frame, or null
      */
-    public void message(String channel, String completeMessage) {
+    private void handle(byte[] completeMessage, List<String> names) {
         try {
-            List<String> publishedMessageParts = EscapeAndDelimiterUtil
-                    .DELTA_SEPARATED
-                    .unescapeAndUndelimit(completeMessage);
+            // Stale messages are dropped before their parts are read
+            if (plugin.getFrameCodec().isExpired(completeMessage, System.currentTimeMillis())) {
+                plugin.debug("Dropped expired message of " + completeMessage.length + " bytes");
+                return;
+            }
+
+            // Echoes of this server's messages were already delivered to it
+            // directly, so their bodies are not decoded at all
+            if (isEcho(names)) {
+                dispatcher.getMetrics().recordSkippedEcho(completeMessage.length);
+                return;
+            }
+
+            // Loading the dictionary blocks, but only the frames of this
+            // dispatch thread wait for it
+            if (!plugin.getFrameCodec().canResolveNames(completeMessage)) {
+                plugin.getFrameCodec().getDictionary().load();
+            }
+
+            if (FrameCodec.isClaimCheck(completeMessage)) {
+                onClaimCheck(completeMessage);
+                return;
+            }
+
+            // Parts are only decoded once read, so filtered messages stay cheap
+            List<String> publishedMessageParts = plugin.getFrameCodec().decodeLazily(completeMessage);
+
+            if (plugin.getDeltaRedisConfig().debugEnabled) {
+                plugin.debug("Received message: " + publishedMessageParts);
+            }
+
+            if (publishedMessageParts.size() >= 2 && DeltaRedisChannels.STREAM.equals(publishedMessageParts.get(1))) {
+                streamManager.onMessage(publishedMessageParts.get(0),
+                        publishedMessageParts.subList(2, publishedMessageParts.size()));
+                return;
+            }
 
-            plugin.debug("Received message: " + completeMessage);
+            if (publishedMessageParts.size() >= 2 &&
+                    DeltaRedisChannels.SCHEDULED_RELAY.equals(publishedMessageParts.get(1))) {
+                onRelay(publishedMessageParts.subList(2, publishedMessageParts.size()));
+                return;
+            }
+
+            // Messages this server sent were already delivered to it directly
+            if (publishedMessageParts.size() >= 2 && plugin.getServerName().equals(publishedMessageParts.get(0))) {
+                return;
+            }
+
+            if (publishedMessageParts.size() >= 2 && conflater.offer(publishedMessageParts)) {
+                return;
+            }
 
             plugin.onRedisMessageEvent(publishedMessageParts);
         } catch (IllegalArgumentException e) {
-            plugin.severe("Received badly formatted message: " + completeMessage);
+            plugin.severe("Received badly formatted message: " + plugin.getFrameCodec().toDebugString(completeMessage));
 
             e.printStackTrace();
         }
     }
 
+    /**
+     * Checks the sequence number of a frame before it is queued, so that
+     * frames dropped by a full inbound queue are not taken for frames that
+     * Redis lost
+     *
+     * @return Sequence number of the frame or null if it has none
+     */
+    private SequenceStamp trackSequence(String channel, byte[] completeMessage) {
+        SequenceStamp stamp;
+
+        try {
+            stamp = plugin.getFrameCodec().readStamp(completeMessage);
+        } catch (IllegalArgumentException e) {
+            // The malformed frame is reported once it is handled
+            return null;
+        }
+
+        if (stamp != null &&
+                dispatcher.getSequenceTracker().track(channel, stamp) == SequenceTracker.Outcome.GAP) {
+            plugin.debug("Missed messages on " + channel + " before " + stamp);
+        }
+
+        return stamp;
+    }
+
+    /**
+     * @param names Sending server and channel of a frame, or null
+     * @return True if the frame is an echo of a message this server sent
+     * and already delivered to itself
+     */
+    private boolean isEcho(List<String> names) {
+        // Stream chunks to this server go through Redis, so they are no echoes
+        return names != null && plugin.getServerName().equals(names.get(0))
+                && !DeltaRedisChannels.STREAM.equals(names.get(1));
+    }
+
+    private void onClaimCheck(byte[] completeMessage) {
+        List<String> reference = plugin.getFrameCodec().decode(completeMessage);
+
+        if (reference.size() != 3) {
+            throw new IllegalArgumentException("Claim-check frame with " + reference.size() + " parts");
+        }
+
+        String sendingServer = reference.get(0);
+        String messageChannel = reference.get(1);
+
+        if (plugin.getServerName().equals(sendingServer)) {
+            return;
+        }
+
+        ClaimCheckParts messageParts = new ClaimCheckParts(reference.get(2),
+                plugin.getRedisConnectionManager().getDataConnection(), plugin.getFrameCodec());
+
+        plugin.debug("Received claim-check: " + reference);
+
+        // Handlers fetch the payload when they read it, which does not
+        // hold up the other frames of the dispatch thread
+        if (DeltaRedisChannels.SCHEDULED_RELAY.equals(messageChannel)) {
+            plugin.getScheduler().executeAsync(() -> onRelay(messageParts));
+        } else {
+            plugin.getScheduler().executeAsync(
+                    () -> plugin.onRedisMessageEvent(sendingServer, messageChannel, messageParts));
+        }
+    }
+
+    /**
+     * Delivers the copy of a message another server published in the name
+     * of this one, if this server subscribes to its destination
+     *
+     * @param relayParts Original destination, channel and message parts
+     * @see DeltaRedisChannels#SCHEDULED_RELAY
+     */
+    private void onRelay(List<String> relayParts) {
+        if (relayParts.size() < 2) {
+            throw new IllegalArgumentException("Relayed message with " + relayParts.size() + " parts");
+        }
+
+        if (subscribeTo.contains(plugin.getProxyName() + ':' + relayParts.get(0))) {
+            plugin.onRedisMessageEvent(plugin.getServerName(), relayParts.get(1),
+                    relayParts.subList(2, relayParts.size()));
+        }
+    }
+
+    /**
+     * @return Conflater that holds the messages of the conflated channels
+     */
+    public InboundConflater getConflater() {
+        return conflater;
+    }
+
     /**
      * @param channel Channel that the listener was registered to
      * @param count   Number of other listeners (on that Redis instance) on the channel
@@ -90,7 +265,7 @@ public class DeltaRedisPubSubListener implements RedisPubSubListener<String, Str
     /**
      * This method handles pattern matched messages, but is unused.
      */
-    public void message(String pattern, String channel, String message) {
+    public void message(String pattern, String channel, byte[] message) {
     }
 
     /**
@@ -107,20 +282,22 @@ public class DeltaRedisPubSubListener implements RedisPubSubListener<String, Str
 
     @Override
     public void register() {
-        StatefulRedisPubSubConnection<String, String> connection
+        StatefulRedisPubSubConnection<String, byte[]> connection
                 = this.plugin.getRedisConnectionManager().getPubSub();
 
         subscribeTo(connection);
 
         connection.addListener(this);
+        conflater.register();
     }
 
-    private void subscribeTo(StatefulRedisPubSubConnection<String, String> connection) {
+    private void subscribeTo(StatefulRedisPubSubConnection<String, byte[]> connection) {
         connection.sync().subscribe(subscribeTo.toArray(new String[0]));
     }
 
     @Override
     public void unregister() {
         this.plugin.getRedisConnectionManager().getPubSub().removeListener(this);
+        this.conflater.unregister();
     }
 }
@@ -0,0 +1,134 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.frame.FrameDictionary;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import com.lambdaworks.redis.ScriptOutputType;
+import com.lambdaworks.redis.api.StatefulRedisConnection;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of frame header names stored in a hash of the proxy, which
+ * maps each server and channel name to an id
+ * <p>Ids are assigned by a Lua script, so every server gets the same id for
+ * a name. A name is sent in full until its id is known, and receivers load
+ * the hash again when a frame refers to an id they have not seen.</p>
+ * <p>Names are interned, so comparing a resolved channel with a channel
+ * constant only compares references.</p>
+ */
+public class HeaderDictionary implements FrameDictionary, PluginSource {
+    private static final String ASSIGN_SCRIPT =
+            "local id = redis.call('HGET', KEYS[1], ARGV[1]) " +
+            "if id then return tonumber(id) end " +
+            "id = redis.call('HLEN', KEYS[1]) + 1 " +
+            "redis.call('HSET', KEYS[1], ARGV[1], id) " +
+            "return id";
+
+    private final String dictionaryKey;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Set<String> assigning = ConcurrentHashMap.newKeySet();
+    private volatile String[] names = new String[0];
+
+    private StatefulRedisConnection<String, String> connection;
+    private DeltaRedisPlugin plugin;
+
+    public HeaderDictionary(StatefulRedisConnection<String, String> connection, DeltaRedisPlugin plugin) {
+        this.connection = connection;
+        this.plugin = plugin;
+        this.dictionaryKey = plugin.getProxyName() + ":dictionary";
+    }
+
+    @Override
+    public void register() {
+        // Frames that arrive first are decoded once their ids are loaded
+        if (plugin.getDeltaRedisConfig().internHeaders) {
+            plugin.getScheduler().executeAsync(this::load);
+        }
+    }
+
+    @Override
+    public void unregister() {
+    }
+
+    @Override
+    public void shutdown() {
+        connection = null;
+        plugin = null;
+    }
+
+    @Override
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+
+        if (id != null) {
+            return id;
+        }
+
+        if (connection != null && assigning.add(name)) {
+            assign(name);
+        }
+
+        return -1;
+    }
+
+    @Override
+    public String nameOf(int id) {
+        String[] current = names;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    @Override
+    public void load() {
+        Map<String, String> stored = connection.sync().hgetall(dictionaryKey);
+
+        for (Map.Entry<String, String> entry : stored.entrySet()) {
+            put(entry.getKey(), Integer.parseInt(entry.getValue()));
+        }
+
+        plugin.debug("Loaded " + stored.size() + " header dictionary names");
+    }
+
+    private void assign(String name) {
+        connection.async().<Long>eval(ASSIGN_SCRIPT, ScriptOutputType.INTEGER, new String[]{dictionaryKey}, name)
+                .whenComplete((id, ex) -> {
+                    assigning.remove(name);
+
+                    if (ex != null) {
+                        plugin.severe("Failed to assign a header dictionary id to " + name + ": " + ex.getMessage());
+                        return;
+                    }
+
+                    put(name, id.intValue());
+                });
+    }
+
+    private synchronized void put(String name, int id) {
+        String interned = name.intern();
+
+        // Copied so that readers never see a partly updated array
+        String[] updated = Arrays.copyOf(names, Math.max(names.length, id + 1));
+        updated[id] = interned;
+        names = updated;
+        ids.put(interned, id);
+    }
+}
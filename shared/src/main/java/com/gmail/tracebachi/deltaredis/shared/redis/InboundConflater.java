@@ -0,0 +1,107 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import me.loper.scheduler.SchedulerTask;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds received messages of the conflated channels and delivers only the
+ * newest one per conflation key once per interval
+ * <p>The conflation key of a message is its sending server, its channel
+ * and its first message part.</p>
+ */
+public class InboundConflater implements PluginSource {
+    private final ConcurrentHashMap<String, List<String>> latest = new ConcurrentHashMap<>();
+    private final LongAdder replaced = new LongAdder();
+
+    private DeltaRedisPlugin plugin;
+    private SchedulerTask drainTask;
+
+    public InboundConflater(DeltaRedisPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void register() {
+        long interval = plugin.getDeltaRedisConfig().conflationInterval;
+        drainTask = plugin.getScheduler().asyncRepeating(this::drain, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void unregister() {
+        if (drainTask != null) {
+            drainTask.cancel();
+            drainTask = null;
+        }
+
+        latest.clear();
+    }
+
+    @Override
+    public void shutdown() {
+        unregister();
+        plugin = null;
+    }
+
+    /**
+     * Holds the message if its channel is conflated
+     *
+     * @param publishedMessageParts Complete message, starting with the sending server and channel
+     * @return True if the message is held for the next drain or false if
+     * it should be delivered right away
+     */
+    public boolean offer(List<String> publishedMessageParts) {
+        String channel = publishedMessageParts.get(1);
+
+        if (!plugin.getDeltaRedisConfig().conflatedChannels.contains(channel)) {
+            return false;
+        }
+
+        String key = publishedMessageParts.get(0) + ':' + channel + ':' +
+                (publishedMessageParts.size() > 2 ? publishedMessageParts.get(2) : "");
+
+        if (latest.put(key, publishedMessageParts) != null) {
+            replaced.increment();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Number of received messages replaced by a newer one before delivery
+     */
+    public long getReplacedCount() {
+        return replaced.sum();
+    }
+
+    private void drain() {
+        for (String key : latest.keySet()) {
+            List<String> publishedMessageParts = latest.remove(key);
+
+            if (publishedMessageParts != null) {
+                plugin.onRedisMessageEvent(publishedMessageParts);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.metrics.InboundMetrics;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands received frames from the Redis event loop to a fixed number of
+ * dispatch threads, which decode them and call the listeners
+ * <p>Frames are spread over the threads by a key that the frames of one
+ * sender share. Those frames are served by the same thread, so they are
+ * still handled in the order Redis delivered them, which the stream chunks
+ * rely on. A slow listener only holds up the senders of its thread and never
+ * the event loop that also reads the replies to commands.</p>
+ * <p>Each thread queues a bounded number of frames. Frames arriving while
+ * the queue is full are dropped, as the event loop must not wait.</p>
+ */
+public class InboundDispatcher implements PluginSource {
+    private final InboundMetrics metrics = new InboundMetrics();
+    private final SequenceTracker sequenceTracker = new SequenceTracker();
+
+    private DeltaRedisPlugin plugin;
+    private volatile ThreadPoolExecutor[] lanes;
+
+    public InboundDispatcher(DeltaRedisPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void register() {
+        DeltaRedisConfig config = plugin.getDeltaRedisConfig();
+        ThreadPoolExecutor[] created = new ThreadPoolExecutor[config.inboundThreads];
+
+        for (int i = 0; i < created.length; i++) {
+            String threadName = "DeltaRedis Inbound #" + (i + 1);
+
+            created[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(config.inboundQueueCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        lanes = created;
+    }
+
+    @Override
+    public void unregister() {
+        ThreadPoolExecutor[] current = lanes;
+
+        if (current == null) {
+            return;
+        }
+
+        // Frames arriving from now on are not counted as dropped
+        lanes = null;
+
+        for (ThreadPoolExecutor lane : current) {
+            lane.shutdown();
+        }
+
+        for (ThreadPoolExecutor lane : current) {
+            try {
+                if (!lane.awaitTermination(1, TimeUnit.SECONDS)) {
+                    lane.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        unregister();
+        plugin = null;
+    }
+
+    /**
+     * Queues a received frame on the thread of its key
+     *
+     * @param key  Key of the frames that must be handled in order, such as
+     *             the Redis channel they were received on
+     * @param task Handling of the frame
+     * @return True if the frame was queued or false if it was dropped
+     */
+    public boolean dispatch(String key, Runnable task) {
+        ThreadPoolExecutor[] current = lanes;
+
+        if (current == null) {
+            return false;
+        }
+
+        long queuedAt = System.nanoTime();
+
+        try {
+            current[Math.floorMod(key.hashCode(), current.length)].execute(() -> {
+                metrics.recordDispatched(System.nanoTime() - queuedAt);
+                task.run();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            metrics.recordRejected();
+            return false;
+        }
+    }
+
+    /**
+     * @return Number of frames waiting for a dispatch thread
+     */
+    public int getQueuedCount() {
+        ThreadPoolExecutor[] current = lanes;
+        int result = 0;
+
+        if (current != null) {
+            for (ThreadPoolExecutor lane : current) {
+                result += lane.getQueue().size();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return Counters for the dispatched and dropped frames
+     */
+    public InboundMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Tracker of the sequence numbers of the received frames
+     */
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+}
@@ -0,0 +1,672 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.metrics.FlushMetrics;
+import com.gmail.tracebachi.deltaredis.shared.metrics.OutboundQueueMetrics;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import com.lambdaworks.redis.api.StatefulRedisConnection;
+import com.lambdaworks.redis.api.async.RedisAsyncCommands;
+import me.loper.scheduler.SchedulerTask;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects publishes from any thread and writes them to Redis as one
+ * pipelined flush per interval instead of one round trip per publish.
+ * <p>Flushes are driven by an async timer rather than by the end of a server
+ * tick, as the proxy has no ticks and the default interval of 50
+ * milliseconds already bounds the delay to about one tick.</p>
+ * <p>The connection handed to the batcher must not be shared, as auto-flush
+ * is turned off for it.</p>
+ * <p>Publishes count against the queue capacity until Redis answers them,
+ * so the memory held stays bounded while Redis is slow or unreachable.
+ * Once full, the {@link OverflowPolicy} of the message channel applies.</p>
+ * <p>When sequence numbers are enabled, each frame is stamped with the next
+ * number of its Redis channel as it is written, so the numbers follow the
+ * order in which Redis receives the frames.</p>
+ */
+public class OutboundBatcher implements PluginSource {
+    /**
+     * Number of receivers a publish completes with if it was dropped by the
+     * {@link OverflowPolicy} or replaced by a newer conflated publish, so
+     * that it can be told apart from a publish no subscriber received
+     */
+    public static final long DROPPED = -1;
+
+    private final ConcurrentLinkedQueue<PendingPublish> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<String, ConflatedPublish> conflated = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger outstandingCount = new AtomicInteger();
+    private final AtomicInteger blockedThreads = new AtomicInteger();
+    private final AtomicBoolean earlyFlushScheduled = new AtomicBoolean();
+    private final AtomicBoolean overloaded = new AtomicBoolean();
+    private final FlushMetrics metrics = new FlushMetrics();
+    private final OutboundQueueMetrics queueMetrics = new OutboundQueueMetrics();
+    private final Object flushLock = new Object();
+    private final Object spaceLock = new Object();
+
+    // Only used while holding the flush lock
+    private final Map<String, long[]> sequences = new HashMap<>();
+    private final long session = ThreadLocalRandom.current().nextLong();
+
+    private StatefulRedisConnection<String, byte[]> connection;
+    private DeltaRedisPlugin plugin;
+    private SchedulerTask flushTask;
+    private volatile boolean stopped;
+
+    public OutboundBatcher(StatefulRedisConnection<String, byte[]> connection, DeltaRedisPlugin plugin) {
+        this.connection = connection;
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void register() {
+        connection.setAutoFlushCommands(false);
+
+        long interval = plugin.getDeltaRedisConfig().publishFlushInterval;
+        flushTask = plugin.getScheduler().asyncRepeating(this::flush, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void unregister() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+
+        flush();
+    }
+
+    @Override
+    public void shutdown() {
+        flush();
+
+        synchronized (flushLock) {
+            stopped = true;
+            failPending();
+            connection = null;
+        }
+
+        plugin = null;
+    }
+
+    /**
+     * Queues a publish for the next flush
+     *
+     * @param channel      Channel of the message, used to pick the {@link OverflowPolicy}
+     * @param redisChannel Complete Redis channel to publish to
+     * @param message      Encoded frame
+     * @return Future completed with the number of receivers once the batch is flushed,
+     * with {@link #DROPPED} if the publish was dropped or exceptionally if it was rejected
+     */
+    public CompletableFuture<Long> enqueue(String channel, String redisChannel, byte[] message) {
+        SinglePublish pending = new SinglePublish(channel, redisChannel, message);
+        add(pending);
+        return pending.future;
+    }
+
+    /**
+     * Queues a publish that replaces the pending publish with the same
+     * conflation key, if that one was not written yet
+     * <p>The future of a replaced publish completes with {@link #DROPPED}.</p>
+     *
+     * @param channel       Channel of the message, used to pick the {@link OverflowPolicy}
+     * @param conflationKey Key of the value the message carries
+     * @param redisChannel  Complete Redis channel to publish to
+     * @param message       Encoded frame
+     * @return Future completed with the number of receivers once the batch is flushed
+     */
+    public CompletableFuture<Long> enqueueConflated(String channel, String conflationKey,
+                                                    String redisChannel, byte[] message) {
+        while (true) {
+            ConflatedPublish pending = conflated.get(conflationKey);
+
+            if (pending != null) {
+                CompletableFuture<Long> future = pending.replace(message);
+
+                if (future != null) {
+                    queueMetrics.recordConflated();
+                    return future;
+                }
+
+                // Already written, so a new publish has to be queued
+                conflated.remove(conflationKey, pending);
+                continue;
+            }
+
+            ConflatedPublish created = new ConflatedPublish(channel, conflationKey, redisChannel, message);
+
+            if (conflated.putIfAbsent(conflationKey, created) == null) {
+                CompletableFuture<Long> future = created.current;
+                add(created);
+                return future;
+            }
+        }
+    }
+
+    /**
+     * Queues the same frame for several channels so that all of them are
+     * written in the same flush
+     *
+     * @param channel       Channel of the message, used to pick the {@link OverflowPolicy}
+     * @param redisChannels Complete Redis channels to publish to
+     * @param message       Encoded frame shared by every publish
+     * @return Future completed with the number of receivers per channel,
+     * in the order of the given channels, or {@link #DROPPED} for each one
+     * if the publish was dropped
+     */
+    public CompletableFuture<long[]> enqueueAll(String channel, List<String> redisChannels, byte[] message) {
+        if (redisChannels.isEmpty()) {
+            return CompletableFuture.completedFuture(new long[0]);
+        }
+
+        MultiPublish pending = new MultiPublish(channel, redisChannels.toArray(new String[0]), message);
+        add(pending);
+        return pending.future;
+    }
+
+    /**
+     * Writes every queued publish to the connection and flushes them
+     * to Redis in a single write
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            earlyFlushScheduled.set(false);
+
+            if (stopped) {
+                failPending();
+                return;
+            }
+
+            PendingPublish first = queue.poll();
+
+            if (first == null) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            long queueLatency = start - first.enqueuedAt;
+            RedisAsyncCommands<String, byte[]> commands = connection.async();
+
+            // Only drain what was queued when the flush started, so a producer
+            // that keeps publishing cannot hold the flush open indefinitely
+            int limit = Math.max(pendingCount.get(), 1);
+            int batchSize = 0;
+
+            for (PendingPublish pending = first; pending != null; pending = queue.poll()) {
+                pending.write(commands);
+                batchSize += pending.size;
+
+                if (batchSize >= limit) {
+                    break;
+                }
+            }
+
+            pendingCount.addAndGet(-batchSize);
+            connection.flushCommands();
+
+            long flushNanos = System.nanoTime() - start;
+            metrics.record(batchSize, queueLatency, flushNanos);
+
+            plugin.debug("Flushed " + batchSize + " publishes in " +
+                    TimeUnit.NANOSECONDS.toMicros(flushNanos) + "us");
+        }
+    }
+
+    /**
+     * @return Number of publishes waiting for the next flush
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * @return Number of publishes queued or written but not yet answered by Redis
+     */
+    public int getOutstandingCount() {
+        return outstandingCount.get();
+    }
+
+    /**
+     * @return Number of outstanding publishes the queue holds before the
+     * {@link OverflowPolicy} applies
+     */
+    public int getCapacity() {
+        return plugin.getDeltaRedisConfig().publishQueueCapacity;
+    }
+
+    /**
+     * @return True if the queue was last found full and has not drained
+     * below half of its capacity since
+     */
+    public boolean isOverloaded() {
+        return overloaded.get();
+    }
+
+    /**
+     * @return Counters for the flushes performed so far
+     */
+    public FlushMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Counters for the publishes dropped, rejected or blocked by a full queue
+     */
+    public OutboundQueueMetrics getQueueMetrics() {
+        return queueMetrics;
+    }
+
+    /**
+     * @return The frame stamped with the next sequence number of the Redis
+     * channel, or the frame itself if sequence numbers are disabled
+     */
+    private byte[] stamp(String redisChannel, byte[] message) {
+        if (!plugin.getDeltaRedisConfig().sequenceNumbers) {
+            return message;
+        }
+
+        long[] next = sequences.computeIfAbsent(redisChannel, key -> new long[1]);
+        return plugin.getFrameCodec().stamp(message, session, next[0]++);
+    }
+
+    private void add(PendingPublish pending) {
+        DeltaRedisPlugin plugin = this.plugin;
+
+        if (stopped || plugin == null) {
+            pending.fail(new RejectedExecutionException("Outbound batcher is shut down"));
+            return;
+        }
+
+        DeltaRedisConfig config = plugin.getDeltaRedisConfig();
+
+        if (!tryReserve(pending.size, config.publishQueueCapacity) && !handleOverflow(pending, config)) {
+            return;
+        }
+
+        pending.future().whenComplete((result, ex) -> release(pending.size));
+        queue.add(pending);
+        int pendingNow = pendingCount.addAndGet(pending.size);
+
+        // Nothing flushes a publish queued while the batcher was shutting down
+        if (stopped) {
+            synchronized (flushLock) {
+                failPending();
+            }
+            return;
+        }
+
+        if (pendingNow >= config.publishMaxBatchSize &&
+                earlyFlushScheduled.compareAndSet(false, true)) {
+            plugin.getScheduler().executeAsync(this::flush);
+        }
+    }
+
+    /**
+     * Fails every queued publish, while holding the flush lock
+     */
+    private void failPending() {
+        RejectedExecutionException ex = new RejectedExecutionException("Outbound batcher is shut down");
+
+        for (PendingPublish pending = queue.poll(); pending != null; pending = queue.poll()) {
+            pendingCount.addAndGet(-pending.size);
+            pending.fail(ex);
+        }
+    }
+
+    private boolean tryReserve(int publishCount, int capacity) {
+        while (true) {
+            int current = outstandingCount.get();
+
+            // A group larger than the capacity is still let through on an empty queue
+            if (current > 0 && current + publishCount > capacity) {
+                return false;
+            }
+
+            if (outstandingCount.compareAndSet(current, current + publishCount)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(int publishCount) {
+        int remaining = outstandingCount.addAndGet(-publishCount);
+        DeltaRedisPlugin plugin = this.plugin;
+
+        // Redis may still answer publishes after the batcher was shut down
+        if (plugin != null && remaining <= getCapacity() / 2 && overloaded.compareAndSet(true, false)) {
+            plugin.info("Outbound queue recovered with " + remaining + " outstanding publishes");
+        }
+
+        if (blockedThreads.get() > 0) {
+            synchronized (spaceLock) {
+                spaceLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Applies the overflow policy of the publish channel
+     *
+     * @return True if room was made for the publish or false if it was completed
+     */
+    private boolean handleOverflow(PendingPublish pending, DeltaRedisConfig config) {
+        OverflowPolicy policy = config.channelOverflowPolicies.getOrDefault(pending.channel, config.overflowPolicy);
+
+        if (overloaded.compareAndSet(false, true)) {
+            plugin.severe("Outbound queue is full with " + outstandingCount.get() +
+                    " outstanding publishes, applying " + policy + " to channel " + pending.channel);
+        }
+
+        switch (policy) {
+            case BLOCK:
+                // The server thread never waits, so the publish fails there instead
+                if (!plugin.isServerThread() && awaitRoom(pending.size, config)) {
+                    return true;
+                }
+
+                queueMetrics.recordRejected(pending.size);
+                pending.fail(new RejectedExecutionException(
+                        "Timed out waiting for room in the outbound queue"));
+                return false;
+            case DROP_OLDEST:
+                for (PendingPublish oldest = queue.poll(); oldest != null; oldest = queue.poll()) {
+                    pendingCount.addAndGet(-oldest.size);
+                    queueMetrics.recordDropped(oldest.channel, oldest.size);
+                    oldest.drop();
+
+                    if (tryReserve(pending.size, config.publishQueueCapacity)) {
+                        return true;
+                    }
+                }
+
+                // Everything outstanding is already written, so the new publish goes
+                queueMetrics.recordDropped(pending.channel, pending.size);
+                pending.drop();
+                return false;
+            case DROP_NEWEST:
+                queueMetrics.recordDropped(pending.channel, pending.size);
+                pending.drop();
+                return false;
+            case FAIL:
+            default:
+                queueMetrics.recordRejected(pending.size);
+                pending.fail(new RejectedExecutionException(
+                        "Outbound queue is full (capacity " + config.publishQueueCapacity + ")"));
+                return false;
+        }
+    }
+
+    private boolean awaitRoom(int publishCount, DeltaRedisConfig config) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.publishBlockTimeout);
+
+        blockedThreads.incrementAndGet();
+
+        try {
+            synchronized (spaceLock) {
+                while (!tryReserve(publishCount, config.publishQueueCapacity)) {
+                    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+                    if (remainingMillis <= 0) {
+                        return false;
+                    }
+
+                    spaceLock.wait(remainingMillis);
+                }
+
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            blockedThreads.decrementAndGet();
+            queueMetrics.recordBlocked(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Publish whose message can be replaced until it is written
+     */
+    private final class ConflatedPublish extends PendingPublish {
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+        private final String conflationKey;
+        private final String redisChannel;
+        private CompletableFuture<Long> current = new CompletableFuture<>();
+        private byte[] message;
+        private boolean written;
+
+        private ConflatedPublish(String channel, String conflationKey, String redisChannel, byte[] message) {
+            super(channel, 1);
+            this.conflationKey = conflationKey;
+            this.redisChannel = redisChannel;
+            this.message = message;
+        }
+
+        /**
+         * @return Future of the new message or null if the publish was already written
+         */
+        private synchronized CompletableFuture<Long> replace(byte[] newMessage) {
+            if (written) {
+                return null;
+            }
+
+            current.complete(DROPPED);
+            current = new CompletableFuture<>();
+            message = newMessage;
+            return current;
+        }
+
+        @Override
+        void write(RedisAsyncCommands<String, byte[]> commands) {
+            CompletableFuture<Long> future;
+            byte[] latest;
+
+            synchronized (this) {
+                written = true;
+                future = current;
+                latest = message;
+            }
+
+            conflated.remove(conflationKey, this);
+
+            try {
+                commands.publish(redisChannel, stamp(redisChannel, latest)).whenComplete((receivers, ex) -> {
+                    if (ex != null) {
+                        future.completeExceptionally(ex);
+                        done.completeExceptionally(ex);
+                    } else {
+                        future.complete(receivers);
+                        done.complete(receivers);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+                done.completeExceptionally(ex);
+            }
+        }
+
+        @Override
+        void drop() {
+            synchronized (this) {
+                written = true;
+                current.complete(DROPPED);
+            }
+
+            conflated.remove(conflationKey, this);
+            done.complete(DROPPED);
+        }
+
+        @Override
+        void fail(Throwable ex) {
+            synchronized (this) {
+                written = true;
+                current.completeExceptionally(ex);
+            }
+
+            conflated.remove(conflationKey, this);
+            done.completeExceptionally(ex);
+        }
+
+        /**
+         * @return Future of the queue entry, which outlives the replaced messages
+         */
+        @Override
+        CompletableFuture<?> future() {
+            return done;
+        }
+    }
+
+    private abstract static class PendingPublish {
+        final long enqueuedAt = System.nanoTime();
+        final String channel;
+        final int size;
+
+        PendingPublish(String channel, int size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * Writes the publish commands without flushing them
+         */
+        abstract void write(RedisAsyncCommands<String, byte[]> commands);
+
+        /**
+         * Completes the publish with {@link #DROPPED}
+         */
+        abstract void drop();
+
+        abstract void fail(Throwable ex);
+
+        abstract CompletableFuture<?> future();
+    }
+
+    private final class SinglePublish extends PendingPublish {
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private final String redisChannel;
+        private final byte[] message;
+
+        private SinglePublish(String channel, String redisChannel, byte[] message) {
+            super(channel, 1);
+            this.redisChannel = redisChannel;
+            this.message = message;
+        }
+
+        @Override
+        void write(RedisAsyncCommands<String, byte[]> commands) {
+            try {
+                commands.publish(redisChannel, stamp(redisChannel, message)).whenComplete((receivers, ex) -> {
+                    if (ex != null) {
+                        future.completeExceptionally(ex);
+                    } else {
+                        future.complete(receivers);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+            }
+        }
+
+        @Override
+        void drop() {
+            future.complete(DROPPED);
+        }
+
+        @Override
+        void fail(Throwable ex) {
+            future.completeExceptionally(ex);
+        }
+
+        @Override
+        CompletableFuture<?> future() {
+            return future;
+        }
+    }
+
+    private final class MultiPublish extends PendingPublish {
+        private final CompletableFuture<long[]> future = new CompletableFuture<>();
+        private final String[] redisChannels;
+        private final byte[] message;
+
+        private MultiPublish(String channel, String[] redisChannels, byte[] message) {
+            super(channel, redisChannels.length);
+            this.redisChannels = redisChannels;
+            this.message = message;
+        }
+
+        @Override
+        void write(RedisAsyncCommands<String, byte[]> commands) {
+            long[] receivers = new long[redisChannels.length];
+            AtomicInteger remaining = new AtomicInteger(redisChannels.length);
+
+            try {
+                for (int i = 0; i < redisChannels.length; i++) {
+                    int index = i;
+                    byte[] stamped = stamp(redisChannels[i], message);
+
+                    commands.publish(redisChannels[i], stamped).whenComplete((count, ex) -> {
+                        if (ex != null) {
+                            future.completeExceptionally(ex);
+                            return;
+                        }
+
+                        receivers[index] = count;
+
+                        if (remaining.decrementAndGet() == 0) {
+                            future.complete(receivers);
+                        }
+                    });
+                }
+            } catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+            }
+        }
+
+        @Override
+        void drop() {
+            long[] receivers = new long[redisChannels.length];
+            Arrays.fill(receivers, DROPPED);
+            future.complete(receivers);
+        }
+
+        @Override
+        void fail(Throwable ex) {
+            future.completeExceptionally(ex);
+        }
+
+        @Override
+        CompletableFuture<?> future() {
+            return future;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+/**
+ * What the {@link OutboundBatcher} does with a publish once its queue is full
+ */
+public enum OverflowPolicy {
+    /**
+     * Waits for room in the queue up to the configured block timeout,
+     * then fails the publish. On the server thread, fails the publish
+     * without waiting.
+     */
+    BLOCK,
+
+    /**
+     * Drops the oldest queued publish to make room for the new one
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drops the new publish
+     */
+    DROP_NEWEST,
+
+    /**
+     * Fails the future of the new publish with a
+     * {@link java.util.concurrent.RejectedExecutionException}
+     */
+    FAIL
+}
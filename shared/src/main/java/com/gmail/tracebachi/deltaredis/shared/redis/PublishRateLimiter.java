@@ -0,0 +1,295 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Limits the rate of publishes per channel and per calling plugin, so that
+ * one noisy producer can not flood Redis and the receiving servers
+ * <p>A publish takes a token from the bucket of its channel and from the
+ * bucket of the plugin that made it. If either has to wait, the
+ * {@link RateLimitPolicy} of the bucket with the longest wait applies.</p>
+ * <p>The calling plugin is only looked up if plugin limits are configured,
+ * as that walks the stack of the caller. The plugin of each calling class is
+ * resolved once and cached by class name.</p>
+ */
+public class PublishRateLimiter implements PluginSource {
+    private static final String DELTA_REDIS_PACKAGE = "com.gmail.tracebachi.deltaredis.";
+    private static final String NO_PLUGIN = "";
+
+    private final Map<String, TokenBucket> channelBuckets;
+    private final Map<String, TokenBucket> pluginBuckets;
+    private final Set<DelayedPublish<?>> delayed = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, DelayedPublish<?>> conflatable = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> pluginNames = new ConcurrentHashMap<>();
+
+    private DeltaRedisPlugin plugin;
+
+    public PublishRateLimiter(DeltaRedisPlugin plugin) {
+        DeltaRedisConfig config = plugin.getDeltaRedisConfig();
+
+        this.plugin = plugin;
+        this.channelBuckets = createBuckets(config.channelRateLimits);
+        this.pluginBuckets = createBuckets(config.pluginRateLimits);
+    }
+
+    @Override
+    public void register() {
+    }
+
+    @Override
+    public void unregister() {
+    }
+
+    @Override
+    public void shutdown() {
+        RejectedExecutionException cause = new RejectedExecutionException("Publish rate limiter is shut down");
+
+        for (DelayedPublish<?> publish : delayed) {
+            publish.cancel(cause);
+        }
+
+        delayed.clear();
+        conflatable.clear();
+        pluginNames.clear();
+        plugin = null;
+    }
+
+    /**
+     * Runs the publish once the rate limits of its channel and calling
+     * plugin allow it
+     *
+     * @param channel       Channel of the message
+     * @param conflationKey Key under which a delayed publish of a
+     *                      {@link RateLimitPolicy#CONFLATE} limit is replaced
+     * @param publish       Publish to run
+     * @return Future completed with the result of the publish, which fails
+     * with a {@link RejectedExecutionException} if the limit rejected it
+     */
+    public <T> CompletableFuture<T> submit(String channel, String conflationKey,
+                                           Supplier<CompletableFuture<T>> publish) {
+        TokenBucket channelBucket = channelBuckets.get(channel);
+        TokenBucket pluginBucket = pluginBuckets.isEmpty() ? null : pluginBuckets.get(findCallingPlugin());
+
+        if (channelBucket == null && pluginBucket == null) {
+            return publish.get();
+        }
+
+        long channelWait = channelBucket != null ? channelBucket.reserve() : 0;
+        long pluginWait = pluginBucket != null ? pluginBucket.reserve() : 0;
+        long wait = Math.max(channelWait, pluginWait);
+
+        if (wait == 0) {
+            recordAdmitted(channelBucket, pluginBucket);
+            return publish.get();
+        }
+
+        TokenBucket limiting = channelWait >= pluginWait ? channelBucket : pluginBucket;
+        RateLimit limit = limiting.getLimit();
+
+        if (limit.policy == RateLimitPolicy.CONFLATE) {
+            CompletableFuture<T> future = replaceDelayed(conflationKey, publish);
+
+            if (future != null) {
+                refund(channelBucket, pluginBucket);
+                limiting.recordConflated();
+                return future;
+            }
+        }
+
+        if (limit.policy == RateLimitPolicy.REJECT || wait > TimeUnit.MILLISECONDS.toNanos(limit.maxDelay)) {
+            refund(channelBucket, pluginBucket);
+            limiting.recordRejected();
+
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(new RejectedExecutionException(
+                    "Rate limit of " + limit.permitsPerSecond + " publishes per second exceeded on " + channel));
+            return future;
+        }
+
+        limiting.recordDelayed();
+
+        DelayedPublish<T> created = new DelayedPublish<>(publish);
+        boolean conflate = limit.policy == RateLimitPolicy.CONFLATE;
+
+        delayed.add(created);
+
+        if (conflate) {
+            conflatable.put(conflationKey, created);
+        }
+
+        plugin.getScheduler().asyncLater(() -> {
+            if (conflate) {
+                conflatable.remove(conflationKey, created);
+            }
+
+            delayed.remove(created);
+            created.run();
+        }, wait, TimeUnit.NANOSECONDS);
+
+        return created.future;
+    }
+
+    /**
+     * @return Buckets of the channels with a rate limit, by channel
+     */
+    public Map<String, TokenBucket> getChannelBuckets() {
+        return channelBuckets;
+    }
+
+    /**
+     * @return Buckets of the plugins with a rate limit, by plugin name
+     */
+    public Map<String, TokenBucket> getPluginBuckets() {
+        return pluginBuckets;
+    }
+
+    /**
+     * @return Number of publishes currently delayed by a rate limit
+     */
+    public int getDelayedCount() {
+        return delayed.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> replaceDelayed(String conflationKey, Supplier<CompletableFuture<T>> publish) {
+        DelayedPublish<T> existing = (DelayedPublish<T>) conflatable.get(conflationKey);
+        return existing != null && existing.replace(publish) ? existing.future : null;
+    }
+
+    /**
+     * @return Name of the plugin whose code made the current call, or an
+     * empty string if there is none
+     */
+    private String findCallingPlugin() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            String className = element.getClassName();
+
+            if (className.startsWith(DELTA_REDIS_PACKAGE) || className.startsWith("java.")
+                    || className.startsWith("sun.") || className.startsWith("jdk.")) {
+                continue;
+            }
+
+            String name = pluginNames.get(className);
+
+            if (name == null) {
+                name = plugin.getPluginName(className);
+                name = name != null ? name : NO_PLUGIN;
+                pluginNames.put(className, name);
+            }
+
+            return name;
+        }
+
+        return NO_PLUGIN;
+    }
+
+    private static void recordAdmitted(TokenBucket channelBucket, TokenBucket pluginBucket) {
+        if (channelBucket != null) {
+            channelBucket.recordAdmitted();
+        }
+
+        if (pluginBucket != null) {
+            pluginBucket.recordAdmitted();
+        }
+    }
+
+    private static void refund(TokenBucket channelBucket, TokenBucket pluginBucket) {
+        if (channelBucket != null) {
+            channelBucket.refund();
+        }
+
+        if (pluginBucket != null) {
+            pluginBucket.refund();
+        }
+    }
+
+    private static Map<String, TokenBucket> createBuckets(Map<String, RateLimit> limits) {
+        Map<String, TokenBucket> result = new HashMap<>(limits.size());
+        limits.forEach((key, limit) -> result.put(key, new TokenBucket(limit)));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Publish waiting for its rate limit, whose message can be replaced
+     * until it runs
+     */
+    private static class DelayedPublish<T> {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private Supplier<CompletableFuture<T>> publish;
+
+        DelayedPublish(Supplier<CompletableFuture<T>> publish) {
+            this.publish = publish;
+        }
+
+        synchronized boolean replace(Supplier<CompletableFuture<T>> newer) {
+            if (publish == null) {
+                return false;
+            }
+
+            publish = newer;
+            return true;
+        }
+
+        void run() {
+            Supplier<CompletableFuture<T>> current;
+
+            synchronized (this) {
+                current = publish;
+                publish = null;
+            }
+
+            if (current == null) {
+                return;
+            }
+
+            try {
+                current.get().whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        future.completeExceptionally(ex);
+                    } else {
+                        future.complete(result);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+            }
+        }
+
+        void cancel(RuntimeException cause) {
+            synchronized (this) {
+                publish = null;
+            }
+
+            future.completeExceptionally(cause);
+        }
+    }
+
+}
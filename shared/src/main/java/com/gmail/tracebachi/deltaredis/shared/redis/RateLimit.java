@@ -0,0 +1,52 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+/**
+ * Token bucket limit for the publishes of a channel or a plugin
+ * <p>The bucket holds up to {@link #burst} tokens and gains
+ * {@link #permitsPerSecond} tokens per second. Each publish takes one.</p>
+ */
+public class RateLimit {
+    /**
+     * Publishes per second allowed on average
+     */
+    public final double permitsPerSecond;
+
+    /**
+     * Publishes allowed at once after a quiet period
+     */
+    public final int burst;
+
+    /**
+     * What happens to a publish once the bucket is empty
+     */
+    public final RateLimitPolicy policy;
+
+    /**
+     * Upper bound in milliseconds for the delay of a publish by the
+     * {@link RateLimitPolicy#DELAY} and {@link RateLimitPolicy#CONFLATE} policies
+     */
+    public final long maxDelay;
+
+    public RateLimit(double permitsPerSecond, int burst, RateLimitPolicy policy, long maxDelay) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.policy = policy;
+        this.maxDelay = maxDelay;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+/**
+ * What the {@link PublishRateLimiter} does with a publish that exceeds its
+ * rate limit
+ */
+public enum RateLimitPolicy {
+    /**
+     * Fails the publish
+     */
+    REJECT,
+
+    /**
+     * Publishes the message once the limit allows it, or fails the publish
+     * if that is further away than the max delay
+     */
+    DELAY,
+
+    /**
+     * Delays the publish like {@link #DELAY}, but a newer message with the
+     * same destination, channel and first message part replaces a delayed
+     * one instead of being delayed as well
+     */
+    CONFLATE
+}
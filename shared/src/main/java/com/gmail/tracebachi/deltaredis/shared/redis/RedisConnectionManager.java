@@ -7,18 +7,22 @@ import com.lambdaworks.redis.pubsub.StatefulRedisPubSubConnection;
 
 public class RedisConnectionManager implements PluginSource {
 
-    private StatefulRedisPubSubConnection<String, String> pubSub;
+    private StatefulRedisPubSubConnection<String, byte[]> pubSub;
     private StatefulRedisConnection<String, String> connection;
+    private StatefulRedisConnection<String, byte[]> publishConnection;
+    private StatefulRedisConnection<String, byte[]> dataConnection;
 
     private final RedisClient client;
+    private final BlockingCallDetector blockingCallDetector;
 
-    public RedisConnectionManager(RedisClientFactory factory) {
+    public RedisConnectionManager(RedisClientFactory factory, BlockingCallDetector blockingCallDetector) {
         this.client = factory.create();
+        this.blockingCallDetector = blockingCallDetector;
     }
 
-    public StatefulRedisPubSubConnection<String, String> getPubSub() {
+    public StatefulRedisPubSubConnection<String, byte[]> getPubSub() {
         if (null == this.pubSub) {
-            this.pubSub = this.client.connectPubSub();
+            this.pubSub = this.client.connectPubSub(DeltaRedisCodec.INSTANCE);
         }
 
         return this.pubSub;
@@ -26,22 +30,57 @@ public class RedisConnectionManager implements PluginSource {
 
     public StatefulRedisConnection<String, String> getConnection() {
         if (null == this.connection) {
-            this.connection = this.client.connect();
+            this.connection = this.blockingCallDetector.wrap(this.client.connect());
         }
 
         return this.connection;
     }
 
+    /**
+     * @return Connection reserved for the {@link OutboundBatcher}, which
+     * disables auto-flush on it
+     */
+    public StatefulRedisConnection<String, byte[]> getPublishConnection() {
+        if (null == this.publishConnection) {
+            this.publishConnection = this.client.connect(DeltaRedisCodec.INSTANCE);
+        }
+
+        return this.publishConnection;
+    }
+
+    /**
+     * @return Connection for binary values stored in or read from Redis,
+     * such as claim-checked payloads
+     */
+    public StatefulRedisConnection<String, byte[]> getDataConnection() {
+        if (null == this.dataConnection) {
+            this.dataConnection = this.blockingCallDetector.wrap(this.client.connect(DeltaRedisCodec.INSTANCE));
+        }
+
+        return this.dataConnection;
+    }
+
+    /**
+     * @return Detector that reports blocking calls made on the server thread
+     */
+    public BlockingCallDetector getBlockingCallDetector() {
+        return blockingCallDetector;
+    }
+
     @Override
     public void register() {
         this.getPubSub();
         this.getConnection();
+        this.getPublishConnection();
+        this.getDataConnection();
     }
 
     @Override
     public void unregister() {
         this.getPubSub().close();
         this.getConnection().close();
+        this.getPublishConnection().close();
+        this.getDataConnection().close();
     }
 
     @Override
@@ -54,6 +93,14 @@ public class RedisConnectionManager implements PluginSource {
             this.connection.close();
         }
 
+        if (this.publishConnection.isOpen()) {
+            this.publishConnection.close();
+        }
+
+        if (this.dataConnection.isOpen()) {
+            this.dataConnection.close();
+        }
+
         this.client.getResources().shutdown();
         this.client.shutdown();
     }
@@ -0,0 +1,180 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import com.gmail.tracebachi.deltaredis.shared.EscapeAndDelimiterUtil;
+import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import com.lambdaworks.redis.ScriptOutputType;
+import com.lambdaworks.redis.api.StatefulRedisConnection;
+import me.loper.scheduler.SchedulerTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stores messages to publish later in a sorted set of the proxy, scored by
+ * the time they are due, so they survive a restart of the scheduling server.
+ * <p>Servers with the poller enabled claim due messages in batches with a
+ * Lua script that reads and removes them atomically, so a message is
+ * published once even if several pollers run.</p>
+ */
+public class ScheduledPublisher implements PluginSource {
+    private static final String CLAIM_SCRIPT =
+            "local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) " +
+            "if #due > 0 then redis.call('ZREM', KEYS[1], unpack(due)) end " +
+            "return due";
+
+    private final String scheduledKey;
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    private StatefulRedisConnection<String, String> connection;
+    private DeltaRedisCommandSender sender;
+    private DeltaRedisPlugin plugin;
+    private SchedulerTask pollTask;
+
+    public ScheduledPublisher(StatefulRedisConnection<String, String> connection, DeltaRedisCommandSender sender,
+                              DeltaRedisPlugin plugin) {
+        this.connection = connection;
+        this.sender = sender;
+        this.plugin = plugin;
+        this.scheduledKey = plugin.getProxyName() + ":scheduled";
+    }
+
+    @Override
+    public void register() {
+        DeltaRedisConfig config = plugin.getDeltaRedisConfig();
+
+        if (config.scheduledPollerEnabled) {
+            pollTask = plugin.getScheduler().asyncRepeating(
+                    this::poll, config.scheduledPollInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void unregister() {
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        unregister();
+
+        connection = null;
+        sender = null;
+        plugin = null;
+    }
+
+    /**
+     * Stores a message to be published once the timestamp has passed
+     * <p>The message is published by the next poll after the timestamp,
+     * as measured by the clock of the polling server.</p>
+     *
+     * @param timestamp     Epoch milliseconds from which the message is due
+     * @param dest          Server name that message should go to
+     * @param channel       Custom channel name for the message
+     * @param sendingServer Server to publish the message as
+     * @param messageParts  String message parts to send
+     * @return Future completed once the message is stored
+     */
+    public CompletableFuture<Void> schedule(long timestamp, String dest, String channel,
+                                            String sendingServer, List<String> messageParts) {
+        List<String> envelope = new ArrayList<>(messageParts.size() + 4);
+
+        // The id keeps identical messages scheduled twice as separate members
+        envelope.add(UUID.randomUUID().toString());
+        envelope.add(dest);
+        envelope.add(sendingServer);
+        envelope.add(channel);
+        envelope.addAll(messageParts);
+
+        String member = EscapeAndDelimiterUtil.DELTA_SEPARATED.escapeAndDelimit(envelope);
+
+        return connection.async().zadd(scheduledKey, timestamp, member)
+                .thenAccept(added -> plugin.debug("Scheduled message on " + channel + " to " + dest + " at " + timestamp))
+                .toCompletableFuture();
+    }
+
+    /**
+     * Claims the messages that are due and publishes them
+     */
+    public void poll() {
+        if (!polling.compareAndSet(false, true)) {
+            return;
+        }
+
+        int batchSize = plugin.getDeltaRedisConfig().scheduledBatchSize;
+        String now = String.valueOf(System.currentTimeMillis());
+
+        // Leave the Redis event loop before publishing, as a full queue may block
+        connection.async().<List<String>>eval(CLAIM_SCRIPT, ScriptOutputType.MULTI,
+                new String[]{scheduledKey}, now, String.valueOf(batchSize))
+                .whenCompleteAsync((claimed, ex) -> {
+                    polling.set(false);
+
+                    if (ex != null) {
+                        plugin.severe("Failed to claim scheduled messages: " + ex.getMessage());
+                        return;
+                    }
+
+                    // Claimed messages are already removed from Redis, so
+                    // one failing message must not lose the rest
+                    for (String member : claimed) {
+                        try {
+                            publishClaimed(member);
+                        } catch (RuntimeException e) {
+                            plugin.severe("Failed to publish scheduled message: " + member);
+                            e.printStackTrace();
+                        }
+                    }
+
+                    // A full batch means more messages may already be due
+                    if (claimed.size() == batchSize) {
+                        plugin.getScheduler().executeAsync(this::poll);
+                    }
+                }, plugin.getScheduler().async());
+    }
+
+    private void publishClaimed(String member) {
+        List<String> envelope = EscapeAndDelimiterUtil.DELTA_SEPARATED.unescapeAndUndelimit(member);
+
+        if (envelope.size() < 4) {
+            plugin.severe("Dropped badly formatted scheduled message: " + member);
+            return;
+        }
+
+        String dest = envelope.get(1);
+        String sendingServer = envelope.get(2);
+        String channel = envelope.get(3);
+        List<String> messageParts = envelope.subList(4, envelope.size());
+
+        sender.publishAs(sendingServer, dest, channel, messageParts).whenComplete((receivers, ex) -> {
+            if (ex != null) {
+                plugin.severe("Failed to publish scheduled message on " + channel + " to " + dest +
+                        ": " + ex.getMessage());
+            }
+        });
+    }
+}
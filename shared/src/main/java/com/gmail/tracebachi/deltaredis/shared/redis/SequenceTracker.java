@@ -0,0 +1,151 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.frame.SequenceStamp;
+import com.gmail.tracebachi.deltaredis.shared.metrics.SequenceMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the sequence numbers of received frames per publisher session and
+ * Redis channel, to count the frames Redis lost, for example while
+ * reconnecting, or delivered more than once or out of order
+ * <p>A restarted publisher starts a new session, which is followed on its
+ * own instead of counting as a gap. The last {@value #WINDOW} numbers of a
+ * session are remembered to tell duplicates from frames arriving late.
+ * Older frames are counted as reordered. Sessions that sent nothing for
+ * a while are forgotten.</p>
+ */
+public class SequenceTracker {
+    private static final int WINDOW = 64;
+    private static final int SWEEP_INTERVAL = 4096;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final Map<String, Sequence> sequences = new HashMap<>();
+    private final SequenceMetrics metrics = new SequenceMetrics();
+    private int untilSweep = SWEEP_INTERVAL;
+
+    /**
+     * Checks the sequence number of a received frame
+     *
+     * @param channel Redis channel the frame was received on
+     * @param stamp   Sequence number of the frame
+     * @return How the frame relates to the ones received before it
+     */
+    public synchronized Outcome track(String channel, SequenceStamp stamp) {
+        long now = System.nanoTime();
+
+        if (--untilSweep == 0) {
+            untilSweep = SWEEP_INTERVAL;
+            sequences.values().removeIf(sequence -> now - sequence.lastSeen > IDLE_NANOS);
+        }
+
+        metrics.recordSequenced();
+
+        String key = Long.toHexString(stamp.getSession()) + ':' + channel;
+        Sequence sequence = sequences.get(key);
+        long number = stamp.getNumber();
+
+        if (sequence == null) {
+            sequences.put(key, new Sequence(number, now));
+            metrics.recordSession();
+            return Outcome.FIRST;
+        }
+
+        sequence.lastSeen = now;
+
+        if (number > sequence.highest) {
+            long distance = number - sequence.highest;
+            sequence.seen = distance >= WINDOW ? 1 : (sequence.seen << distance) | 1;
+            sequence.highest = number;
+
+            if (distance == 1) {
+                return Outcome.IN_ORDER;
+            }
+
+            metrics.recordGap(distance - 1);
+            return Outcome.GAP;
+        }
+
+        long age = sequence.highest - number;
+
+        if (age < WINDOW) {
+            long bit = 1L << age;
+
+            if ((sequence.seen & bit) != 0) {
+                metrics.recordDuplicate();
+                return Outcome.DUPLICATE;
+            }
+
+            sequence.seen |= bit;
+        }
+
+        metrics.recordReordered();
+        return Outcome.REORDERED;
+    }
+
+    /**
+     * @return Counters for the gaps, duplicates and reordered frames found
+     */
+    public SequenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * How a received frame relates to the frames received before it
+     */
+    public enum Outcome {
+        /**
+         * First frame received of its publisher session
+         */
+        FIRST,
+
+        /**
+         * Frame that directly follows the last received one
+         */
+        IN_ORDER,
+
+        /**
+         * Frame that skipped past frames not received yet
+         */
+        GAP,
+
+        /**
+         * Frame that was already received
+         */
+        DUPLICATE,
+
+        /**
+         * Frame that arrived after frames with higher numbers
+         */
+        REORDERED
+    }
+
+    private static class Sequence {
+        private long highest;
+        private long seen = 1;
+        private long lastSeen;
+
+        private Sequence(long highest, long lastSeen) {
+            this.highest = highest;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
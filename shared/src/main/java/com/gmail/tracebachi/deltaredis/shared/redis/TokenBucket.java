@@ -0,0 +1,130 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket of one {@link RateLimit}, with counters for what happened to
+ * the publishes it limited
+ * <p>A publish reserves a token even when none is left, which puts the
+ * bucket in debt. The debt is the time the publish has to wait, so delayed
+ * publishes leave in order and at the configured rate.</p>
+ */
+public class TokenBucket {
+    private final RateLimit limit;
+    private final double tokensPerNano;
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder conflated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public TokenBucket(RateLimit limit) {
+        this.limit = limit;
+        this.tokensPerNano = limit.permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = limit.burst;
+    }
+
+    /**
+     * Takes a token, going into debt if none is left
+     *
+     * @return Nanoseconds until the token is covered, or 0 if it was available
+     */
+    synchronized long reserve() {
+        refill();
+        tokens -= 1;
+
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+    }
+
+    /**
+     * Gives back a token of a publish that was not made after all
+     */
+    synchronized void refund() {
+        tokens = Math.min(limit.burst, tokens + 1);
+    }
+
+    void recordAdmitted() {
+        admitted.increment();
+    }
+
+    void recordDelayed() {
+        delayed.increment();
+    }
+
+    void recordConflated() {
+        conflated.increment();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * @return Limit of the bucket
+     */
+    public RateLimit getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return Tokens currently available, or a negative number for the
+     * tokens owed to delayed publishes
+     */
+    public synchronized double getAvailableTokens() {
+        refill();
+        return tokens;
+    }
+
+    /**
+     * @return Number of publishes that were within the limit
+     */
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return Number of publishes delayed until the limit allowed them
+     */
+    public long getDelayedCount() {
+        return delayed.sum();
+    }
+
+    /**
+     * @return Number of delayed publishes replaced by a newer message
+     */
+    public long getConflatedCount() {
+        return conflated.sum();
+    }
+
+    /**
+     * @return Number of publishes failed because of the limit
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(limit.burst, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Reassembles the chunks of one inbound stream
+ * <p>At most a fixed number of chunks is buffered. The sender waits for
+ * credit before it sends more, which the reader grants in batches as it
+ * takes chunks from the buffer. A sender that does not wait, such as one
+ * with a larger buffer configured, fails the stream once the buffer is full
+ * instead of growing it, as chunks arrive on an inbound thread whose other
+ * messages can not wait.</p>
+ */
+public class ChunkedInputStream extends InputStream {
+    private static final byte[] END = new byte[0];
+    private static final byte[] FAILED = new byte[0];
+
+    private final LinkedBlockingQueue<byte[]> chunks;
+    private final int maxBufferedChunks;
+    private final long timeoutMillis;
+    private final Runnable onClose;
+    private final Runnable beforeWait;
+    private final IntConsumer onRead;
+    private final int creditBatch;
+
+    private volatile long lastActivity = System.nanoTime();
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private volatile boolean complete;
+    private int expectedSequence;
+    private byte[] current;
+    private int position;
+    private int readSinceCredit;
+
+    ChunkedInputStream(int maxBufferedChunks, long timeoutMillis, Runnable onClose) {
+        this(maxBufferedChunks, timeoutMillis, onClose, () -> {}, chunks -> {});
+    }
+
+    /**
+     * @param beforeWait Run before a read waits for the next chunk
+     * @param onRead     Called with the number of chunks read since the last
+     *                   call, to grant the sender credit for them
+     */
+    ChunkedInputStream(int maxBufferedChunks, long timeoutMillis, Runnable onClose, Runnable beforeWait,
+                       IntConsumer onRead) {
+        this.beforeWait = beforeWait;
+        this.onRead = onRead;
+        this.creditBatch = Math.max(1, maxBufferedChunks / 2);
+
+        // One extra slot so the end or failure marker always fits
+        this.chunks = new LinkedBlockingQueue<>(maxBufferedChunks + 1);
+        this.maxBufferedChunks = maxBufferedChunks;
+        this.timeoutMillis = timeoutMillis;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!ensureData()) {
+            return -1;
+        }
+
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null || current == END ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            chunks.clear();
+            onClose.run();
+        }
+    }
+
+    /**
+     * Adds a received chunk
+     * <p>Chunks of a stream are handed over by a single thread in the order
+     * Redis delivered them.</p>
+     *
+     * @param sequence Sequence number of the chunk, starting at 0
+     * @param last     True if this is the last chunk of the stream
+     * @param data     Data of the chunk
+     */
+    void offer(int sequence, boolean last, byte[] data) {
+        if (closed || failure != null) {
+            return;
+        }
+
+        lastActivity = System.nanoTime();
+
+        if (sequence != expectedSequence) {
+            fail(new IOException("Expected chunk " + expectedSequence + " but received " + sequence));
+            return;
+        }
+
+        expectedSequence++;
+
+        if (data.length > 0 && (chunks.size() >= maxBufferedChunks || !chunks.offer(data))) {
+            fail(new IOException("Reader fell behind by more than " + maxBufferedChunks + " chunks"));
+            return;
+        }
+
+        if (last) {
+            complete = true;
+            chunks.offer(END);
+        }
+    }
+
+    /**
+     * Fails the stream, waking up a blocked reader
+     *
+     * @param cause Reason reported to the reader
+     */
+    void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+            chunks.clear();
+            chunks.offer(FAILED);
+        }
+    }
+
+    /**
+     * @return True if the last chunk was received or false
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return Nanosecond timestamp of the last received chunk
+     */
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    private boolean ensureData() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (current == null || position == current.length) {
+            if (current == END) {
+                return false;
+            }
+
+            byte[] next = chunks.poll();
+
+            if (next == null) {
+                beforeWait.run();
+
+                try {
+                    next = chunks.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a chunk", e);
+                }
+
+                if (next == null) {
+                    fail(new IOException("Timed out waiting for a chunk"));
+                    throw failure;
+                }
+            }
+
+            if (next == FAILED) {
+                throw failure;
+            }
+
+            if (next != END && ++readSinceCredit >= creditBatch) {
+                onRead.accept(readSinceCredit);
+                readSinceCredit = 0;
+            }
+
+            current = next;
+            position = 0;
+        }
+
+        return true;
+    }
+}
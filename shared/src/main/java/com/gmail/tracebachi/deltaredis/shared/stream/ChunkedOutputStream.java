@@ -0,0 +1,236 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.stream;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisChannels;
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import com.gmail.tracebachi.deltaredis.shared.redis.BlockingCallDetector;
+import com.gmail.tracebachi.deltaredis.shared.redis.DeltaRedisCommandSender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the written data to another server as a sequence of chunks
+ * <p>Only a bounded number of chunks is unanswered by Redis at any time, so
+ * writes block while Redis catches up. Writes also block while the receiver
+ * buffers as many chunks as it can hold, until its reader grants credit for
+ * the chunks it read. The stream must not be written to on the main
+ * thread.</p>
+ * <p>Each chunk is published on {@link DeltaRedisChannels#STREAM} with the
+ * parts: stream id, channel, sequence number, last flag and Base64 data.
+ * Credits come back on the same channel with the parts: stream id and
+ * number of chunks read.</p>
+ */
+public class ChunkedOutputStream extends OutputStream {
+    private final DeltaRedisCommandSender sender;
+    private final BlockingCallDetector blockingCallDetector;
+    private final String streamId;
+    private final String dest;
+    private final String channel;
+    private final Semaphore inFlight;
+    private final Semaphore credits;
+    private final Runnable onClose;
+    private final int maxInFlight;
+    private final long timeoutMillis;
+    private final byte[] buffer;
+
+    private volatile IOException failure;
+    private int position;
+    private int sequence;
+    private boolean closed;
+
+    /**
+     * @param onClose Run once the stream is closed
+     */
+    ChunkedOutputStream(String streamId, DeltaRedisCommandSender sender, String dest, String channel,
+                        DeltaRedisConfig config, BlockingCallDetector blockingCallDetector, Runnable onClose) {
+        this.streamId = streamId;
+        this.sender = sender;
+        this.blockingCallDetector = blockingCallDetector;
+        this.dest = dest;
+        this.channel = channel;
+        this.maxInFlight = config.streamMaxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.credits = new Semaphore(config.streamMaxBufferedChunks);
+        this.onClose = onClose;
+        this.timeoutMillis = config.streamTimeout;
+        this.buffer = new byte[config.streamChunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+
+        if (position == buffer.length) {
+            sendChunk(false);
+        }
+
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+
+        while (len > 0) {
+            if (position == buffer.length) {
+                sendChunk(false);
+            }
+
+            int count = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, count);
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Sends the buffered data as a chunk of its own
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+
+        if (position > 0) {
+            sendChunk(false);
+        }
+    }
+
+    /**
+     * Sends the last chunk and waits until Redis answered every chunk
+     *
+     * @throws IOException If a chunk could not be published or reached no server
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            ensureOpen();
+            sendChunk(true);
+            closed = true;
+
+            acquire(inFlight, maxInFlight, "Timed out waiting for Redis to accept the stream");
+            inFlight.release(maxInFlight);
+
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            closed = true;
+            onClose.run();
+        }
+    }
+
+    /**
+     * @return Identifier of the stream, shared by all of its chunks
+     */
+    public String getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * Lets the stream send more chunks, as the reader took them from its buffer
+     *
+     * @param chunks Number of chunks read
+     */
+    void grant(int chunks) {
+        credits.release(chunks);
+    }
+
+    /**
+     * Fails the stream, waking up a blocked writer
+     *
+     * @param cause Reason reported to the writer
+     */
+    void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+
+        // The stream has a single writer, which checks for the failure once awake
+        credits.release();
+        inFlight.release(maxInFlight);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void sendChunk(boolean last) throws IOException {
+        // Only chunks with data take room in the buffer of the receiver
+        if (position > 0) {
+            acquire(credits, 1, "Timed out waiting for the reader of the stream");
+        }
+
+        acquire(inFlight, 1, "Timed out waiting for Redis to accept the stream");
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        String data = Base64.getEncoder().encodeToString(Arrays.copyOf(buffer, position));
+        int chunkSequence = sequence++;
+        position = 0;
+
+        sender.publish(dest, DeltaRedisChannels.STREAM, Arrays.asList(
+                streamId,
+                channel,
+                String.valueOf(chunkSequence),
+                last ? "1" : "0",
+                data)).whenComplete((receivers, ex) -> {
+            if (ex != null) {
+                failure = new IOException("Failed to publish chunk " + chunkSequence, ex);
+            } else if (receivers == 0) {
+                failure = new IOException("No server received chunk " + chunkSequence + " of the stream");
+            }
+
+            inFlight.release();
+        });
+    }
+
+    private void acquire(Semaphore semaphore, int permits, String timeoutMessage) throws IOException {
+        if (semaphore.tryAcquire(permits)) {
+            return;
+        }
+
+        blockingCallDetector.check("stream write");
+
+        try {
+            if (!semaphore.tryAcquire(permits, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException(timeoutMessage);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Redis", e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the streams sent to a channel with
+ * {@link com.gmail.tracebachi.deltaredis.shared.DeltaRedisApi#openStream(String, String)}
+ */
+public interface StreamHandler {
+    /**
+     * Called asynchronously when the first chunk of a stream arrives
+     * <p>The stream is closed once the handler returns. Reads block until
+     * the next chunk arrives and fail with an {@link IOException} if the
+     * transfer times out or loses a chunk.</p>
+     *
+     * @param sendingServer Server that sends the stream
+     * @param channel       Channel the stream was sent to
+     * @param in            Stream of the received data
+     */
+    void onStream(String sendingServer, String channel, InputStream in) throws IOException;
+}
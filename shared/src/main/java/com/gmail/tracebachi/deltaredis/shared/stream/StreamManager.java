@@ -0,0 +1,239 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.shared.stream;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisChannels;
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.redis.BlockingCallDetector;
+import com.gmail.tracebachi.deltaredis.shared.redis.DeltaRedisCommandSender;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import me.loper.scheduler.SchedulerTask;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens outbound streams and reassembles the inbound ones for the
+ * registered {@link StreamHandler}s
+ * <p>Memory used by inbound streams is bounded by the number of concurrent
+ * streams times the chunks buffered per stream. Senders only send as many
+ * chunks as the receiver has room for, so both servers need the same
+ * buffered chunk limit. Streams that receive no chunk for the stream timeout
+ * are failed and dropped.</p>
+ */
+public class StreamManager implements PluginSource {
+    private final Map<String, StreamHandler> handlers = new ConcurrentHashMap<>();
+    private final Map<String, ChunkedInputStream> inbound = new ConcurrentHashMap<>();
+    private final Map<String, ChunkedOutputStream> outbound = new ConcurrentHashMap<>();
+
+    private DeltaRedisCommandSender sender;
+    private DeltaRedisPlugin plugin;
+    private SchedulerTask expireTask;
+
+    public StreamManager(DeltaRedisCommandSender sender, DeltaRedisPlugin plugin) {
+        this.sender = sender;
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void register() {
+        expireTask = plugin.getScheduler().asyncRepeating(this::expireStreams, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void unregister() {
+        if (expireTask != null) {
+            expireTask.cancel();
+            expireTask = null;
+        }
+
+        for (ChunkedInputStream stream : inbound.values()) {
+            stream.fail(new IOException("DeltaRedis is shutting down"));
+        }
+
+        for (ChunkedOutputStream stream : outbound.values()) {
+            stream.fail(new IOException("DeltaRedis is shutting down"));
+        }
+
+        inbound.clear();
+        outbound.clear();
+    }
+
+    @Override
+    public void shutdown() {
+        unregister();
+        handlers.clear();
+
+        sender = null;
+        plugin = null;
+    }
+
+    /**
+     * Opens a stream to another server
+     *
+     * @param dest    Server name that the stream should go to
+     * @param channel Channel of the stream
+     * @return Stream that sends the written data in chunks
+     */
+    public ChunkedOutputStream openStream(String dest, String channel) {
+        String streamId = UUID.randomUUID().toString();
+        ChunkedOutputStream stream = new ChunkedOutputStream(streamId, sender, dest, channel,
+                plugin.getDeltaRedisConfig(), plugin.getRedisConnectionManager().getBlockingCallDetector(),
+                () -> outbound.remove(streamId));
+
+        outbound.put(streamId, stream);
+        return stream;
+    }
+
+    /**
+     * @param channel Channel of the streams
+     * @param handler Handler of the streams or null to remove it
+     */
+    public void setHandler(String channel, StreamHandler handler) {
+        if (handler == null) {
+            handlers.remove(channel);
+        } else {
+            handlers.put(channel, handler);
+        }
+    }
+
+    /**
+     * @return Number of inbound streams being received
+     */
+    public int getInboundCount() {
+        return inbound.size();
+    }
+
+    /**
+     * Handles a received chunk or credit
+     *
+     * @param sendingServer Server that sent the message
+     * @param parts         Stream id, channel, sequence number, last flag and
+     *                      Base64 data of a chunk, or stream id and number of
+     *                      chunks read of a credit
+     * @throws IllegalArgumentException If the message is malformed
+     */
+    public void onMessage(String sendingServer, List<String> parts) {
+        if (parts.size() == 2) {
+            ChunkedOutputStream stream = outbound.get(parts.get(0));
+
+            if (stream != null) {
+                stream.grant(Integer.parseInt(parts.get(1)));
+            }
+            return;
+        }
+
+        if (parts.size() != 5) {
+            throw new IllegalArgumentException("Stream chunk with " + parts.size() + " parts");
+        }
+
+        String streamKey = sendingServer + '/' + parts.get(0);
+        String channel = parts.get(1);
+        int sequence = Integer.parseInt(parts.get(2));
+        boolean last = "1".equals(parts.get(3));
+        byte[] data = Base64.getDecoder().decode(parts.get(4));
+
+        ChunkedInputStream stream = inbound.get(streamKey);
+
+        if (stream == null) {
+            if (sequence != 0) {
+                return;
+            }
+
+            stream = openInbound(sendingServer, channel, parts.get(0), streamKey);
+
+            if (stream == null) {
+                return;
+            }
+        }
+
+        stream.offer(sequence, last, data);
+    }
+
+    private ChunkedInputStream openInbound(String sendingServer, String channel, String streamId, String streamKey) {
+        StreamHandler handler = handlers.get(channel);
+        DeltaRedisConfig config = plugin.getDeltaRedisConfig();
+
+        if (handler == null) {
+            plugin.debug("Ignored stream on channel without handler: " + channel);
+            return null;
+        }
+
+        if (inbound.size() >= config.streamMaxInbound) {
+            plugin.severe("Dropped stream from " + sendingServer + " on " + channel +
+                    ", already receiving " + inbound.size() + " streams");
+            return null;
+        }
+
+        BlockingCallDetector detector = plugin.getRedisConnectionManager().getBlockingCallDetector();
+        ChunkedInputStream stream = new ChunkedInputStream(
+                config.streamMaxBufferedChunks, config.streamTimeout, () -> inbound.remove(streamKey),
+                () -> detector.check("stream read"), chunks -> grant(sendingServer, streamId, chunks));
+        inbound.put(streamKey, stream);
+
+        plugin.getScheduler().executeAsync(() -> {
+            try {
+                handler.onStream(sendingServer, channel, stream);
+            } catch (IOException e) {
+                plugin.severe("Failed to receive stream from " + sendingServer + " on " + channel +
+                        ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                plugin.severe("Stream handler " + handler.getClass().getName() + " failed on stream " +
+                        streamId + " from " + sendingServer + " on " + channel + ": " + e);
+                e.printStackTrace();
+            } finally {
+                stream.close();
+            }
+        });
+
+        return stream;
+    }
+
+    /**
+     * Sends the sender of an inbound stream credit for the chunks read
+     */
+    private void grant(String sendingServer, String streamId, int chunks) {
+        DeltaRedisCommandSender sender = this.sender;
+
+        if (sender != null) {
+            sender.publish(sendingServer, DeltaRedisChannels.STREAM,
+                    Arrays.asList(streamId, String.valueOf(chunks)));
+        }
+    }
+
+    private void expireStreams() {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(plugin.getDeltaRedisConfig().streamTimeout);
+        long now = System.nanoTime();
+
+        inbound.entrySet().removeIf(entry -> {
+            // Complete streams only wait for their reader, which closes them
+            if (entry.getValue().isComplete() || now - entry.getValue().getLastActivity() < timeoutNanos) {
+                return false;
+            }
+
+            entry.getValue().fail(new IOException("Timed out waiting for a chunk"));
+            return true;
+        });
+    }
+}
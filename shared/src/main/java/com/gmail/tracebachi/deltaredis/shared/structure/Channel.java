@@ -34,4 +34,9 @@ public interface Channel {
      * Channel name for the Proxy instance
      */
     String PROXY = "PROXY";
+
+    /**
+     * Prefix of the channel names for server groups
+     */
+    String GROUP_PREFIX = "group:";
 }
@@ -17,6 +17,8 @@
 package com.gmail.tracebachi.deltaredis.shared.structure;
 
 import com.gmail.tracebachi.deltaredis.shared.DeltaRedisApi;
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import com.gmail.tracebachi.deltaredis.shared.frame.FrameCodec;
 import com.gmail.tracebachi.deltaredis.shared.redis.RedisConnectionManager;
 import me.loper.scheduler.SchedulerAdapter;
 
@@ -88,4 +90,26 @@ public interface DeltaRedisPlugin {
     RedisConnectionManager getRedisConnectionManager();
 
     String getCommonChannel();
+
+    /**
+     * @return True if the current thread is the main thread of the server,
+     * which must never block on Redis
+     */
+    boolean isServerThread();
+
+    /**
+     * @param className Name of a class that called DeltaRedis
+     * @return Name of the plugin that loaded the class, or null
+     */
+    String getPluginName(String className);
+
+    /**
+     * @return Configuration the plugin was enabled with
+     */
+    DeltaRedisConfig getDeltaRedisConfig();
+
+    /**
+     * @return Codec used to encode published and decode received frames
+     */
+    FrameCodec getFrameCodec();
 }
@@ -0,0 +1,157 @@
+package com.gmail.tracebachi.deltaredis.shared;
+
+import com.gmail.tracebachi.deltaredis.shared.frame.WireFormat;
+import com.gmail.tracebachi.deltaredis.shared.redis.OverflowPolicy;
+import com.gmail.tracebachi.deltaredis.shared.redis.RateLimit;
+import com.gmail.tracebachi.deltaredis.shared.redis.RateLimitPolicy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeltaRedisConfigTest
+{
+    private DeltaRedisConfig config = new DeltaRedisConfig(0, "Proxy", "Server", false, null);
+    private Map<String, Object> values = new HashMap<>();
+
+    @Test
+    public void testKeepsDefaultsOfMissingKeys() throws Exception
+    {
+        config.scheduledPollerEnabled = true;
+        config.read(new MapConfigAccessor(values));
+
+        assertTrue(config.scheduledPollerEnabled);
+        assertEquals(50, config.publishFlushInterval);
+        assertEquals(WireFormat.DELTA_SEPARATED, config.wireFormat);
+        assertTrue(config.groups.isEmpty());
+        assertTrue(config.channelRateLimits.isEmpty());
+    }
+
+    @Test
+    public void testReadsSections() throws Exception
+    {
+        values.put("publish.max-batch-size", 64);
+        values.put("publish.wire-format", "binary");
+        values.put("publish.channel-overflow-policies.Chat", "drop_oldest");
+        values.put("publish.channel-ttls.Chat", 500);
+        values.put("publish.delivery-policies.Chat.retry-backoff", 100L);
+        values.put("rate-limits.plugins.Noisy.rate", 2.5);
+        values.put("rate-limits.plugins.Noisy.policy", "delay");
+        values.put("groups", Arrays.asList("Lobbies", "Games"));
+
+        config.read(new MapConfigAccessor(values));
+
+        assertEquals(64, config.publishMaxBatchSize);
+        assertEquals(WireFormat.BINARY, config.wireFormat);
+        assertEquals(OverflowPolicy.DROP_OLDEST, config.channelOverflowPolicies.get("Chat"));
+        assertEquals(500, (int) config.channelTtls.get("Chat"));
+        assertEquals(100, config.deliveryPolicies.get("Chat").initialBackoff);
+        assertEquals(5000, config.deliveryPolicies.get("Chat").maxBackoff);
+        assertEquals(Arrays.asList("Lobbies", "Games"), config.groups);
+
+        RateLimit limit = config.pluginRateLimits.get("Noisy");
+
+        assertEquals(2.5, limit.permitsPerSecond, 0.0);
+        assertEquals(1, limit.burst);
+        assertEquals(RateLimitPolicy.DELAY, limit.policy);
+    }
+
+    @Test
+    public void testRejectsInvalidValues() throws Exception
+    {
+        assertRejected("publish.flush-interval", 0L);
+        assertRejected("publish.message-ttl", 1000);
+        assertRejected("publish.sequence-numbers", true);
+        assertRejected("rate-limits.channels.Chat.rate", -1.0);
+        assertRejected("publish.delivery-policies.Chat.max-backoff", 1L);
+    }
+
+    private void assertRejected(String key, Object value)
+    {
+        Map<String, Object> invalid = Collections.singletonMap(key, value);
+
+        try
+        {
+            new DeltaRedisConfig(0, "Proxy", "Server", false, null).read(new MapConfigAccessor(invalid));
+            fail("No exception thrown for " + key);
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // Expected
+        }
+    }
+
+    private static class MapConfigAccessor implements ConfigAccessor
+    {
+        private final Map<String, Object> values;
+
+        MapConfigAccessor(Map<String, Object> values)
+        {
+            this.values = values;
+        }
+
+        @Override
+        public String getString(String path, String def)
+        {
+            return values.containsKey(path) ? (String) values.get(path) : def;
+        }
+
+        @Override
+        public int getInt(String path, int def)
+        {
+            return values.containsKey(path) ? (Integer) values.get(path) : def;
+        }
+
+        @Override
+        public long getLong(String path, long def)
+        {
+            return values.containsKey(path) ? (Long) values.get(path) : def;
+        }
+
+        @Override
+        public double getDouble(String path, double def)
+        {
+            return values.containsKey(path) ? (Double) values.get(path) : def;
+        }
+
+        @Override
+        public boolean getBoolean(String path, boolean def)
+        {
+            return values.containsKey(path) ? (Boolean) values.get(path) : def;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public List<String> getStringList(String path)
+        {
+            return values.containsKey(path) ? (List<String>) values.get(path) : new ArrayList<>();
+        }
+
+        @Override
+        public Collection<String> getKeys(String path)
+        {
+            Set<String> keys = new LinkedHashSet<>();
+
+            for(String key : values.keySet())
+            {
+                if(key.startsWith(path + "."))
+                {
+                    keys.add(key.substring(path.length() + 1).split("\\.")[0]);
+                }
+            }
+
+            return keys;
+        }
+    }
+}
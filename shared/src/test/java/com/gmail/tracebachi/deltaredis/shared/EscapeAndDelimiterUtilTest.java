@@ -2,6 +2,7 @@ package com.gmail.tracebachi.deltaredis.shared;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -72,6 +73,27 @@ public class EscapeAndDelimiterUtilTest
         assertEquals(",,  a  b  ", stringListAsString(output));
     }
 
+    @Test
+    public void testForEachPart() throws Exception
+    {
+        List<String> output = new ArrayList<>();
+
+        assertEquals(3, util.forEachPart("a\\,b\\\\c,,\\,", output::add));
+        assertEquals(Arrays.asList("a,b\\c", "", ","), output);
+
+        output.clear();
+
+        try
+        {
+            util.forEachPart("a,b,\\a", output::add);
+            fail("No exception thrown");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            assertEquals(Arrays.asList("a", "b"), output);
+        }
+    }
+
     @Test
     public void testExceptionInUnescapeAndUndelimit() throws Exception
     {
@@ -0,0 +1,229 @@
+package com.gmail.tracebachi.deltaredis.shared;
+
+import com.gmail.tracebachi.deltaredis.shared.frame.FrameCodec;
+import com.gmail.tracebachi.deltaredis.shared.structure.Channel;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import me.loper.scheduler.SchedulerAdapter;
+import me.loper.scheduler.SchedulerTask;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DeltaRedisPlugin} for tests, which records what the plugin logs
+ * and the tasks it schedules instead of running them
+ */
+public class FakeDeltaRedisPlugin
+{
+    public final DeltaRedisConfig config = new DeltaRedisConfig(0, "Proxy", "Server", false, null);
+    public final List<String> severe = new ArrayList<>();
+    public final List<String> info = new ArrayList<>();
+    public final List<List<String>> delivered = new ArrayList<>();
+    public final List<ScheduledTask> tasks = new ArrayList<>();
+    public final List<String> pluginLookups = new ArrayList<>();
+    public volatile boolean serverThread;
+    public volatile String pluginName;
+    public volatile String commonChannel = Channel.SPIGOT;
+
+    private FrameCodec frameCodec;
+
+    public final SchedulerAdapter scheduler = (SchedulerAdapter) Proxy.newProxyInstance(
+        SchedulerAdapter.class.getClassLoader(),
+        new Class<?>[] {SchedulerAdapter.class},
+        (proxy, method, args) ->
+        {
+            switch(method.getName())
+            {
+                case "async":
+                case "sync":
+                    boolean sync = method.getName().equals("sync");
+                    return (Executor) runnable -> schedule(runnable, 0, sync);
+                case "executeAsync":
+                case "executeSync":
+                    schedule((Runnable) args[0], 0, method.getName().equals("executeSync"));
+                    return null;
+                case "asyncLater":
+                case "asyncRepeating":
+                case "syncRepeating":
+                    long delayNanos = ((TimeUnit) args[2]).toNanos((Long) args[1]);
+                    return schedule((Runnable) args[0], delayNanos, method.getName().startsWith("sync")).handle;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+
+    public final DeltaRedisPlugin plugin = (DeltaRedisPlugin) Proxy.newProxyInstance(
+        DeltaRedisPlugin.class.getClassLoader(),
+        new Class<?>[] {DeltaRedisPlugin.class},
+        (proxy, method, args) ->
+        {
+            switch(method.getName())
+            {
+                case "getDeltaRedisConfig":
+                    return config;
+                case "getScheduler":
+                    return scheduler;
+                case "getFrameCodec":
+                    return getFrameCodec();
+                case "getServerName":
+                    return config.serverName;
+                case "getProxyName":
+                    return config.proxyName;
+                case "getCommonChannel":
+                    return commonChannel;
+                case "isServerThread":
+                    return serverThread;
+                case "onRedisMessageEvent":
+                    deliver(args);
+                    return null;
+                case "getPluginName":
+                    synchronized(pluginLookups)
+                    {
+                        pluginLookups.add((String) args[0]);
+                    }
+                    return pluginName;
+                case "severe":
+                    synchronized(severe)
+                    {
+                        severe.add((String) args[0]);
+                    }
+                    return null;
+                case "info":
+                    synchronized(info)
+                    {
+                        info.add((String) args[0]);
+                    }
+                    return null;
+                case "toString":
+                    return "FakeDeltaRedisPlugin";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+
+    /**
+     * Runs the tasks scheduled so far, and those they schedule, until none
+     * are left
+     *
+     * @return Number of tasks run
+     */
+    public int runTasks()
+    {
+        int count = 0;
+
+        while(true)
+        {
+            ScheduledTask next;
+
+            synchronized(tasks)
+            {
+                if(tasks.isEmpty())
+                {
+                    return count;
+                }
+
+                next = tasks.remove(0);
+            }
+
+            if(!next.cancelled)
+            {
+                next.runnable.run();
+                count++;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliver(Object[] args)
+    {
+        List<String> parts = new ArrayList<>();
+
+        if(args.length == 1)
+        {
+            parts.addAll((List<String>) args[0]);
+        }
+        else
+        {
+            parts.add((String) args[0]);
+            parts.add((String) args[1]);
+            parts.addAll((List<String>) args[2]);
+        }
+
+        synchronized(delivered)
+        {
+            delivered.add(parts);
+        }
+    }
+
+    private synchronized FrameCodec getFrameCodec()
+    {
+        if(frameCodec == null)
+        {
+            frameCodec = new FrameCodec(config);
+        }
+
+        return frameCodec;
+    }
+
+    private ScheduledTask schedule(Runnable runnable, long delayNanos, boolean sync)
+    {
+        ScheduledTask task = new ScheduledTask(runnable, delayNanos, sync);
+
+        synchronized(tasks)
+        {
+            tasks.add(task);
+        }
+
+        return task;
+    }
+
+    private static Object defaultValue(Class<?> type)
+    {
+        if(type == boolean.class)
+        {
+            return false;
+        }
+
+        if(type == int.class)
+        {
+            return 0;
+        }
+
+        return type == long.class ? (Object) 0L : null;
+    }
+
+    public static class ScheduledTask
+    {
+        public final Runnable runnable;
+        public final long delayNanos;
+        public final boolean sync;
+        public volatile boolean cancelled;
+
+        private final SchedulerTask handle = (SchedulerTask) Proxy.newProxyInstance(
+            SchedulerTask.class.getClassLoader(),
+            new Class<?>[] {SchedulerTask.class},
+            (proxy, method, args) ->
+            {
+                if(method.getName().equals("cancel"))
+                {
+                    cancelled = true;
+                }
+
+                return defaultValue(method.getReturnType());
+            });
+
+        ScheduledTask(Runnable runnable, long delayNanos, boolean sync)
+        {
+            this.runnable = runnable;
+            this.delayNanos = delayNanos;
+            this.sync = sync;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.gmail.tracebachi.deltaredis.shared.frame;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameCodecTest
+{
+    private FrameCodec legacyCodec = createCodec(WireFormat.DELTA_SEPARATED, 0);
+    private FrameCodec binaryCodec = createCodec(WireFormat.BINARY, 0);
+    private FrameCodec compressingCodec = createCodec(WireFormat.BINARY, 64);
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception
+    {
+        assertRoundTrip(Collections.emptyList());
+        assertRoundTrip(Collections.singletonList(""));
+        assertRoundTrip(Arrays.asList("Server", "DR-Announce", "", "permission"));
+        assertRoundTrip(Arrays.asList("\u0394\\\u0394", ",\\,", "caf\u00e9", "\u20ac", "\ud83d\ude00"));
+        assertRoundTrip(Collections.singletonList(repeat('x', 300)));
+    }
+
+    @Test
+    public void testBinaryMatchesStringEncoding() throws Exception
+    {
+        String part = "a\u00e9\u20ac\ud83d\ude00\ud800z";
+        byte[] frame = binaryCodec.encode(Collections.singletonList(part));
+        byte[] expected = part.getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(FrameCodec.HEADER_SIZE + 1 + 1 + expected.length, frame.length);
+        assertEquals(expected.length, frame[FrameCodec.HEADER_SIZE + 1]);
+        assertEquals(
+            new String(expected, StandardCharsets.UTF_8),
+            binaryCodec.decode(frame).get(0));
+    }
+
+    @Test
+    public void testDetectsFormat() throws Exception
+    {
+        List<String> parts = Arrays.asList("Server", "Channel", "a\u0394b");
+        byte[] legacy = legacyCodec.encode(parts);
+        byte[] binary = binaryCodec.encode(parts);
+
+        assertFalse(FrameCodec.isBinary(legacy));
+        assertTrue(FrameCodec.isBinary(binary));
+        assertEquals(parts, binaryCodec.decode(legacy));
+        assertEquals(parts, binaryCodec.decode(binary));
+    }
+
+    @Test
+    public void testEncodesMessageWithoutCopy() throws Exception
+    {
+        List<String> parts = Arrays.asList("a\u0394b", "", "c");
+        List<String> expected = Arrays.asList("Server", "Channel", "a\u0394b", "", "c");
+
+        assertArrayEquals(
+            legacyCodec.encode(expected),
+            legacyCodec.encode("Server", "Channel", parts, 0));
+        assertArrayEquals(
+            binaryCodec.encode(expected),
+            binaryCodec.encode("Server", "Channel", parts, 0));
+        assertEquals(expected, binaryCodec.decode(binaryCodec.encode("Server", "Channel", parts, 0)));
+    }
+
+    @Test
+    public void testClaimCheckFrame() throws Exception
+    {
+        byte[] reference = legacyCodec.encodeClaimCheck("Server", "Channel", "proxy:claim:1", 0);
+
+        assertTrue(FrameCodec.isBinary(reference));
+        assertTrue(FrameCodec.isClaimCheck(reference));
+        assertFalse(FrameCodec.isClaimCheck(binaryCodec.encode(Arrays.asList("Server", "Channel"))));
+        assertFalse(FrameCodec.isClaimCheck(legacyCodec.encode(Arrays.asList("Server", "Channel"))));
+        assertEquals(Arrays.asList("Server", "Channel", "proxy:claim:1"), legacyCodec.decode(reference));
+    }
+
+    @Test
+    public void testExpiresAfterTtl() throws Exception
+    {
+        List<String> parts = Arrays.asList("Server", "DR-RunCmd", repeat('a', 256));
+        long now = System.currentTimeMillis();
+        byte[] legacy = legacyCodec.encode(parts);
+        byte[] expiring = binaryCodec.encode(parts, 1000);
+        byte[] compressed = compressingCodec.encode(parts, 1000);
+
+        assertTrue(FrameCodec.isBinary(expiring));
+        assertEquals(FrameCodec.FLAG_DEFLATE, compressed[2] & FrameCodec.FLAG_DEFLATE);
+        assertEquals(parts, binaryCodec.decode(expiring));
+        assertEquals(parts, binaryCodec.decode(compressed));
+
+        assertFalse(binaryCodec.isExpired(legacy, now + 60000));
+        assertFalse(binaryCodec.isExpired(expiring, now + 500));
+        assertTrue(binaryCodec.isExpired(expiring, now + 60000));
+        assertTrue(binaryCodec.isExpired(compressed, now + 60000));
+        assertEquals(2, binaryCodec.getExpiryMetrics().getExpiredFrames());
+        assertEquals(1, binaryCodec.getCompressionMetrics().getDecompressedFrames());
+
+        try
+        {
+            legacyCodec.encode(parts, 1000);
+            fail("No exception thrown");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testInternsKnownNames() throws Exception
+    {
+        MapDictionary dictionary = new MapDictionary();
+        DeltaRedisConfig config = new DeltaRedisConfig(0, "Proxy", "Server", false, null);
+        config.wireFormat = WireFormat.BINARY;
+        config.internHeaders = true;
+
+        FrameCodec interning = new FrameCodec(config);
+        FrameCodec receiving = createCodec(WireFormat.BINARY, 0);
+        interning.setDictionary(dictionary);
+        receiving.setDictionary(dictionary);
+
+        List<String> parts = Arrays.asList("Server", "DR-Announce", "hi");
+        byte[] unknown = interning.encode(parts);
+
+        assertEquals(0, unknown[2] & FrameCodec.FLAG_INTERNED);
+
+        dictionary.names.add("Server");
+        dictionary.names.add("DR-Announce");
+
+        byte[] interned = interning.encode(parts, 1000);
+
+        assertEquals(FrameCodec.FLAG_INTERNED, interned[2] & FrameCodec.FLAG_INTERNED);
+        assertTrue(interned.length < unknown.length);
+        assertTrue(receiving.canResolveNames(interned));
+        assertEquals(parts, receiving.decode(interned));
+        assertFalse(createCodec(WireFormat.BINARY, 0).isExpired(interned, System.currentTimeMillis()));
+
+        FrameCodec unaware = createCodec(WireFormat.BINARY, 0);
+        unaware.setDictionary(new MapDictionary());
+
+        assertFalse(unaware.canResolveNames(interned));
+
+        try
+        {
+            unaware.decode(interned);
+            fail("No exception thrown");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testMalformedBinaryFrame() throws Exception
+    {
+        byte[] frame = binaryCodec.encode(Arrays.asList("abc", "def"));
+
+        try
+        {
+            binaryCodec.decode(Arrays.copyOf(frame, frame.length - 1));
+            fail("No exception thrown");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // Expected
+        }
+
+        try
+        {
+            binaryCodec.decode(Arrays.copyOf(frame, frame.length + 1));
+            fail("No exception thrown");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCompressesAboveThreshold() throws Exception
+    {
+        List<String> small = Arrays.asList("Server", "Channel", "small");
+        List<String> large = Arrays.asList("Server", "Channel", repeat('a', 4096));
+
+        byte[] smallFrame = compressingCodec.encode(small);
+        byte[] largeFrame = compressingCodec.encode(large);
+
+        assertEquals(0, smallFrame[2] & FrameCodec.FLAG_DEFLATE);
+        assertEquals(FrameCodec.FLAG_DEFLATE, largeFrame[2] & FrameCodec.FLAG_DEFLATE);
+        assertTrue(largeFrame.length < 4096);
+
+        assertEquals(small, binaryCodec.decode(smallFrame));
+        assertEquals(large, binaryCodec.decode(largeFrame));
+        assertEquals(1, compressingCodec.getCompressionMetrics().getCompressedFrames());
+        assertEquals(1, binaryCodec.getCompressionMetrics().getDecompressedFrames());
+    }
+
+    @Test
+    public void testSkipsCompressionWhenFrameDoesNotShrink() throws Exception
+    {
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(42);
+
+        // Short random text just over the threshold does not survive the deflate overhead
+        for (int i = 0; i < 80; i++)
+        {
+            builder.append((char) ('!' + random.nextInt(94)));
+        }
+
+        List<String> parts = Collections.singletonList(builder.toString());
+        byte[] frame = compressingCodec.encode(parts);
+
+        assertEquals(0, frame[2] & FrameCodec.FLAG_DEFLATE);
+        assertEquals(parts, compressingCodec.decode(frame));
+        assertEquals(1, compressingCodec.getCompressionMetrics().getSkippedFrames());
+    }
+
+    @Test
+    public void testDecodesLazily() throws Exception
+    {
+        List<List<String>> samples = Arrays.asList(
+            Collections.singletonList(""),
+            Arrays.asList("Server", "Channel", "", ""),
+            Arrays.asList("Server", "Channel", "\u0394\\\u0394", "\\", "caf\u00e9\u0394"),
+            Arrays.asList("Server", "Channel", repeat('x', 300)));
+
+        for (List<String> parts : samples)
+        {
+            assertEquals(parts, legacyCodec.decodeLazily(legacyCodec.encode(parts)));
+            assertEquals(parts, binaryCodec.decodeLazily(binaryCodec.encode(parts)));
+            assertEquals(parts, binaryCodec.decodeLazily(compressingCodec.encode(parts)));
+        }
+
+        try
+        {
+            legacyCodec.decodeLazily("a\\b".getBytes(StandardCharsets.UTF_8));
+            fail("Expected IllegalArgumentException");
+        }
+        catch(IllegalArgumentException expected)
+        {
+        }
+    }
+
+    @Test
+    public void testPeeksNames() throws Exception
+    {
+        List<String> parts = Arrays.asList("Server", "Channel", repeat('a', 4096));
+        List<String> names = Arrays.asList("Server", "Channel");
+
+        assertEquals(names, legacyCodec.peekNames(legacyCodec.encode(parts)));
+        assertEquals(names, binaryCodec.peekNames(binaryCodec.encode(parts, 1000)));
+        assertEquals(names, binaryCodec.peekNames(compressingCodec.encode(parts)));
+        assertEquals(null, binaryCodec.peekNames(binaryCodec.encode(Collections.singletonList("Server"))));
+        assertEquals(null, binaryCodec.peekNames(new byte[] {FrameCodec.MAGIC, FrameCodec.VERSION}));
+
+        MapDictionary dictionary = new MapDictionary();
+        DeltaRedisConfig config = new DeltaRedisConfig(0, "Proxy", "Server", false, null);
+        config.wireFormat = WireFormat.BINARY;
+        config.internHeaders = true;
+
+        FrameCodec interning = new FrameCodec(config);
+        interning.setDictionary(dictionary);
+        dictionary.names.add("Server");
+        dictionary.names.add("Channel");
+
+        byte[] interned = interning.encode(parts);
+        FrameCodec unaware = createCodec(WireFormat.BINARY, 0);
+        unaware.setDictionary(new MapDictionary());
+
+        assertEquals(names, interning.peekNames(interned));
+        assertEquals(null, unaware.peekNames(interned));
+    }
+
+    @Test
+    public void testStampsSequence() throws Exception
+    {
+        List<String> parts = Arrays.asList("Server", "Channel", repeat('a', 4096));
+        byte[] legacy = legacyCodec.encode(parts);
+
+        assertTrue(legacy == legacyCodec.stamp(legacy, 7, 1));
+        assertEquals(null, legacyCodec.readStamp(legacy));
+
+        List<byte[]> frames = Arrays.asList(
+            binaryCodec.encode(parts),
+            binaryCodec.encode(parts, 1000),
+            compressingCodec.encode(parts));
+
+        for (byte[] frame : frames)
+        {
+            byte[] stamped = binaryCodec.stamp(frame, -42L, 300);
+            SequenceStamp stamp = binaryCodec.readStamp(stamped);
+
+            assertEquals(null, binaryCodec.readStamp(frame));
+            assertEquals(-42L, stamp.getSession());
+            assertEquals(300, stamp.getNumber());
+            assertEquals(parts, binaryCodec.decode(stamped));
+            assertEquals(parts, binaryCodec.decodeLazily(stamped));
+            assertEquals(parts.subList(0, 2), binaryCodec.peekNames(stamped));
+            assertFalse(binaryCodec.isExpired(stamped, System.currentTimeMillis()));
+        }
+
+        try
+        {
+            binaryCodec.stamp(binaryCodec.stamp(frames.get(0), 1, 1), 1, 2);
+            fail("No exception thrown");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // Expected
+        }
+    }
+
+    private void assertRoundTrip(List<String> parts)
+    {
+        assertEquals(parts, binaryCodec.decode(binaryCodec.encode(parts)));
+        assertEquals(parts, binaryCodec.decode(compressingCodec.encode(parts)));
+    }
+
+    private static FrameCodec createCodec(WireFormat format, int compressionThreshold)
+    {
+        DeltaRedisConfig config = new DeltaRedisConfig(0, "Proxy", "Server", false, null);
+        config.wireFormat = format;
+        config.compressionThreshold = compressionThreshold;
+        return new FrameCodec(config);
+    }
+
+    private static class MapDictionary implements FrameDictionary
+    {
+        private final List<String> names = new ArrayList<>();
+
+        @Override
+        public int idOf(String name)
+        {
+            return names.indexOf(name);
+        }
+
+        @Override
+        public String nameOf(int id)
+        {
+            return id >= 0 && id < names.size() ? names.get(id) : null;
+        }
+
+        @Override
+        public void load()
+        {
+        }
+    }
+
+    private String repeat(char c, int count)
+    {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,181 @@
+package com.gmail.tracebachi.deltaredis.shared.message;
+
+import com.gmail.tracebachi.deltaredis.shared.FakeDeltaRedisPlugin;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageRegistryTest
+{
+    private FakeDeltaRedisPlugin fake = new FakeDeltaRedisPlugin();
+    private MessageRegistry registry = new MessageRegistry(fake.plugin);
+    private List<String> received = new ArrayList<>();
+
+    @Test
+    public void testEncodesAndDelivers() throws Exception
+    {
+        CountingCodec codec = new CountingCodec("");
+        registry.registerCodec("Chat", String.class, codec);
+        registry.subscribe("Chat", String.class, (server, channel, message) ->
+            received.add("first " + server + " " + channel + " " + message));
+        registry.subscribe("Chat", Object.class, (server, channel, message) ->
+            received.add("second " + message));
+
+        assertEquals(Collections.singletonList("hi"), registry.encode("Chat", "hi"));
+        assertTrue(registry.deliver("Hub", "Chat", Collections.singletonList("hi")));
+
+        assertEquals(Arrays.asList("first Hub Chat hi", "second hi"), received);
+        assertEquals(1, codec.decoded);
+    }
+
+    @Test
+    public void testSkipsChannelsWithoutHandlers() throws Exception
+    {
+        CountingCodec codec = new CountingCodec("");
+        registry.registerCodec("Chat", String.class, codec);
+
+        assertFalse(registry.deliver("Hub", "Chat", Collections.singletonList("hi")));
+        assertFalse(registry.deliver("Hub", "Other", Collections.singletonList("hi")));
+        assertEquals(0, codec.decoded);
+
+        MessageHandler<String> handler = (server, channel, message) -> received.add(message);
+        registry.subscribe("Chat", String.class, handler);
+        registry.unsubscribe("Chat", handler);
+
+        assertFalse(registry.deliver("Hub", "Chat", Collections.singletonList("hi")));
+        assertEquals(0, codec.decoded);
+    }
+
+    @Test
+    public void testReplacesCodecOfSameType() throws Exception
+    {
+        registry.registerCodec("Chat", String.class, new CountingCodec("old "));
+        registry.subscribe("Chat", String.class, (server, channel, message) -> received.add(message));
+        registry.registerCodec("Chat", String.class, new CountingCodec("new "));
+
+        registry.deliver("Hub", "Chat", Collections.singletonList("hi"));
+
+        assertEquals(Collections.singletonList("new hi"), received);
+        assertEquals(Collections.singletonList("new hi"), registry.encode("Chat", "hi"));
+
+        try
+        {
+            registry.registerCodec("Chat", Integer.class, new IntegerCodec());
+            fail("No exception thrown");
+        }
+        catch(IllegalStateException ex)
+        {
+            // Expected
+        }
+
+        registry.unregisterCodec("Chat");
+        registry.registerCodec("Chat", Integer.class, new IntegerCodec());
+
+        assertFalse(registry.deliver("Hub", "Chat", Collections.singletonList("1")));
+    }
+
+    @Test
+    public void testRejectsMismatchedTypes() throws Exception
+    {
+        registry.registerCodec("Count", Integer.class, new IntegerCodec());
+
+        try
+        {
+            registry.subscribe("Count", String.class, (server, channel, message) -> received.add(message));
+            fail("No exception thrown");
+        }
+        catch(IllegalStateException ex)
+        {
+            // Expected
+        }
+
+        try
+        {
+            registry.encode("Count", "one");
+            fail("No exception thrown");
+        }
+        catch(IllegalStateException ex)
+        {
+            // Expected
+        }
+
+        try
+        {
+            registry.encode("Unknown", 1);
+            fail("No exception thrown");
+        }
+        catch(IllegalStateException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testIsolatesFailingHandlers() throws Exception
+    {
+        registry.registerCodec("Count", Integer.class, new IntegerCodec());
+        registry.subscribe("Count", Integer.class, (server, channel, message) ->
+        {
+            throw new IllegalStateException("Broken handler");
+        });
+        registry.subscribe("Count", Integer.class, (server, channel, message) -> received.add("got " + message));
+
+        assertTrue(registry.deliver("Hub", "Count", Collections.singletonList("7")));
+
+        assertEquals(Collections.singletonList("got 7"), received);
+        assertEquals(1, fake.severe.size());
+
+        // A message the codec can not decode reaches no handler
+        assertTrue(registry.deliver("Hub", "Count", Collections.singletonList("seven")));
+
+        assertEquals(1, received.size());
+        assertEquals(2, fake.severe.size());
+    }
+
+    private static class CountingCodec implements MessageCodec<String>
+    {
+        private final String prefix;
+        private int decoded;
+
+        CountingCodec(String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public List<String> encode(String message)
+        {
+            return Collections.singletonList(prefix + message);
+        }
+
+        @Override
+        public String decode(List<String> messageParts)
+        {
+            decoded++;
+            return prefix + messageParts.get(0);
+        }
+    }
+
+    private static class IntegerCodec implements MessageCodec<Integer>
+    {
+        @Override
+        public List<String> encode(Integer message)
+        {
+            return Collections.singletonList(message.toString());
+        }
+
+        @Override
+        public Integer decode(List<String> messageParts)
+        {
+            return Integer.valueOf(messageParts.get(0));
+        }
+    }
+}
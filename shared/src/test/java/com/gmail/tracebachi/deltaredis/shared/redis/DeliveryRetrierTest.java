@@ -0,0 +1,201 @@
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.FakeDeltaRedisPlugin;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeliveryRetrierTest
+{
+    private static final List<String> PARTS = Arrays.asList("a", "b");
+
+    private FakeDeltaRedisPlugin fake = new FakeDeltaRedisPlugin();
+    private FakeRedisConnection redis = new FakeRedisConnection();
+    private OutboundBatcher batcher = new OutboundBatcher(redis.connection, fake.plugin);
+    private DeliveryRetrier retrier = new DeliveryRetrier(null, batcher, fake.plugin);
+    private List<String> deadLetters = new ArrayList<>();
+
+    @Test
+    public void testDoublesBackoffUpToMax() throws Exception
+    {
+        setPolicy(new DeliveryPolicy(60000, 100, 300, null));
+
+        CompletableFuture<Long> first = new CompletableFuture<>();
+        CompletableFuture<Long> result = track(first);
+
+        first.complete(0L);
+
+        long[] expectedDelays = {100, 200, 300, 300};
+
+        for(int i = 0; i < expectedDelays.length; i++)
+        {
+            assertEquals(1, fake.tasks.size());
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(expectedDelays[i]), fake.tasks.get(0).delayNanos);
+
+            retryAndAnswer(i == expectedDelays.length - 1 ? 2 : 0);
+        }
+
+        assertEquals(2L, (long) result.get());
+        assertEquals(4, redis.size());
+        assertEquals("Proxy:Server", redis.get(3).redisChannel);
+        assertEquals(4, retrier.getMetrics().getRetryCount());
+        assertEquals(0, retrier.getMetrics().getUndeliveredCount());
+        assertTrue(deadLetters.isEmpty());
+    }
+
+    @Test
+    public void testDeadLettersOnceRetryTimeoutPasses() throws Exception
+    {
+        setPolicy(new DeliveryPolicy(250, 100, 1000, null));
+
+        CompletableFuture<Long> first = new CompletableFuture<>();
+        CompletableFuture<Long> result = track(first);
+
+        first.complete(0L);
+        retryAndAnswer(0);
+
+        // The next backoff of 400ms would end after the timeout
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), fake.tasks.get(0).delayNanos);
+        retryAndAnswer(0);
+
+        assertTrue(fake.tasks.isEmpty());
+        assertEquals(0L, (long) result.get());
+        assertEquals(2, retrier.getMetrics().getRetryCount());
+        assertEquals(1, retrier.getMetrics().getUndeliveredCount());
+        assertEquals(1, retrier.getMetrics().getDeadLetteredCount());
+        assertEquals(Collections.singletonList("Server/Channel/[a, b]/3"), deadLetters);
+    }
+
+    @Test
+    public void testStopsOnDelivery() throws Exception
+    {
+        setPolicy(new DeliveryPolicy(60000, 100, 300, null));
+
+        CompletableFuture<Long> first = new CompletableFuture<>();
+        CompletableFuture<Long> result = track(first);
+
+        first.complete(3L);
+
+        assertEquals(3L, (long) result.get());
+        assertTrue(fake.tasks.isEmpty());
+        assertEquals(0, retrier.getMetrics().getRetryCount());
+    }
+
+    @Test
+    public void testCountsUndeliveredWithoutPolicy() throws Exception
+    {
+        CompletableFuture<Long> first = new CompletableFuture<>();
+        CompletableFuture<Long> result = track(first);
+
+        first.complete(0L);
+
+        assertEquals(0L, (long) result.get());
+        assertTrue(fake.tasks.isEmpty());
+        assertEquals(1, retrier.getMetrics().getUndeliveredCount());
+        assertEquals(1L, (long) retrier.getMetrics().getUndeliveredByDestination().get("Server"));
+        assertTrue(deadLetters.isEmpty());
+    }
+
+    @Test
+    public void testNeverRetriesDropped() throws Exception
+    {
+        setPolicy(new DeliveryPolicy(60000, 100, 300, "Hub"));
+
+        CompletableFuture<Long> first = new CompletableFuture<>();
+        CompletableFuture<Long> result = track(first);
+
+        first.complete(OutboundBatcher.DROPPED);
+
+        assertEquals(0L, (long) result.get());
+        assertTrue(fake.tasks.isEmpty());
+        assertEquals(0, redis.size());
+        assertEquals(1, retrier.getMetrics().getDroppedCount());
+        assertEquals(0, retrier.getMetrics().getRetryCount());
+        assertEquals(0, retrier.getMetrics().getUndeliveredCount());
+        assertTrue(deadLetters.isEmpty());
+    }
+
+    @Test
+    public void testStopsRetryingOnceDropped() throws Exception
+    {
+        setPolicy(new DeliveryPolicy(60000, 100, 300, null));
+        fake.config.publishQueueCapacity = 1;
+        fake.config.overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+        CompletableFuture<Long> first = new CompletableFuture<>();
+        CompletableFuture<Long> result = track(first);
+
+        first.complete(0L);
+
+        // The queue is full when the retry is made, so the retry is dropped
+        batcher.enqueue("Other", "Proxy:Other", "other".getBytes(StandardCharsets.UTF_8));
+        fake.tasks.remove(0).runnable.run();
+
+        assertEquals(0L, (long) result.get());
+        assertTrue(fake.tasks.isEmpty());
+        assertEquals(1, retrier.getMetrics().getRetryCount());
+        assertEquals(1, retrier.getMetrics().getDroppedCount());
+        assertTrue(deadLetters.isEmpty());
+    }
+
+    @Test
+    public void testCountsDroppedWithoutPolicy() throws Exception
+    {
+        CompletableFuture<Long> first = new CompletableFuture<>();
+        CompletableFuture<Long> result = track(first);
+
+        first.complete(OutboundBatcher.DROPPED);
+
+        assertEquals(0L, (long) result.get());
+        assertEquals(1, retrier.getMetrics().getDroppedCount());
+        assertEquals(0, retrier.getMetrics().getUndeliveredCount());
+    }
+
+    @Test
+    public void testFailsWithPublish() throws Exception
+    {
+        setPolicy(new DeliveryPolicy(60000, 100, 300, null));
+
+        CompletableFuture<Long> first = new CompletableFuture<>();
+        CompletableFuture<Long> result = track(first);
+
+        first.completeExceptionally(new IllegalStateException("Connection lost"));
+
+        assertTrue(result.isCompletedExceptionally());
+        assertTrue(fake.tasks.isEmpty());
+        assertEquals(0, retrier.getMetrics().getUndeliveredCount());
+    }
+
+    private void setPolicy(DeliveryPolicy policy)
+    {
+        fake.config.deliveryPolicies = Collections.singletonMap("Channel", policy);
+        retrier.setDeadLetterHandler((destination, channel, messageParts, attempts) ->
+            deadLetters.add(destination + "/" + channel + "/" + messageParts + "/" + attempts));
+    }
+
+    private CompletableFuture<Long> track(CompletableFuture<Long> first)
+    {
+        byte[] frame = "frame".getBytes(StandardCharsets.UTF_8);
+        return retrier.track("Server", "Channel", PARTS, "Proxy:Server", frame, first);
+    }
+
+    private void retryAndAnswer(long receivers)
+    {
+        int published = redis.size();
+
+        fake.tasks.remove(0).runnable.run();
+        batcher.flush();
+
+        assertEquals(published + 1, redis.size());
+        redis.get(published).answer(receivers);
+    }
+}
@@ -0,0 +1,50 @@
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.FakeDeltaRedisPlugin;
+import com.gmail.tracebachi.deltaredis.shared.structure.Channel;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DeltaRedisCommandSenderTest
+{
+    private FakeDeltaRedisPlugin fake = new FakeDeltaRedisPlugin();
+    private FakeRedisConnection redis = new FakeRedisConnection();
+    private OutboundBatcher batcher = new OutboundBatcher(redis.connection, fake.plugin);
+    private DeltaRedisCommandSender sender = new DeltaRedisCommandSender(null, batcher, fake.plugin);
+
+    @Test
+    public void testDeliversToSelfOffServerThread() throws Exception
+    {
+        assertEquals(1L, (long) sender.publish("Server", "Chat", Collections.singletonList("hi")).get());
+
+        assertEquals(1, fake.tasks.size());
+        assertFalse(fake.tasks.get(0).sync);
+        assertEquals(0, batcher.getPendingCount());
+
+        fake.runTasks();
+
+        assertEquals(Collections.singletonList(Arrays.asList("Server", "Chat", "hi")), fake.delivered);
+    }
+
+    @Test
+    public void testDeliversGroupsOffServerThread() throws Exception
+    {
+        fake.config.groups = Collections.singletonList("Lobbies");
+
+        sender.publishToGroup("Lobbies", "Chat", Collections.singletonList("hi"));
+
+        assertEquals(1, fake.tasks.size());
+        assertFalse(fake.tasks.get(0).sync);
+
+        // Other servers of the group still get it through Redis
+        batcher.flush();
+
+        assertEquals(1, redis.size());
+        assertEquals("Proxy:" + Channel.GROUP_PREFIX + "Lobbies", redis.get(0).redisChannel);
+    }
+}
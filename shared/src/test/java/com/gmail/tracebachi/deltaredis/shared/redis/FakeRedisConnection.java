@@ -0,0 +1,137 @@
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.api.StatefulRedisConnection;
+import com.lambdaworks.redis.api.async.RedisAsyncCommands;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Connection for tests that records the publishes written to it and lets
+ * the test answer them
+ */
+public class FakeRedisConnection
+{
+    public final List<Publish> published = new ArrayList<>();
+    public volatile int flushCount;
+
+    private final RedisAsyncCommands<?, ?> async = (RedisAsyncCommands<?, ?>) Proxy.newProxyInstance(
+        RedisAsyncCommands.class.getClassLoader(),
+        new Class<?>[] {RedisAsyncCommands.class},
+        (proxy, method, args) ->
+        {
+            if(!method.getName().equals("publish"))
+            {
+                throw new UnsupportedOperationException(method.getName());
+            }
+
+            Publish publish = new Publish((String) args[0], (byte[]) args[1]);
+
+            synchronized(published)
+            {
+                published.add(publish);
+            }
+
+            return publish.future;
+        });
+
+    @SuppressWarnings("unchecked")
+    public final StatefulRedisConnection<String, byte[]> connection =
+        (StatefulRedisConnection<String, byte[]>) Proxy.newProxyInstance(
+            StatefulRedisConnection.class.getClassLoader(),
+            new Class<?>[] {StatefulRedisConnection.class},
+            (proxy, method, args) ->
+            {
+                switch(method.getName())
+                {
+                    case "async":
+                        return async;
+                    case "flushCommands":
+                        flushCount++;
+                        return null;
+                    case "setAutoFlushCommands":
+                        return null;
+                    case "isOpen":
+                        return true;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+    /**
+     * @return Publish written at the index, in the order they were written
+     */
+    public Publish get(int index)
+    {
+        synchronized(published)
+        {
+            return published.get(index);
+        }
+    }
+
+    /**
+     * @return Number of publishes written so far
+     */
+    public int size()
+    {
+        synchronized(published)
+        {
+            return published.size();
+        }
+    }
+
+    public static class Publish
+    {
+        public final String redisChannel;
+        public final byte[] message;
+        public final PublishFuture future = new PublishFuture();
+
+        Publish(String redisChannel, byte[] message)
+        {
+            this.redisChannel = redisChannel;
+            this.message = message;
+        }
+
+        /**
+         * Answers the publish as Redis would
+         */
+        public void answer(long receivers)
+        {
+            future.complete(receivers);
+        }
+    }
+
+    public static class PublishFuture extends CompletableFuture<Long> implements RedisFuture<Long>
+    {
+        @Override
+        public String getError()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            try
+            {
+                get(timeout, unit);
+            }
+            catch(ExecutionException ex)
+            {
+                return true;
+            }
+            catch(TimeoutException ex)
+            {
+                return false;
+            }
+
+            return true;
+        }
+    }
+}
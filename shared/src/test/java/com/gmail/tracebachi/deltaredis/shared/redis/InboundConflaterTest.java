@@ -0,0 +1,92 @@
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.FakeDeltaRedisPlugin;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InboundConflaterTest
+{
+    private FakeDeltaRedisPlugin fake = new FakeDeltaRedisPlugin();
+    private InboundConflater conflater = new InboundConflater(fake.plugin);
+
+    @Test
+    public void testDeliversOtherChannelsRightAway() throws Exception
+    {
+        fake.config.conflatedChannels = Collections.singleton("Positions");
+
+        assertFalse(conflater.offer(Arrays.asList("Hub", "Chat", "Steve", "hi")));
+        assertTrue(conflater.offer(Arrays.asList("Hub", "Positions", "Steve", "1")));
+    }
+
+    @Test
+    public void testReplacesByKey() throws Exception
+    {
+        fake.config.conflatedChannels = new HashSet<>(Arrays.asList("Positions", "Scores"));
+        fake.config.conflationInterval = 50;
+        conflater.register();
+
+        assertEquals(1, fake.tasks.size());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), fake.tasks.get(0).delayNanos);
+
+        conflater.offer(Arrays.asList("Hub", "Positions", "Steve", "1"));
+        conflater.offer(Arrays.asList("Hub", "Positions", "Steve", "2"));
+        conflater.offer(Arrays.asList("Hub", "Positions", "Alex", "3"));
+        conflater.offer(Arrays.asList("Lobby", "Positions", "Steve", "4"));
+        conflater.offer(Arrays.asList("Hub", "Scores", "Steve", "5"));
+        conflater.offer(Arrays.asList("Hub", "Scores"));
+        conflater.offer(Arrays.asList("Hub", "Scores"));
+
+        assertEquals(2, conflater.getReplacedCount());
+        assertTrue(fake.delivered.isEmpty());
+
+        drain();
+
+        assertEquals(5, fake.delivered.size());
+        assertTrue(fake.delivered.contains(Arrays.asList("Hub", "Positions", "Steve", "2")));
+        assertFalse(fake.delivered.contains(Arrays.asList("Hub", "Positions", "Steve", "1")));
+        assertTrue(fake.delivered.contains(Arrays.asList("Hub", "Positions", "Alex", "3")));
+        assertTrue(fake.delivered.contains(Arrays.asList("Lobby", "Positions", "Steve", "4")));
+        assertTrue(fake.delivered.contains(Arrays.asList("Hub", "Scores", "Steve", "5")));
+        assertTrue(fake.delivered.contains(Arrays.asList("Hub", "Scores")));
+
+        // Drained messages are delivered only once
+        fake.delivered.clear();
+        drain();
+
+        assertTrue(fake.delivered.isEmpty());
+
+        conflater.offer(Arrays.asList("Hub", "Positions", "Steve", "6"));
+        drain();
+
+        assertEquals(Collections.singletonList(Arrays.asList("Hub", "Positions", "Steve", "6")), fake.delivered);
+    }
+
+    @Test
+    public void testDropsHeldMessagesOnUnregister() throws Exception
+    {
+        fake.config.conflatedChannels = Collections.singleton("Positions");
+        conflater.register();
+
+        conflater.offer(Arrays.asList("Hub", "Positions", "Steve", "1"));
+        conflater.unregister();
+
+        assertTrue(fake.tasks.get(0).cancelled);
+
+        fake.tasks.get(0).runnable.run();
+
+        assertTrue(fake.delivered.isEmpty());
+    }
+
+    private void drain()
+    {
+        fake.tasks.get(0).runnable.run();
+    }
+}
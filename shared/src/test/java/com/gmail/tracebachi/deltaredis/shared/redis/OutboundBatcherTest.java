@@ -0,0 +1,274 @@
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.FakeDeltaRedisPlugin;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutboundBatcherTest
+{
+    private FakeDeltaRedisPlugin fake = new FakeDeltaRedisPlugin();
+    private FakeRedisConnection redis = new FakeRedisConnection();
+    private OutboundBatcher batcher = new OutboundBatcher(redis.connection, fake.plugin);
+
+    @Test
+    public void testFlushesQueuedPublishes() throws Exception
+    {
+        CompletableFuture<Long> first = batcher.enqueue("Channel", "Proxy:Server", bytes("a"));
+        CompletableFuture<long[]> all = batcher.enqueueAll("Channel",
+            Arrays.asList("Proxy:One", "Proxy:Two"), bytes("b"));
+
+        assertEquals(3, batcher.getPendingCount());
+        assertEquals(0, redis.size());
+
+        batcher.flush();
+
+        assertEquals(0, batcher.getPendingCount());
+        assertEquals(3, batcher.getOutstandingCount());
+        assertEquals(3, redis.size());
+        assertEquals(1, redis.flushCount);
+        assertEquals("Proxy:Server", redis.get(0).redisChannel);
+        assertEquals("Proxy:Two", redis.get(2).redisChannel);
+
+        redis.get(0).answer(1);
+        redis.get(1).answer(2);
+        redis.get(2).answer(3);
+
+        assertEquals(1L, (long) first.get());
+        assertEquals(2L, all.get()[0]);
+        assertEquals(3L, all.get()[1]);
+        assertEquals(0, batcher.getOutstandingCount());
+        assertEquals(3, batcher.getMetrics().getMessageCount());
+    }
+
+    @Test
+    public void testFailsWhenFull() throws Exception
+    {
+        fake.config.publishQueueCapacity = 2;
+
+        batcher.enqueue("Channel", "Proxy:Server", bytes("a"));
+        batcher.enqueue("Channel", "Proxy:Server", bytes("b"));
+        CompletableFuture<Long> rejected = batcher.enqueue("Channel", "Proxy:Server", bytes("c"));
+
+        assertRejected(rejected);
+        assertTrue(batcher.isOverloaded());
+        assertEquals(1, batcher.getQueueMetrics().getRejectedCount());
+        assertEquals(1, fake.severe.size());
+        assertEquals(2, batcher.getPendingCount());
+
+        // Once Redis answered, the queue has room again and recovers
+        batcher.flush();
+        redis.get(0).answer(1);
+        redis.get(1).answer(1);
+
+        assertFalse(batcher.isOverloaded());
+        assertEquals(1, fake.info.size());
+    }
+
+    @Test
+    public void testRejectsOnceShutDown() throws Exception
+    {
+        CompletableFuture<Long> first = batcher.enqueue("Channel", "Proxy:Server", bytes("a"));
+        batcher.enqueue("Channel", "Proxy:Server", bytes("b"));
+
+        batcher.shutdown();
+
+        // Publishes queued before the shutdown are still written
+        assertEquals(2, redis.size());
+        assertEquals(0, batcher.getPendingCount());
+
+        redis.get(0).answer(1);
+
+        assertEquals(1L, (long) first.get());
+        assertRejected(batcher.enqueue("Channel", "Proxy:Server", bytes("c")));
+        assertRejected(batcher.enqueueConflated("Channel", "key", "Proxy:Server", bytes("d")));
+        assertEquals(2, redis.size());
+
+        // Flushes after the shutdown do nothing
+        batcher.flush();
+
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    @Test
+    public void testDropsNewestWhenFull() throws Exception
+    {
+        fake.config.publishQueueCapacity = 2;
+        fake.config.overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+        CompletableFuture<Long> first = batcher.enqueue("Channel", "Proxy:Server", bytes("a"));
+        batcher.enqueue("Channel", "Proxy:Server", bytes("b"));
+        CompletableFuture<Long> dropped = batcher.enqueue("Channel", "Proxy:Server", bytes("c"));
+
+        assertEquals(OutboundBatcher.DROPPED, (long) dropped.get());
+        assertFalse(first.isDone());
+        assertEquals(1, batcher.getQueueMetrics().getDroppedCount());
+        assertEquals(1L, (long) batcher.getQueueMetrics().getDroppedByChannel().get("Channel"));
+
+        batcher.flush();
+
+        assertEquals(2, redis.size());
+        assertEquals("a", string(redis.get(0).message));
+        assertEquals("b", string(redis.get(1).message));
+    }
+
+    @Test
+    public void testDropsOldestWhenFull() throws Exception
+    {
+        fake.config.publishQueueCapacity = 2;
+        fake.config.overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+        CompletableFuture<Long> oldest = batcher.enqueue("Channel", "Proxy:Server", bytes("a"));
+        batcher.enqueue("Channel", "Proxy:Server", bytes("b"));
+        CompletableFuture<Long> newest = batcher.enqueue("Channel", "Proxy:Server", bytes("c"));
+
+        assertEquals(OutboundBatcher.DROPPED, (long) oldest.get());
+        assertFalse(newest.isDone());
+        assertEquals(2, batcher.getPendingCount());
+
+        batcher.flush();
+
+        assertEquals(2, redis.size());
+        assertEquals("b", string(redis.get(0).message));
+        assertEquals("c", string(redis.get(1).message));
+
+        // Everything outstanding is written, so nothing older can make room
+        CompletableFuture<Long> unqueued = batcher.enqueue("Channel", "Proxy:Server", bytes("d"));
+
+        assertEquals(OutboundBatcher.DROPPED, (long) unqueued.get());
+        assertEquals(2, batcher.getQueueMetrics().getDroppedCount());
+        assertEquals(2, redis.size());
+    }
+
+    @Test
+    public void testAppliesPolicyOfChannel() throws Exception
+    {
+        fake.config.publishQueueCapacity = 1;
+        fake.config.channelOverflowPolicies = Collections.singletonMap("Lossy", OverflowPolicy.DROP_NEWEST);
+
+        batcher.enqueue("Channel", "Proxy:Server", bytes("a"));
+
+        assertEquals(OutboundBatcher.DROPPED, (long) batcher.enqueue("Lossy", "Proxy:Server", bytes("b")).get());
+        assertRejected(batcher.enqueue("Channel", "Proxy:Server", bytes("c")));
+    }
+
+    @Test
+    public void testBlocksUntilRoom() throws Exception
+    {
+        fake.config.publishQueueCapacity = 1;
+        fake.config.overflowPolicy = OverflowPolicy.BLOCK;
+        fake.config.publishBlockTimeout = 10000;
+
+        CompletableFuture<Long> first = batcher.enqueue("Channel", "Proxy:Server", bytes("a"));
+        batcher.flush();
+
+        Thread answering = new Thread(() ->
+        {
+            try
+            {
+                Thread.sleep(50);
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            redis.get(0).answer(1);
+        });
+
+        answering.start();
+        CompletableFuture<Long> blocked = batcher.enqueue("Channel", "Proxy:Server", bytes("b"));
+        answering.join();
+
+        assertEquals(1L, (long) first.get());
+        assertFalse(blocked.isDone());
+        assertEquals(1, batcher.getPendingCount());
+        assertEquals(1, batcher.getQueueMetrics().getBlockedCount());
+        assertTrue(batcher.getQueueMetrics().getBlockedNanos() > 0);
+    }
+
+    @Test
+    public void testBlockTimesOut() throws Exception
+    {
+        fake.config.publishQueueCapacity = 1;
+        fake.config.overflowPolicy = OverflowPolicy.BLOCK;
+        fake.config.publishBlockTimeout = 20;
+
+        batcher.enqueue("Channel", "Proxy:Server", bytes("a"));
+
+        assertRejected(batcher.enqueue("Channel", "Proxy:Server", bytes("b")));
+        assertEquals(1, batcher.getQueueMetrics().getBlockedCount());
+        assertEquals(1, batcher.getQueueMetrics().getRejectedCount());
+    }
+
+    @Test
+    public void testNeverBlocksServerThread() throws Exception
+    {
+        fake.config.publishQueueCapacity = 1;
+        fake.config.overflowPolicy = OverflowPolicy.BLOCK;
+        fake.config.publishBlockTimeout = 10000;
+        fake.serverThread = true;
+
+        batcher.enqueue("Channel", "Proxy:Server", bytes("a"));
+
+        assertRejected(batcher.enqueue("Channel", "Proxy:Server", bytes("b")));
+        assertEquals(0, batcher.getQueueMetrics().getBlockedCount());
+    }
+
+    @Test
+    public void testConflatesUnwrittenPublish() throws Exception
+    {
+        CompletableFuture<Long> replaced = batcher.enqueueConflated("Channel", "key", "Proxy:Server", bytes("a"));
+        CompletableFuture<Long> latest = batcher.enqueueConflated("Channel", "key", "Proxy:Server", bytes("b"));
+
+        assertEquals(OutboundBatcher.DROPPED, (long) replaced.get());
+        assertEquals(1, batcher.getPendingCount());
+        assertEquals(1, batcher.getQueueMetrics().getConflatedCount());
+
+        batcher.flush();
+        redis.get(0).answer(4);
+
+        assertEquals(1, redis.size());
+        assertEquals("b", string(redis.get(0).message));
+        assertEquals(4L, (long) latest.get());
+
+        // Written publishes are not replaced anymore
+        batcher.enqueueConflated("Channel", "key", "Proxy:Server", bytes("c"));
+        batcher.flush();
+
+        assertEquals(2, redis.size());
+    }
+
+    private static void assertRejected(CompletableFuture<Long> future) throws Exception
+    {
+        try
+        {
+            future.get();
+            fail("No exception thrown");
+        }
+        catch(ExecutionException ex)
+        {
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value)
+    {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
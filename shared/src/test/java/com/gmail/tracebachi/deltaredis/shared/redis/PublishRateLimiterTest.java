@@ -0,0 +1,223 @@
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.FakeDeltaRedisPlugin;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PublishRateLimiterTest
+{
+    private FakeDeltaRedisPlugin fake = new FakeDeltaRedisPlugin();
+    private List<String> published = new ArrayList<>();
+
+    @Test
+    public void testBucketGoesIntoDebt() throws Exception
+    {
+        TokenBucket bucket = new TokenBucket(new RateLimit(1, 2, RateLimitPolicy.DELAY, 0));
+        long second = TimeUnit.SECONDS.toNanos(1);
+
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+
+        long firstWait = bucket.reserve();
+        long secondWait = bucket.reserve();
+
+        assertTrue(firstWait > second * 9 / 10 && firstWait <= second);
+        assertTrue(secondWait > second * 19 / 10 && secondWait <= 2 * second);
+        assertTrue(bucket.getAvailableTokens() < -1.9);
+
+        bucket.refund();
+        bucket.refund();
+
+        assertTrue(bucket.getAvailableTokens() >= 0);
+    }
+
+    @Test
+    public void testBucketRefillsUpToBurst() throws Exception
+    {
+        TokenBucket bucket = new TokenBucket(new RateLimit(100, 2, RateLimitPolicy.DELAY, 0));
+
+        assertEquals(2.0, bucket.getAvailableTokens(), 0.0);
+
+        bucket.reserve();
+        bucket.reserve();
+        bucket.reserve();
+
+        assertTrue(bucket.getAvailableTokens() < 0);
+
+        Thread.sleep(50);
+
+        assertEquals(2.0, bucket.getAvailableTokens(), 0.0);
+
+        // Refunds do not raise the tokens above the burst either
+        bucket.refund();
+
+        assertEquals(2.0, bucket.getAvailableTokens(), 0.0);
+    }
+
+    @Test
+    public void testPassesUnlimitedChannels() throws Exception
+    {
+        PublishRateLimiter limiter = createLimiter("Limited", new RateLimit(1, 1, RateLimitPolicy.REJECT, 0));
+
+        for(int i = 0; i < 10; i++)
+        {
+            assertEquals(1L, (long) limiter.submit("Other", "key", publish("Other")).get());
+        }
+
+        assertEquals(10, published.size());
+        assertTrue(fake.pluginLookups.isEmpty());
+    }
+
+    @Test
+    public void testRejectsOverLimit() throws Exception
+    {
+        PublishRateLimiter limiter = createLimiter("Channel", new RateLimit(1, 1, RateLimitPolicy.REJECT, 0));
+        TokenBucket bucket = limiter.getChannelBuckets().get("Channel");
+
+        assertEquals(1L, (long) limiter.submit("Channel", "key", publish("a")).get());
+        assertRejected(limiter.submit("Channel", "key", publish("b")));
+
+        assertEquals(Collections.singletonList("a"), published);
+        assertEquals(1, bucket.getAdmittedCount());
+        assertEquals(1, bucket.getRejectedCount());
+
+        // The rejected publish gave its token back
+        assertTrue(bucket.getAvailableTokens() > -0.5);
+    }
+
+    @Test
+    public void testDelaysUntilTokenIsCovered() throws Exception
+    {
+        PublishRateLimiter limiter = createLimiter("Channel", new RateLimit(1, 1, RateLimitPolicy.DELAY, 5000));
+        TokenBucket bucket = limiter.getChannelBuckets().get("Channel");
+
+        limiter.submit("Channel", "key", publish("a"));
+        CompletableFuture<Long> delayed = limiter.submit("Channel", "key", publish("b"));
+
+        assertFalse(delayed.isDone());
+        assertEquals(Collections.singletonList("a"), published);
+        assertEquals(1, limiter.getDelayedCount());
+        assertEquals(1, bucket.getDelayedCount());
+        assertEquals(1, fake.tasks.size());
+        assertTrue(fake.tasks.get(0).delayNanos > TimeUnit.MILLISECONDS.toNanos(900));
+
+        fake.runTasks();
+
+        assertEquals(1L, (long) delayed.get());
+        assertEquals(2, published.size());
+        assertEquals(0, limiter.getDelayedCount());
+    }
+
+    @Test
+    public void testRejectsBeyondMaxDelay() throws Exception
+    {
+        PublishRateLimiter limiter = createLimiter("Channel", new RateLimit(1, 1, RateLimitPolicy.DELAY, 100));
+
+        limiter.submit("Channel", "key", publish("a"));
+
+        assertRejected(limiter.submit("Channel", "key", publish("b")));
+        assertTrue(fake.tasks.isEmpty());
+    }
+
+    @Test
+    public void testConflatesDelayedPublish() throws Exception
+    {
+        PublishRateLimiter limiter = createLimiter("Channel", new RateLimit(1, 1, RateLimitPolicy.CONFLATE, 5000));
+        TokenBucket bucket = limiter.getChannelBuckets().get("Channel");
+
+        limiter.submit("Channel", "key", publish("a"));
+        CompletableFuture<Long> first = limiter.submit("Channel", "key", publish("b"));
+        CompletableFuture<Long> second = limiter.submit("Channel", "key", publish("c"));
+        CompletableFuture<Long> other = limiter.submit("Channel", "other", publish("d"));
+
+        assertTrue(first == second);
+        assertEquals(1, bucket.getConflatedCount());
+        assertEquals(2, limiter.getDelayedCount());
+
+        fake.runTasks();
+
+        assertEquals(1L, (long) first.get());
+        assertEquals(1L, (long) other.get());
+        assertEquals(3, published.size());
+        assertFalse(published.contains("b"));
+        assertTrue(published.contains("c"));
+    }
+
+    @Test
+    public void testLimitsCallingPlugin() throws Exception
+    {
+        fake.pluginName = "Noisy";
+        fake.config.pluginRateLimits = Collections.singletonMap("Noisy",
+            new RateLimit(1, 2, RateLimitPolicy.REJECT, 0));
+
+        PublishRateLimiter limiter = new PublishRateLimiter(fake.plugin);
+
+        limiter.submit("Channel", "key", publish("a"));
+        limiter.submit("Other", "key", publish("b"));
+
+        assertRejected(limiter.submit("Channel", "key", publish("c")));
+        assertEquals(1, limiter.getPluginBuckets().get("Noisy").getRejectedCount());
+
+        // The plugin of each calling class is looked up once
+        int lookups = fake.pluginLookups.size();
+        fake.pluginName = "Quiet";
+
+        assertRejected(limiter.submit("Channel", "key", publish("d")));
+        assertEquals(lookups, fake.pluginLookups.size());
+    }
+
+    @Test
+    public void testFailsDelayedOnShutdown() throws Exception
+    {
+        PublishRateLimiter limiter = createLimiter("Channel", new RateLimit(1, 1, RateLimitPolicy.DELAY, 5000));
+
+        limiter.submit("Channel", "key", publish("a"));
+        CompletableFuture<Long> delayed = limiter.submit("Channel", "key", publish("b"));
+
+        limiter.shutdown();
+
+        assertRejected(delayed);
+        assertEquals(0, limiter.getDelayedCount());
+    }
+
+    private PublishRateLimiter createLimiter(String channel, RateLimit limit)
+    {
+        fake.config.channelRateLimits = Collections.singletonMap(channel, limit);
+        return new PublishRateLimiter(fake.plugin);
+    }
+
+    private Supplier<CompletableFuture<Long>> publish(String message)
+    {
+        return () ->
+        {
+            published.add(message);
+            return CompletableFuture.completedFuture(1L);
+        };
+    }
+
+    private static void assertRejected(CompletableFuture<Long> future) throws Exception
+    {
+        try
+        {
+            future.get();
+            fail("No exception thrown");
+        }
+        catch(ExecutionException ex)
+        {
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
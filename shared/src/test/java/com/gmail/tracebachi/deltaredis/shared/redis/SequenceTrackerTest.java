@@ -0,0 +1,108 @@
+package com.gmail.tracebachi.deltaredis.shared.redis;
+
+import com.gmail.tracebachi.deltaredis.shared.frame.SequenceStamp;
+import com.gmail.tracebachi.deltaredis.shared.metrics.SequenceMetrics;
+import com.gmail.tracebachi.deltaredis.shared.redis.SequenceTracker.Outcome;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SequenceTrackerTest
+{
+    private SequenceTracker tracker = new SequenceTracker();
+
+    @Test
+    public void testFollowsInOrder() throws Exception
+    {
+        assertEquals(Outcome.FIRST, track("Proxy:Server", 1, 5));
+
+        for(int i = 6; i < 100; i++)
+        {
+            assertEquals(Outcome.IN_ORDER, track("Proxy:Server", 1, i));
+        }
+
+        SequenceMetrics metrics = tracker.getMetrics();
+
+        assertEquals(95, metrics.getSequencedCount());
+        assertEquals(1, metrics.getSessionCount());
+        assertEquals(0, metrics.getGapCount());
+        assertEquals(0, metrics.getDuplicateCount());
+        assertEquals(0, metrics.getReorderedCount());
+    }
+
+    @Test
+    public void testCountsGaps() throws Exception
+    {
+        track("Proxy:Server", 1, 0);
+
+        assertEquals(Outcome.GAP, track("Proxy:Server", 1, 4));
+        assertEquals(Outcome.IN_ORDER, track("Proxy:Server", 1, 5));
+        assertEquals(Outcome.GAP, track("Proxy:Server", 1, 1005));
+
+        assertEquals(2, tracker.getMetrics().getGapCount());
+        assertEquals(3 + 999, tracker.getMetrics().getMissingCount());
+    }
+
+    @Test
+    public void testTellsDuplicatesFromLateFrames() throws Exception
+    {
+        track("Proxy:Server", 1, 0);
+        track("Proxy:Server", 1, 1);
+        track("Proxy:Server", 1, 3);
+
+        assertEquals(Outcome.DUPLICATE, track("Proxy:Server", 1, 3));
+        assertEquals(Outcome.DUPLICATE, track("Proxy:Server", 1, 1));
+        assertEquals(Outcome.REORDERED, track("Proxy:Server", 1, 2));
+        assertEquals(Outcome.DUPLICATE, track("Proxy:Server", 1, 2));
+        assertEquals(Outcome.IN_ORDER, track("Proxy:Server", 1, 4));
+
+        assertEquals(3, tracker.getMetrics().getDuplicateCount());
+        assertEquals(1, tracker.getMetrics().getReorderedCount());
+    }
+
+    @Test
+    public void testRemembersOnlyWindow() throws Exception
+    {
+        track("Proxy:Server", 1, 0);
+
+        for(int i = 1; i <= 63; i++)
+        {
+            track("Proxy:Server", 1, i);
+        }
+
+        // Frame 0 is still in the window of the last 64 numbers
+        assertEquals(Outcome.DUPLICATE, track("Proxy:Server", 1, 0));
+
+        track("Proxy:Server", 1, 64);
+
+        // Now it is not, so it can only be counted as late
+        assertEquals(Outcome.REORDERED, track("Proxy:Server", 1, 0));
+
+        // A jump past the window forgets everything before it
+        assertEquals(Outcome.GAP, track("Proxy:Server", 1, 200));
+        assertEquals(Outcome.REORDERED, track("Proxy:Server", 1, 64));
+        assertEquals(Outcome.DUPLICATE, track("Proxy:Server", 1, 200));
+    }
+
+    @Test
+    public void testFollowsSessionsAndChannelsApart() throws Exception
+    {
+        assertEquals(Outcome.FIRST, track("Proxy:Server", 1, 10));
+        assertEquals(Outcome.FIRST, track("Proxy:SPIGOT", 1, 0));
+        assertEquals(Outcome.IN_ORDER, track("Proxy:Server", 1, 11));
+        assertEquals(Outcome.IN_ORDER, track("Proxy:SPIGOT", 1, 1));
+
+        // A restarted publisher starts over in a new session
+        assertEquals(Outcome.FIRST, track("Proxy:Server", -7, 0));
+        assertEquals(Outcome.IN_ORDER, track("Proxy:Server", -7, 1));
+        assertEquals(Outcome.IN_ORDER, track("Proxy:Server", 1, 12));
+
+        assertEquals(3, tracker.getMetrics().getSessionCount());
+        assertEquals(0, tracker.getMetrics().getGapCount());
+    }
+
+    private Outcome track(String channel, long session, long number)
+    {
+        return tracker.track(channel, new SequenceStamp(session, number));
+    }
+}
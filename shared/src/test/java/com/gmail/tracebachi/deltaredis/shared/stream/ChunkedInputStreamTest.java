@@ -0,0 +1,132 @@
+package com.gmail.tracebachi.deltaredis.shared.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkedInputStreamTest
+{
+    @Test
+    public void testReassemblesChunks() throws Exception
+    {
+        AtomicBoolean closed = new AtomicBoolean();
+        ChunkedInputStream in = new ChunkedInputStream(4, 1000, () -> closed.set(true));
+
+        in.offer(0, false, bytes("Hello, "));
+        in.offer(1, false, bytes("World"));
+        in.offer(2, true, bytes("!"));
+
+        assertEquals("Hello, World!", readAll(in));
+        assertEquals(-1, in.read());
+
+        in.close();
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception
+    {
+        ChunkedInputStream in = new ChunkedInputStream(4, 1000, () -> {});
+
+        in.offer(0, true, new byte[0]);
+
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testMissingChunkFailsStream() throws Exception
+    {
+        ChunkedInputStream in = new ChunkedInputStream(4, 1000, () -> {});
+
+        in.offer(0, false, bytes("abc"));
+        in.offer(2, true, bytes("def"));
+
+        assertFails(in);
+    }
+
+    @Test
+    public void testSlowReaderFailsStream() throws Exception
+    {
+        ChunkedInputStream in = new ChunkedInputStream(2, 1000, () -> {});
+
+        in.offer(0, false, bytes("a"));
+        in.offer(1, false, bytes("b"));
+        in.offer(2, false, bytes("c"));
+
+        assertFails(in);
+    }
+
+    @Test
+    public void testGrantsCreditInBatches() throws Exception
+    {
+        List<Integer> credits = new ArrayList<>();
+        ChunkedInputStream in = new ChunkedInputStream(4, 1000, () -> {}, () -> {}, credits::add);
+
+        in.offer(0, false, bytes("a"));
+        in.offer(1, false, bytes("b"));
+        in.offer(2, false, bytes("c"));
+
+        assertEquals('a', in.read());
+        assertTrue(credits.isEmpty());
+        assertEquals('b', in.read());
+        assertEquals(Arrays.asList(2), credits);
+
+        in.offer(3, false, bytes("d"));
+        in.offer(4, true, new byte[0]);
+
+        assertEquals("cd", readAll(in));
+        assertEquals(Arrays.asList(2, 2), credits);
+    }
+
+    @Test
+    public void testTimesOutWithoutChunks() throws Exception
+    {
+        ChunkedInputStream in = new ChunkedInputStream(4, 50, () -> {});
+
+        in.offer(0, false, bytes("a"));
+
+        assertEquals('a', in.read());
+        assertFails(in);
+    }
+
+    private static void assertFails(ChunkedInputStream in)
+    {
+        try
+        {
+            readAll(in);
+            fail("Expected IOException");
+        }
+        catch(IOException expected)
+        {
+        }
+    }
+
+    private static String readAll(ChunkedInputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int read;
+
+        while((read = in.read(buffer, 0, buffer.length)) != -1)
+        {
+            out.write(buffer, 0, read);
+        }
+
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
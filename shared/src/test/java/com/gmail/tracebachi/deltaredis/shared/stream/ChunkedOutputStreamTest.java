@@ -0,0 +1,126 @@
+package com.gmail.tracebachi.deltaredis.shared.stream;
+
+import com.gmail.tracebachi.deltaredis.shared.FakeDeltaRedisPlugin;
+import com.gmail.tracebachi.deltaredis.shared.redis.BlockingCallDetector;
+import com.gmail.tracebachi.deltaredis.shared.redis.DeltaRedisCommandSender;
+import com.gmail.tracebachi.deltaredis.shared.redis.FakeRedisConnection;
+import com.gmail.tracebachi.deltaredis.shared.redis.OutboundBatcher;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkedOutputStreamTest
+{
+    private FakeDeltaRedisPlugin fake = new FakeDeltaRedisPlugin();
+    private FakeRedisConnection redis = new FakeRedisConnection();
+    private OutboundBatcher batcher = new OutboundBatcher(redis.connection, fake.plugin);
+    private DeltaRedisCommandSender sender = new DeltaRedisCommandSender(null, batcher, fake.plugin);
+    private AtomicBoolean closed = new AtomicBoolean();
+
+    @Test
+    public void testWaitsForCredit() throws Exception
+    {
+        ChunkedOutputStream out = createStream(50);
+
+        out.write('a');
+        out.write('b');
+        out.write('c');
+
+        // Two chunks fill the buffer of the receiver
+        assertEquals(2, batcher.getPendingCount());
+
+        try
+        {
+            out.write('d');
+            fail("No exception thrown");
+        }
+        catch(IOException ex)
+        {
+            assertTrue(ex.getMessage().contains("reader"));
+        }
+
+        assertEquals(2, batcher.getPendingCount());
+    }
+
+    @Test
+    public void testSendsOnceGranted() throws Exception
+    {
+        ChunkedOutputStream out = createStream(50);
+
+        out.write('a');
+        out.write('b');
+        out.write('c');
+        out.grant(1);
+        out.write('d');
+
+        assertEquals(3, batcher.getPendingCount());
+    }
+
+    @Test
+    public void testFailWakesWriter() throws Exception
+    {
+        ChunkedOutputStream out = createStream(10000);
+
+        out.write('a');
+        out.write('b');
+        out.write('c');
+
+        Thread failing = new Thread(() ->
+        {
+            try
+            {
+                Thread.sleep(50);
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            out.fail(new IOException("Shutting down"));
+        });
+
+        long start = System.nanoTime();
+        failing.start();
+
+        try
+        {
+            out.write('d');
+            fail("No exception thrown");
+        }
+        catch(IOException ex)
+        {
+            assertEquals("Shutting down", ex.getMessage());
+        }
+
+        failing.join();
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+
+        try
+        {
+            out.close();
+            fail("No exception thrown");
+        }
+        catch(IOException ex)
+        {
+            // Expected
+        }
+
+        assertTrue(closed.get());
+    }
+
+    private ChunkedOutputStream createStream(int timeoutMillis)
+    {
+        fake.config.streamChunkSize = 1;
+        fake.config.streamMaxBufferedChunks = 2;
+        fake.config.streamMaxInFlight = 10;
+        fake.config.streamTimeout = timeoutMillis;
+
+        return new ChunkedOutputStream("stream", sender, "Other", "Channel", fake.config,
+            new BlockingCallDetector(fake.plugin), () -> closed.set(true));
+    }
+}
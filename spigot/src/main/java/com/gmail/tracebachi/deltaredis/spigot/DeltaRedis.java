@@ -20,7 +20,10 @@ import com.gmail.tracebachi.deltaredis.shared.ChatMessageHelper;
 import com.gmail.tracebachi.deltaredis.shared.DeltaRedisApi;
 import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
 import com.gmail.tracebachi.deltaredis.shared.PluginSource;
+import com.gmail.tracebachi.deltaredis.shared.frame.FrameCodec;
+import com.gmail.tracebachi.deltaredis.shared.message.MessageRegistry;
 import com.gmail.tracebachi.deltaredis.shared.redis.*;
+import com.gmail.tracebachi.deltaredis.shared.stream.StreamManager;
 import com.gmail.tracebachi.deltaredis.shared.structure.Channel;
 import com.gmail.tracebachi.deltaredis.shared.structure.Composer;
 import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
@@ -36,9 +39,9 @@ import me.loper.scheduler.SchedulerAdapter;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -48,10 +51,12 @@ import java.util.concurrent.TimeUnit;
 public class DeltaRedis extends JavaPlugin implements DeltaRedisPlugin {
 
     private final Composer<PluginSource> sources = new Composer<>();
+    private final MessageRegistry messageRegistry = new MessageRegistry(this);
 
     private RedisConnectionManager manager;
-    private SchedulerAdapter scheduler;
+    private SpigotSchedulerAdapter scheduler;
     private DeltaRedisConfig config;
+    private FrameCodec frameCodec;
 
     @Override
     public void onLoad() {
@@ -72,14 +77,30 @@ public class DeltaRedis extends JavaPlugin implements DeltaRedisPlugin {
 
         this.scheduler = new SpigotSchedulerAdapter(this);
         this.config = readConfig(getConfig());
+        this.scheduler.getSyncQueue().start(this);
+        this.frameCodec = new FrameCodec(this.config);
 
         RedisClientFactory factory = new RedisClientFactory(this.config.credentials);
-        this.manager = new RedisConnectionManager(factory);
+        BlockingCallDetector blockingCallDetector = new BlockingCallDetector(this);
+        this.manager = new RedisConnectionManager(factory, blockingCallDetector);
 
-        DeltaRedisCommandSender commandSender = new DeltaRedisCommandSender(this.manager.getConnection(), this);
+        OutboundBatcher batcher = new OutboundBatcher(this.manager.getPublishConnection(), this);
+        DeltaRedisCommandSender commandSender = new DeltaRedisCommandSender(
+                this.manager.getConnection(), batcher, this);
+        StreamManager streamManager = new StreamManager(commandSender, this);
 
-        this.sources.add(new DeltaRedisPubSubListener(this));
+        HeaderDictionary dictionary = new HeaderDictionary(this.manager.getConnection(), this);
+        this.frameCodec.setDictionary(dictionary);
+
+        this.sources.add(blockingCallDetector);
+        InboundDispatcher dispatcher = new InboundDispatcher(this);
+
+        this.sources.add(dictionary);
+        this.sources.add(dispatcher);
+        this.sources.add(new DeltaRedisPubSubListener(this, streamManager, dispatcher));
+        this.sources.add(batcher);
         this.sources.add(commandSender);
+        this.sources.add(streamManager);
         this.sources.add(this.manager);
 
         this.sources.add(new DeltaRedisChatMessageListener(this));
@@ -89,7 +110,7 @@ public class DeltaRedis extends JavaPlugin implements DeltaRedisPlugin {
 
         this.sources.register();
 
-        DeltaRedisApi.setup(commandSender, this);
+        DeltaRedisApi.setup(commandSender, streamManager, dispatcher, this.messageRegistry, this);
 
         scheduler.asyncRepeating(() -> {
             commandSender.getServers();
@@ -100,6 +121,7 @@ public class DeltaRedis extends JavaPlugin implements DeltaRedisPlugin {
     @Override
     public void onDisable() {
         getServer().getScheduler().cancelTasks(this);
+        this.scheduler.getSyncQueue().stop();
         this.scheduler.shutdownExecutor();
         this.scheduler.shutdownScheduler();
 
@@ -120,26 +142,20 @@ public class DeltaRedis extends JavaPlugin implements DeltaRedisPlugin {
 
         String sendingServer = allMessageParts.get(0);
         String channel = allMessageParts.get(1);
-        List<String> eventMessageParts = new ArrayList<>(allMessageParts.size() - 2);
-
-        for (int i = 2; i < allMessageParts.size(); i++) {
-            eventMessageParts.add(allMessageParts.get(i));
-        }
+        List<String> eventMessageParts = allMessageParts.subList(2, allMessageParts.size());
 
         onRedisMessageEvent(sendingServer, channel, eventMessageParts);
     }
 
     @Override
     public void onRedisMessageEvent(@NonNull String sendingServer, @NonNull String channel, @NonNull List<String> messageParts) {
-
-        if (getServerName().equals(sendingServer)) {
-            return;
-        }
+        this.messageRegistry.deliver(sendingServer, channel, messageParts);
 
         DeltaRedisMessageEvent event = new DeltaRedisMessageEvent(
                 sendingServer,
                 channel,
-                messageParts);
+                messageParts,
+                sendingServer.equals(this.config.serverName));
 
         Bukkit.getPluginManager().callEvent(event);
     }
@@ -176,6 +192,14 @@ public class DeltaRedis extends JavaPlugin implements DeltaRedisPlugin {
         return this.scheduler;
     }
 
+    /**
+     * @return Queue of the tasks waiting for the main thread, with its
+     * depth and lag
+     */
+    public SyncTaskQueue getSyncTaskQueue() {
+        return this.scheduler.getSyncQueue();
+    }
+
     @Override
     public void sendConsoleCommand(String command) {
         this.getServer().dispatchCommand(this.getServer().getConsoleSender(), command);
@@ -193,7 +217,39 @@ public class DeltaRedis extends JavaPlugin implements DeltaRedisPlugin {
 
     @Override
     public String getCommonChannel() {
-        return Channel.PROXY;
+        return Channel.SPIGOT;
+    }
+
+    @Override
+    public DeltaRedisConfig getDeltaRedisConfig() {
+        return this.config;
+    }
+
+    @Override
+    public FrameCodec getFrameCodec() {
+        return this.frameCodec;
+    }
+
+    @Override
+    public boolean isServerThread() {
+        return Bukkit.isPrimaryThread();
+    }
+
+    @Override
+    public String getPluginName(String className) {
+        for (Plugin plugin : getServer().getPluginManager().getPlugins()) {
+            ClassLoader classLoader = plugin.getClass().getClassLoader();
+
+            try {
+                if (Class.forName(className, false, classLoader).getClassLoader() == classLoader) {
+                    return plugin.getName();
+                }
+            } catch (ClassNotFoundException | LinkageError ignored) {
+                // Not visible to or not defined by this plugin
+            }
+        }
+
+        return null;
     }
 
     private @NonNull DeltaRedisConfig readConfig(ConfigurationSection configuration) {
@@ -224,6 +280,12 @@ public class DeltaRedis extends JavaPlugin implements DeltaRedisPlugin {
 
         RedisCredentials credentials = RedisCredentialsFactory.createRedisCredentials(configuration);
 
-        return new DeltaRedisConfig(updatePeriod, proxyName, serverName, debugEnabled, credentials);
+        DeltaRedisConfig result = new DeltaRedisConfig(updatePeriod, proxyName, serverName, debugEnabled, credentials);
+        result.syncTickBudget = configuration.getLong("sync-tick-budget", 5);
+        result.read(new SpigotConfigAccessor(configuration));
+
+        Preconditions.checkArgument(result.syncTickBudget > 0, "Sync tick budget must be positive.");
+
+        return result;
     }
 }
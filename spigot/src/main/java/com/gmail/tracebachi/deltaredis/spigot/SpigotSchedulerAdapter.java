@@ -8,25 +8,27 @@ import java.util.concurrent.TimeUnit;
 
 public class SpigotSchedulerAdapter extends AbstractJavaScheduler {
 
-    private final Executor executor;
-    private final DeltaRedis plugin;
+    private final SyncTaskQueue syncQueue;
 
     public SpigotSchedulerAdapter(DeltaRedis plugin) {
         super("deltaredis-scheduler");
-        this.plugin = plugin;
-        this.executor = r -> plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, r);
+        this.syncQueue = new SyncTaskQueue(plugin);
     }
 
     @Override
     public Executor sync() {
-        return this.executor;
+        return this.syncQueue;
     }
 
     @Override
     public SchedulerTask syncRepeating(Runnable runnable, long l, TimeUnit timeUnit) {
-        Runnable r = () -> plugin.getServer().getScheduler()
-                .runTask(plugin, runnable);
+        return this.asyncRepeating(() -> this.syncQueue.execute(runnable), l, timeUnit);
+    }
 
-        return this.asyncRepeating(r, l, timeUnit);
+    /**
+     * @return Queue that runs the sync tasks on the main thread
+     */
+    public SyncTaskQueue getSyncQueue() {
+        return this.syncQueue;
     }
 }
@@ -0,0 +1,165 @@
+/*
+ * This file is part of DeltaRedis.
+ *
+ * DeltaRedis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DeltaRedis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DeltaRedis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.deltaredis.spigot;
+
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the tasks handed to the main thread from a single repeating task,
+ * within a time budget per tick
+ * <p>Any thread can queue a task, but only the main thread runs them. Tasks
+ * left once the budget of a tick is spent wait for the next tick, so a burst
+ * of messages is spread over several ticks instead of making one tick late.
+ * At least one task runs per tick, so the queue always makes progress.</p>
+ */
+public class SyncTaskQueue implements Executor {
+    private final ConcurrentLinkedQueue<QueuedTask> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder ran = new LongAdder();
+    private final LongAdder deferredTicks = new LongAdder();
+    private final DeltaRedisPlugin plugin;
+
+    private volatile long maxLagNanos;
+    private BukkitTask drainTask;
+
+    public SyncTaskQueue(DeltaRedisPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts draining the queue every tick
+     *
+     * @param owner Plugin that owns the repeating task
+     */
+    public void start(Plugin owner) {
+        if (drainTask == null) {
+            drainTask = owner.getServer().getScheduler().runTaskTimer(owner, this::drain, 1, 1);
+        }
+    }
+
+    /**
+     * Stops draining the queue and drops the tasks still in it
+     */
+    public void stop() {
+        if (drainTask != null) {
+            drainTask.cancel();
+            drainTask = null;
+        }
+
+        tasks.clear();
+        queued.set(0);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        tasks.add(new QueuedTask(command));
+        queued.incrementAndGet();
+    }
+
+    /**
+     * @return Number of tasks waiting for the main thread
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return Milliseconds the oldest waiting task has been queued for, or 0
+     */
+    public long getLagMillis() {
+        QueuedTask oldest = tasks.peek();
+        return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.queuedAt);
+    }
+
+    /**
+     * @return Highest number of milliseconds a task waited before it ran
+     */
+    public long getMaxLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+    }
+
+    /**
+     * @return Number of tasks run
+     */
+    public long getRanCount() {
+        return ran.sum();
+    }
+
+    /**
+     * @return Number of ticks that spent their budget and left tasks for
+     * the next tick
+     */
+    public long getDeferredTicks() {
+        return deferredTicks.sum();
+    }
+
+    /**
+     * Runs queued tasks until the budget of the tick is spent
+     */
+    void drain() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(plugin.getDeltaRedisConfig().syncTickBudget);
+
+        do {
+            QueuedTask task = tasks.poll();
+
+            if (task == null) {
+                return;
+            }
+
+            queued.decrementAndGet();
+
+            long lag = System.nanoTime() - task.queuedAt;
+
+            if (lag > maxLagNanos) {
+                maxLagNanos = lag;
+            }
+
+            try {
+                task.runnable.run();
+            } catch (Throwable t) {
+                plugin.severe("Failed to run a task queued for the main thread");
+
+                t.printStackTrace();
+            }
+
+            ran.increment();
+        } while (System.nanoTime() < deadline);
+
+        if (!tasks.isEmpty()) {
+            deferredTicks.increment();
+            plugin.debug("Deferred " + queued.get() + " tasks to the next tick, oldest queued "
+                    + getLagMillis() + "ms ago");
+        }
+    }
+
+    private static class QueuedTask {
+        private final Runnable runnable;
+        private final long queuedAt = System.nanoTime();
+
+        private QueuedTask(Runnable runnable) {
+            this.runnable = runnable;
+        }
+    }
+}
@@ -25,8 +25,10 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
@@ -103,11 +105,13 @@ public class RunCmdCommand implements CommandExecutor, PluginSource {
             return true;
         }
 
+        List<String> correctedDests = new ArrayList<>(servers.size());
+
         for (String serv : servers) {
             String correctedDest = getMatchInSet(cachedServers, serv);
 
             if (correctedDest != null) {
-                deltaApi.sendServerCommand(correctedDest, commandStr, senderName);
+                correctedDests.add(correctedDest);
 
                 sender.sendMessage(format("DeltaRedis.CommandSent", serv));
             } else {
@@ -115,6 +119,10 @@ public class RunCmdCommand implements CommandExecutor, PluginSource {
             }
         }
 
+        if (!correctedDests.isEmpty()) {
+            deltaApi.sendServerCommand(correctedDests, commandStr, senderName);
+        }
+
         return true;
     }
 
@@ -32,8 +32,14 @@ public class DeltaRedisMessageEvent extends Event {
     private final List<String> messageParts;
     private final String sendingServer;
     private final String channel;
+    private final boolean local;
 
     public DeltaRedisMessageEvent(@NonNull String sendingServer, @NonNull String channel, @NonNull List<String> messageParts) {
+        this(sendingServer, channel, messageParts, false);
+    }
+
+    public DeltaRedisMessageEvent(@NonNull String sendingServer, @NonNull String channel,
+                                  @NonNull List<String> messageParts, boolean local) {
         super(true);
         Preconditions.checkArgument(!sendingServer.isEmpty(), "Empty sendingServer");
         Preconditions.checkArgument(!channel.isEmpty(), "Empty channel");
@@ -41,6 +47,7 @@ public class DeltaRedisMessageEvent extends Event {
         this.channel = channel;
         this.sendingServer = sendingServer;
         this.messageParts = Collections.unmodifiableList(messageParts);
+        this.local = local;
     }
 
     /**
@@ -64,6 +71,15 @@ public class DeltaRedisMessageEvent extends Event {
         return messageParts;
     }
 
+    /**
+     * @return True if the current server sent the message. A server receives
+     * its own messages to destinations it subscribes to, such as itself, its
+     * groups and its common channel, directly instead of through Redis.
+     */
+    public boolean isLocal() {
+        return local;
+    }
+
     /**
      * @return True if the message was sent by the current server or false
      */
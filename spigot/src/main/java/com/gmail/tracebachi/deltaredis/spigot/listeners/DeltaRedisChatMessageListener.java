@@ -61,7 +61,11 @@ public class DeltaRedisChatMessageListener implements Listener, PluginSource {
         String channel = event.getChannel();
         List<String> messageParts = event.getMessageParts();
 
-        if (channel.equals(DeltaRedisChannels.SEND_ANNOUNCEMENT)) {
+        // Commands and announcements are meant for the other servers, so
+        // the sending server ignores its own when they reach it as well
+        boolean fromSelf = event.isLocal();
+
+        if (channel.equals(DeltaRedisChannels.SEND_ANNOUNCEMENT) && !fromSelf) {
             String permission = messageParts.get(0);
             String[] lines = NEWLINE.split(messageParts.get(1));
 
@@ -95,7 +99,7 @@ public class DeltaRedisChatMessageListener implements Listener, PluginSource {
             }
         }
 
-        if (channel.equals(DeltaRedisChannels.RUN_CMD)) {
+        if (channel.equals(DeltaRedisChannels.RUN_CMD) && !fromSelf) {
             String sender = messageParts.get(0);
             String command = messageParts.get(1);
 
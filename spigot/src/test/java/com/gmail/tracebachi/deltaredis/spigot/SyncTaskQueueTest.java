@@ -0,0 +1,158 @@
+package com.gmail.tracebachi.deltaredis.spigot;
+
+import com.gmail.tracebachi.deltaredis.shared.DeltaRedisConfig;
+import com.gmail.tracebachi.deltaredis.shared.structure.DeltaRedisPlugin;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncTaskQueueTest
+{
+    private DeltaRedisConfig config = new DeltaRedisConfig(0, "Proxy", "Server", false, null);
+    private List<String> severe = new ArrayList<>();
+    private SyncTaskQueue queue = new SyncTaskQueue(createPlugin());
+
+    @Test
+    public void testDefersTasksPastBudget() throws Exception
+    {
+        config.syncTickBudget = 100;
+
+        for(int i = 0; i < 6; i++)
+        {
+            queue.execute(() -> sleep(60));
+        }
+
+        assertEquals(6, queue.getQueuedCount());
+
+        queue.drain();
+
+        // The second task ends at or after the deadline of the tick
+        assertEquals(2, queue.getRanCount());
+        assertEquals(4, queue.getQueuedCount());
+        assertEquals(1, queue.getDeferredTicks());
+
+        queue.drain();
+        queue.drain();
+
+        assertEquals(6, queue.getRanCount());
+        assertEquals(0, queue.getQueuedCount());
+        assertEquals(2, queue.getDeferredTicks());
+
+        // A tick that empties the queue is not deferred
+        queue.execute(() -> {});
+        queue.drain();
+
+        assertEquals(2, queue.getDeferredTicks());
+    }
+
+    @Test
+    public void testRunsOneTaskPerTickAtLeast() throws Exception
+    {
+        config.syncTickBudget = 1;
+
+        for(int i = 0; i < 3; i++)
+        {
+            queue.execute(() -> sleep(5));
+        }
+
+        for(int i = 1; i <= 3; i++)
+        {
+            queue.drain();
+
+            assertEquals(i, queue.getRanCount());
+        }
+
+        assertEquals(0, queue.getQueuedCount());
+    }
+
+    @Test
+    public void testRunsInOrderPastFailures() throws Exception
+    {
+        config.syncTickBudget = 50;
+
+        List<Integer> ran = new ArrayList<>();
+
+        queue.execute(() -> ran.add(1));
+        queue.execute(() ->
+        {
+            throw new IllegalStateException("Broken task");
+        });
+        queue.execute(() -> ran.add(3));
+        queue.drain();
+
+        assertEquals(3, queue.getRanCount());
+        assertEquals(Arrays.asList(1, 3), ran);
+        assertEquals(1, severe.size());
+    }
+
+    @Test
+    public void testMeasuresLag() throws Exception
+    {
+        config.syncTickBudget = 50;
+
+        assertEquals(0, queue.getLagMillis());
+
+        queue.execute(() -> {});
+        sleep(30);
+
+        assertTrue(queue.getLagMillis() >= 30);
+
+        queue.drain();
+
+        assertEquals(0, queue.getLagMillis());
+        assertTrue(queue.getMaxLagMillis() >= 30);
+    }
+
+    @Test
+    public void testDropsTasksOnStop() throws Exception
+    {
+        List<Integer> ran = new ArrayList<>();
+
+        queue.execute(() -> ran.add(1));
+        queue.stop();
+        queue.drain();
+
+        assertEquals(0, queue.getQueuedCount());
+        assertTrue(ran.isEmpty());
+    }
+
+    private DeltaRedisPlugin createPlugin()
+    {
+        return (DeltaRedisPlugin) Proxy.newProxyInstance(
+            DeltaRedisPlugin.class.getClassLoader(),
+            new Class<?>[] {DeltaRedisPlugin.class},
+            (proxy, method, args) ->
+            {
+                switch(method.getName())
+                {
+                    case "getDeltaRedisConfig":
+                        return config;
+                    case "severe":
+                        severe.add((String) args[0]);
+                        return null;
+                    case "debug":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}